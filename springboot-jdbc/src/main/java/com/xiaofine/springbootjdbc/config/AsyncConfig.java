@@ -0,0 +1,69 @@
+package com.xiaofine.springbootjdbc.config;
+
+import com.xiaofine.springbootjdbc.datasource.ReplicaRoutingDataSource;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+
+/**
+ * The executor all database work of the async endpoints runs on, so a slow query holds one of its
+ * threads instead of a Tomcat worker. It is bounded: with every thread busy and the queue full new work
+ * is rejected, and the controller answers 503 instead of letting requests pile up.
+ * <p>
+ * Streaming responses run on it as well, through Spring MVC's async support.
+ */
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    /**
+     * More threads than pool connections would only wait for a connection, keep them about equal
+     */
+    @Value("${user.async.threads:20}")
+    private int threads;
+
+    /**
+     * Work waiting for a thread, beyond it requests are turned away with 503
+     */
+    @Value("${user.async.queue-capacity:200}")
+    private int queueCapacity;
+
+    /**
+     * How long a request waits for its result before it fails with 503
+     */
+    @Value("${user.async.timeout:30s}")
+    private Duration timeout;
+
+    @Bean
+    public ThreadPoolTaskExecutor jdbcExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("jdbc-");
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        // a request pinned to the primary after a write stays pinned on the executor thread
+        executor.setTaskDecorator(ReplicaRoutingDataSource::keepPin);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds((int) timeout.getSeconds());
+        return executor;
+    }
+
+    @Bean
+    public MeterBinder jdbcExecutorMetrics(ThreadPoolTaskExecutor jdbcExecutor) {
+        return registry -> new ExecutorServiceMetrics(jdbcExecutor.getThreadPoolExecutor(), "jdbc", Tags.empty())
+                .bindTo(registry);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(jdbcExecutor());
+        configurer.setDefaultTimeout(timeout.toMillis());
+    }
+}
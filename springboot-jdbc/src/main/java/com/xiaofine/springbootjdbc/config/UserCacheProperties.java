@@ -0,0 +1,100 @@
+package com.xiaofine.springbootjdbc.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties("user.cache")
+public class UserCacheProperties {
+
+    /**
+     * Whether user lookups by id are served from a local cache in front of the database
+     */
+    private boolean enabled = true;
+
+    /**
+     * Most users kept in the cache, the least recently used go first
+     */
+    private long maxSize = 10000;
+
+    /**
+     * How long a cached user is served before it is read again, bounds staleness from writes by other instances
+     */
+    private Duration expireAfterWrite = Duration.ofMinutes(10);
+
+    private final WriteBehind writeBehind = new WriteBehind();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public Duration getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    public void setExpireAfterWrite(Duration expireAfterWrite) {
+        this.expireAfterWrite = expireAfterWrite;
+    }
+
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    public static class WriteBehind {
+
+        /**
+         * Buffer single adds and updates and write them in batches. They are acknowledged before they reach the
+         * database, so a crash loses what is still buffered. Failed batches are retried, rows the database
+         * rejects are dropped
+         */
+        private boolean enabled = false;
+
+        /**
+         * Longest time a buffered write waits for its batch
+         */
+        private Duration flushInterval = Duration.ofSeconds(1);
+
+        /**
+         * Buffered writes that trigger a flush on the flusher thread, writers wait once twice as many are buffered
+         */
+        private int batchSize = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+}
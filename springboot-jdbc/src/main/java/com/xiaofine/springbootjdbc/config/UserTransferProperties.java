@@ -0,0 +1,103 @@
+package com.xiaofine.springbootjdbc.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties("user.transfer")
+public class UserTransferProperties {
+
+    /**
+     * Threads parsing and validating the lines of one import
+     */
+    private int parsers = 4;
+
+    /**
+     * Threads inserting the rows of one import, each on its own connection
+     */
+    private int writers = 2;
+
+    /**
+     * Lines parsed as one unit, also the rows of one insert batch
+     */
+    private int blockSize = 1000;
+
+    /**
+     * Blocks waiting between two stages. Memory of an import is about
+     * (parsers + writers + 2 * queue capacity) blocks, whatever the size of the file
+     */
+    private int queueCapacity = 8;
+
+    /**
+     * Imports running at once, beyond it imports are turned away with 503
+     */
+    private int maxImports = 2;
+
+    /**
+     * Rejected lines reported back with their reason, the rest are only counted
+     */
+    private int maxReportedErrors = 100;
+
+    /**
+     * Insert with LOAD DATA LOCAL INFILE instead of batches, MySQL only and the url needs
+     * allowLoadLocalInfile=true. The rows are still parsed and validated here and streamed to the
+     * server by one writer
+     */
+    private boolean loadData = false;
+
+    public int getParsers() {
+        return parsers;
+    }
+
+    public void setParsers(int parsers) {
+        this.parsers = parsers;
+    }
+
+    public int getWriters() {
+        return writers;
+    }
+
+    public void setWriters(int writers) {
+        this.writers = writers;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getMaxImports() {
+        return maxImports;
+    }
+
+    public void setMaxImports(int maxImports) {
+        this.maxImports = maxImports;
+    }
+
+    public int getMaxReportedErrors() {
+        return maxReportedErrors;
+    }
+
+    public void setMaxReportedErrors(int maxReportedErrors) {
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    public boolean isLoadData() {
+        return loadData;
+    }
+
+    public void setLoadData(boolean loadData) {
+        this.loadData = loadData;
+    }
+}
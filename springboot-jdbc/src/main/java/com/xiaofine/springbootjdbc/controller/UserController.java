@@ -1,69 +1,228 @@
 package com.xiaofine.springbootjdbc.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xiaofine.springbootjdbc.entity.User;
+import com.xiaofine.springbootjdbc.service.AsyncUserService;
+import com.xiaofine.springbootjdbc.service.ImportFailedException;
+import com.xiaofine.springbootjdbc.service.ImportResult;
 import com.xiaofine.springbootjdbc.service.UserService;
+import com.xiaofine.springbootjdbc.service.UserTransferService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Every endpoint hands its database work to the jdbc executor and returns, the Tomcat worker is free
+ * while the query runs. When that executor is saturated requests are answered with 503 right away.
+ */
 @RestController
 @RequestMapping("/user")
 public class UserController {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final String DEFAULT_PAGE_SIZE = "100";
+
+    private static final int MAX_IDS = 1000;
+
+    @Autowired
+    AsyncUserService asyncUserService;
+
     @Autowired
     UserService userService;
 
+    @Autowired
+    UserTransferService userTransferService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    /**
+     * With user.cache.write-behind.enabled the new user is only buffered when this answers, it has no id
+     * yet and is written within the flush interval
+     */
     @RequestMapping(value = "",method = RequestMethod.POST)
-    public String addUser(@RequestParam(value = "name")String name,
+    public CompletableFuture<String> addUser(@RequestParam(value = "name")String name,
                    @RequestParam(value = "email")String email){
         User user =new User();
         user.setName(name);
         user.setEmail(email);
 
-        int t = userService.add(user);
-        if(t==1){
-            return user.toString();
-        }else {
-            return "fail";
-        }
+        return asyncUserService.add(user).thenApply(t -> {
+            if(t==1){
+                return user.toString();
+            }else {
+                return "fail";
+            }
+        });
+    }
+
+    /**
+     * Bulk insert of a JSON array of users, answers with the users and their generated ids
+     */
+    @RequestMapping(value = "batch",method = RequestMethod.POST)
+    public CompletableFuture<List<User>> addUsers(@RequestBody List<User> users){
+        return asyncUserService.addAll(users).thenApply(added -> users);
+    }
+
+    @RequestMapping(value = "batch",method = RequestMethod.PUT)
+    public CompletableFuture<String> updateUsers(@RequestBody List<User> users){
+        return asyncUserService.updateAll(users).thenApply(updated -> "updated " + updated);
     }
 
+    /**
+     * With user.cache.write-behind.enabled the update is only buffered when this answers: it is written
+     * within the flush interval, and retried with the next flush if that write fails
+     */
     @RequestMapping(value="/{id}",method = RequestMethod.PUT)
-    public String updateUser(@PathVariable("id") int id ,
+    public CompletableFuture<String> updateUser(@PathVariable("id") int id ,
                              @RequestParam(value = "name",required = true)String name,
                              @RequestParam(value = "email",required = true) String email){
         User user =new User();
         user.setId(id);
         user.setName(name);
         user.setEmail(email);
-        int t = userService.update(user);
-        if(t==1){
-            return user.toString();
-        }else {
-            return "fail";
-        }
+        return asyncUserService.update(user).thenApply(t -> {
+            if(t==1){
+                return user.toString();
+            }else {
+                return "fail";
+            }
+        });
     }
 
     //默认不写是GET请求
     @RequestMapping("delete/{id}")
-    public String deleteUser(@PathVariable("id") int id){
-        int t = userService.delete(id);
-        if(t==1){
-            return "succese delete"+id;
-        }else {
-            return "fail";
-        }
+    public CompletableFuture<String> deleteUser(@PathVariable("id") int id){
+        return asyncUserService.delete(id).thenApply(t -> {
+            if(t==1){
+                return "succese delete"+id;
+            }else {
+                return "fail";
+            }
+        });
     }
 
 
     @RequestMapping(value = "/{id}",method = RequestMethod.GET)
-    public User getUserById(@PathVariable("id") int id){
-        return userService.findUserById(id);
+    public CompletableFuture<User> getUserById(@PathVariable("id") int id){
+        return asyncUserService.findUserById(id);
     }
 
+    /**
+     * Several users by id, e.g. /user?ids=3,1,2, in the order the ids are given. Unknown ids are left out
+     */
+    @RequestMapping(value = "",method = RequestMethod.GET,params = "ids")
+    public CompletableFuture<ResponseEntity<List<User>>> getUsersByIds(@RequestParam(value = "ids") List<Integer> ids){
+        if (ids.size() > MAX_IDS) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+        return asyncUserService.findUsersByIds(ids).thenApply(ResponseEntity::ok);
+    }
+
+    /**
+     * Every user at once, only without after= and limit=
+     */
+    @RequestMapping(value="list",method = RequestMethod.GET,params = {"!after", "!limit"})
+    public CompletableFuture<List<User>> getUsers(){
+        return asyncUserService.findAllUsers();
+    }
+
+    /**
+     * Keyset page, e.g. /user/list?after=0&limit=100, then after= the last id of each page.
+     * Every page is an index range scan, however deep into the table it is
+     */
     @RequestMapping(value="list",method = RequestMethod.GET)
-    public List<User> getUsers(){
-        return userService.findAllUsers();
+    public CompletableFuture<List<User>> getUsers(@RequestParam(value = "after",defaultValue = "0") int after,
+                                                  @RequestParam(value = "limit",defaultValue = DEFAULT_PAGE_SIZE) int limit){
+        return asyncUserService.findUsers(after, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * All users as one JSON array, written while the rows are read so memory stays flat. The body is
+     * written on the jdbc executor, which Spring MVC runs streaming responses on
+     */
+    @RequestMapping(value="stream",method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> streamUsers() {
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartArray();
+                userService.forEachUser(user -> {
+                    try {
+                        generator.writeObject(user);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Bulk import of a text/csv or application/x-ndjson body. The request thread reads the body and feeds
+     * it to the import's own parser and writer threads; invalid lines are skipped and reported. An import
+     * that fails after committing rows answers 500 with the result so far, whose imported count says what landed
+     */
+    @RequestMapping(value="import",method = RequestMethod.POST,consumes = {"text/csv", "application/x-ndjson"})
+    public ImportResult importUsers(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                    InputStream body) throws IOException {
+        MediaType mediaType = MediaType.parseMediaType(contentType);
+        UserTransferService.Format format = mediaType.isCompatibleWith(MediaType.parseMediaType("text/csv"))
+                ? UserTransferService.Format.CSV : UserTransferService.Format.NDJSON;
+        try {
+            return userTransferService.importUsers(body, format);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * All users as csv or ndjson, e.g. /user/export?format=csv, written on the jdbc executor while the rows are read
+     */
+    @RequestMapping(value="export",method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(value = "format",defaultValue = "ndjson") String format) {
+        UserTransferService.Format exported;
+        try {
+            exported = UserTransferService.Format.of(format);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "format is csv or ndjson", e);
+        }
+        StreamingResponseBody body = out -> userTransferService.exportUsers(out, exported);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exported.getMediaType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=users." + exported.name().toLowerCase(Locale.ROOT))
+                .body(body);
+    }
+
+    @ExceptionHandler(ImportFailedException.class)
+    public ResponseEntity<ImportResult> importFailed(ImportFailedException e){
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getResult());
+    }
+
+    /**
+     * The jdbc executor is saturated, the client should come back later
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<String> busy(){
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("busy");
     }
 }
@@ -2,7 +2,10 @@ package com.xiaofine.springbootjdbc.dao;
 
 import com.xiaofine.springbootjdbc.entity.User;
 
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface UserDao {
 
@@ -10,9 +13,38 @@ public interface UserDao {
 
     int update(User user);
 
+    /**
+     * Inserts in JDBC batches and sets the generated id on each user
+     */
+    int addAll(List<User> users);
+
+    int updateAll(List<User> users);
+
+    /**
+     * Inserts tab separated name and email lines with LOAD DATA LOCAL INFILE, escaped the way LOAD DATA
+     * expects. MySQL only, the url needs allowLoadLocalInfile=true
+     */
+    int loadAll(InputStream rows);
+
     int delete(int id);
 
     User findUserById(int id);
 
+    /**
+     * The users with these ids in the order the ids are given, ids without a user are left out and
+     * repeated ids give the user once
+     */
+    List<User> findUsersByIds(Collection<Integer> ids);
+
     List<User> findAllUsers();
+
+    /**
+     * Keyset page: up to limit users with an id above afterId, in id order
+     */
+    List<User> findUsers(int afterId, int limit);
+
+    /**
+     * Hands every user to the action as the rows arrive, without holding the result in memory
+     */
+    void forEachUser(Consumer<User> action);
 }
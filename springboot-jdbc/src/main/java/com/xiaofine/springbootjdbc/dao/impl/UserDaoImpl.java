@@ -1,29 +1,180 @@
 package com.xiaofine.springbootjdbc.dao.impl;
 
 import com.xiaofine.springbootjdbc.dao.UserDao;
+import com.xiaofine.springbootjdbc.datasource.ReplicaRoutingDataSource;
 import com.xiaofine.springbootjdbc.entity.User;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Repository
 public class UserDaoImpl implements UserDao {
 
+    private static final String INSERT = "insert into user(name,email) values(?,?)";
+
+    private static final String UPDATE = "update user SET name =?,email=? WHERE id=?";
+
+    private static final String LOAD_DATA = "LOAD DATA LOCAL INFILE 'users.tsv' INTO TABLE user CHARACTER SET utf8mb4 (name,email)";
+
+    /**
+     * Connector/J statement that reads a LOAD DATA LOCAL file from a stream, the driver is only on the runtime classpath
+     */
+    private static final String MYSQL_STATEMENT = "com.mysql.cj.jdbc.JdbcStatement";
+
+    private static final String MYSQL = "MySQL";
 
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * Rows per JDBC batch. With rewriteBatchedStatements=true on the MySQL url each batch is sent as
+     * multi-row inserts instead of one statement per row
+     */
+    @Value("${user.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * Rows fetched per round trip when streaming. MySQL ignores it without useCursorFetch=true on the url,
+     * which would turn every query with a fetch size into a cursor, so there the rows are streamed instead
+     */
+    @Value("${user.fetch-size:1000}")
+    private int fetchSize;
+
+    /**
+     * Most ids in one IN list of findUsersByIds
+     */
+    @Value("${user.multi-get.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * IN lists of one findUsersByIds call that run at the same time, each on its own connection
+     */
+    @Value("${user.multi-get.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * Runs the IN lists of a lookup beyond the first. When it is saturated the caller runs them itself.
+     * Each list holds one connection only while it runs, and a caller waiting for its lists holds none,
+     * so lookups never hold a connection while waiting for another from the same pool
+     */
+    private ThreadPoolExecutor chunkExecutor;
+
+    /**
+     * Placeholder lists for the padded IN list sizes, a power of two up to chunkSize, so the statement
+     * cache sees a handful of distinct statements rather than one per id count
+     */
+    private final Map<Integer, String> inQueries = new HashMap<>();
+
+    @PostConstruct
+    void startChunkExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("user-multi-get-");
+        threadFactory.setDaemon(true);
+        chunkExecutor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(parallelism * 4), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        chunkExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void stopChunkExecutor() {
+        chunkExecutor.shutdown();
+    }
+
     @Override
     public int add(User user) {
-        return jdbcTemplate.update("insert into user(name,email) values(?,?)",user.getName(),user.getEmail());
+        return jdbcTemplate.update(INSERT,user.getName(),user.getEmail());
     }
 
     @Override
     public int update(User user) {
-        return jdbcTemplate.update("update user SET name =?,email=? WHERE id=?",user.getName(),user.getEmail(),user.getId());
+        return jdbcTemplate.update(UPDATE,user.getName(),user.getEmail(),user.getId());
+    }
+
+    @Override
+    public int addAll(List<User> users) {
+        // JdbcTemplate.batchUpdate cannot return generated keys, so the batches are run on the connection directly
+        return jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+            int added = 0;
+            try (PreparedStatement ps = connection.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS)) {
+                for (int from = 0; from < users.size(); from += batchSize) {
+                    List<User> chunk = users.subList(from, Math.min(from + batchSize, users.size()));
+                    for (User user : chunk) {
+                        ps.setString(1, user.getName());
+                        ps.setString(2, user.getEmail());
+                        ps.addBatch();
+                    }
+                    added += rowCount(ps.executeBatch());
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        for (int i = 0; i < chunk.size() && keys.next(); i++) {
+                            chunk.get(i).setId(keys.getInt(1));
+                        }
+                    }
+                }
+            }
+            return added;
+        });
+    }
+
+    @Override
+    public int updateAll(List<User> users) {
+        int[][] counts = jdbcTemplate.batchUpdate(UPDATE, users, batchSize, (ps, user) -> {
+            ps.setString(1, user.getName());
+            ps.setString(2, user.getEmail());
+            ps.setInt(3, user.getId());
+        });
+        int updated = 0;
+        for (int[] chunk : counts) {
+            updated += rowCount(chunk);
+        }
+        return updated;
+    }
+
+    @Override
+    public int loadAll(InputStream rows) {
+        return jdbcTemplate.execute((StatementCallback<Integer>) statement -> {
+            try {
+                Class<?> type = Class.forName(MYSQL_STATEMENT, true, getClass().getClassLoader());
+                Method setInput = type.getMethod("setLocalInfileInputStream", InputStream.class);
+                setInput.invoke(statement.unwrap(type), rows);
+            } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+                throw new SQLException("LOAD DATA LOCAL INFILE needs the MySQL driver", e);
+            } catch (InvocationTargetException e) {
+                throw new SQLException("Could not hand the rows to the MySQL driver", e.getCause());
+            }
+            return statement.executeUpdate(LOAD_DATA);
+        });
     }
 
     @Override
@@ -33,7 +184,7 @@ public class UserDaoImpl implements UserDao {
 
     @Override
     public User findUserById(int id) {
-        List<User> list = jdbcTemplate.query("SELECT * FROM user where id =?",new Object[]{id}, new BeanPropertyRowMapper(User.class));
+        List<User> list = jdbcTemplate.query("SELECT " + UserRowMapper.COLUMNS + " FROM user where id =?",new Object[]{id}, UserRowMapper.INSTANCE);
         if(list!=null && list.size()>0){
             return list.get(0);
         }else{
@@ -41,13 +192,115 @@ public class UserDaoImpl implements UserDao {
         }
     }
 
+    @Override
+    public List<User> findUsersByIds(Collection<Integer> ids) {
+        List<Integer> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int from = 0; from < distinct.size(); from += chunkSize) {
+            chunks.add(distinct.subList(from, Math.min(from + chunkSize, distinct.size())));
+        }
+        Map<Integer, User> found = new HashMap<>(distinct.size() * 2);
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        if (chunks.size() == 1 || TransactionSynchronizationManager.isActualTransactionActive()) {
+            // in the caller's transaction if there is one, its connection is already taken, so the lists
+            // run one after the other on it rather than waiting for more connections of the same pool
+            readOnly.execute(status -> {
+                for (List<Integer> chunk : chunks) {
+                    collect(findChunk(chunk), found);
+                }
+                return null;
+            });
+        } else if (chunks.size() > 1) {
+            List<CompletableFuture<List<User>>> results = new ArrayList<>(chunks.size());
+            for (List<Integer> chunk : chunks) {
+                results.add(CompletableFuture.supplyAsync(() -> readOnly.execute(status -> findChunk(chunk)),
+                        task -> chunkExecutor.execute(ReplicaRoutingDataSource.keepPin(task))));
+            }
+            for (CompletableFuture<List<User>> result : results) {
+                try {
+                    collect(result.join(), found);
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        List<User> users = new ArrayList<>(found.size());
+        for (Integer id : distinct) {
+            User user = found.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
     @Override
     public List<User> findAllUsers() {
-        List<User> list = jdbcTemplate.query("SELECT * FROM user ",new BeanPropertyRowMapper(User.class));
+        List<User> list = jdbcTemplate.query("SELECT " + UserRowMapper.COLUMNS + " FROM user ",UserRowMapper.INSTANCE);
         if(list!=null && list.size()>0){
             return list;
         }else{
             return null;
         }
     }
+
+    @Override
+    public List<User> findUsers(int afterId, int limit) {
+        return jdbcTemplate.query("SELECT " + UserRowMapper.COLUMNS + " FROM user WHERE id > ? ORDER BY id LIMIT ?",
+                new Object[]{afterId, limit}, UserRowMapper.INSTANCE);
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT " + UserRowMapper.COLUMNS + " FROM user ORDER BY id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // Connector/J reads the whole result into memory for any other fetch size unless useCursorFetch is on
+            ps.setFetchSize(MYSQL.equals(connection.getMetaData().getDatabaseProductName()) ? Integer.MIN_VALUE : fetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> action.accept(UserRowMapper.INSTANCE.mapRow(rs, rs.getRow())));
+    }
+
+    /**
+     * One IN list, padded with the last id up to the next power of two
+     */
+    private List<User> findChunk(List<Integer> ids) {
+        int size = Math.min(Integer.highestOneBit(ids.size() - 1) << 1, chunkSize);
+        size = Math.max(size, ids.size());
+        Object[] args = new Object[size];
+        for (int i = 0; i < size; i++) {
+            args[i] = ids.get(Math.min(i, ids.size() - 1));
+        }
+        return jdbcTemplate.query(inQuery(size), args, UserRowMapper.INSTANCE);
+    }
+
+    private String inQuery(int size) {
+        synchronized (inQueries) {
+            return inQueries.computeIfAbsent(size, n -> {
+                StringBuilder sql = new StringBuilder("SELECT " + UserRowMapper.COLUMNS + " FROM user WHERE id IN (?");
+                for (int i = 1; i < n; i++) {
+                    sql.append(",?");
+                }
+                return sql.append(')').toString();
+            });
+        }
+    }
+
+    private static void collect(List<User> users, Map<Integer, User> found) {
+        for (User user : users) {
+            found.put(user.getId(), user);
+        }
+    }
+
+    /**
+     * A rewritten batch reports SUCCESS_NO_INFO per statement instead of a count
+     */
+    private static int rowCount(int[] counts) {
+        int rows = 0;
+        for (int count : counts) {
+            rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        }
+        return rows;
+    }
 }
@@ -0,0 +1,34 @@
+package com.xiaofine.springbootjdbc.dao.impl;
+
+import com.xiaofine.springbootjdbc.entity.User;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps a row selected with {@link #COLUMNS} by column index. Unlike BeanPropertyRowMapper there is no
+ * introspection per instance and no column name matching or reflective setter call per row, and one
+ * instance is shared by all queries.
+ */
+public final class UserRowMapper implements RowMapper<User> {
+
+    /**
+     * Select list matching the column indexes below
+     */
+    public static final String COLUMNS = "id,name,email";
+
+    public static final UserRowMapper INSTANCE = new UserRowMapper();
+
+    private UserRowMapper() {
+    }
+
+    @Override
+    public User mapRow(ResultSet rs, int rowNum) throws SQLException {
+        User user = new User();
+        user.setId(rs.getInt(1));
+        user.setName(rs.getString(2));
+        user.setEmail(rs.getString(3));
+        return user;
+    }
+}
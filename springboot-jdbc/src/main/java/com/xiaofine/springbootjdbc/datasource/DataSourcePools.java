@@ -0,0 +1,78 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool settings and meters for pools that are not beans of their own, like the ones behind the routing
+ * data source. They get the same spring.datasource.druid or spring.datasource.hikari settings Boot binds
+ * to the DataSource bean.
+ */
+public final class DataSourcePools {
+
+    public static final String DRUID_PREFIX = "spring.datasource.druid";
+
+    public static final String HIKARI_PREFIX = "spring.datasource.hikari";
+
+    public static final String TRACING_ENABLED = "datasource.tracing.enabled";
+
+    private DataSourcePools() {
+    }
+
+    /**
+     * Binds the pool settings and names the pool, the name is the pool tag of its meters
+     */
+    public static <T extends DataSource> T configure(T dataSource, String name, Environment environment) {
+        Binder binder = Binder.get(environment);
+        if (dataSource instanceof DruidDataSource) {
+            DruidDataSource druid = (DruidDataSource) dataSource;
+            binder.bind(DRUID_PREFIX, Bindable.ofInstance(druid));
+            druid.setName(name);
+            DruidPoolMetrics.attach(druid);
+            QueryTracer.attach(druid);
+        } else if (dataSource instanceof HikariDataSource) {
+            HikariDataSource hikari = (HikariDataSource) dataSource;
+            binder.bind(HIKARI_PREFIX, Bindable.ofInstance(hikari));
+            hikari.setPoolName(name);
+            // unlike Druid's filter the tracer costs a proxy per statement even unbound, so only while tracing is on
+            if (environment.getProperty(TRACING_ENABLED, Boolean.class, true)) {
+                HikariQueryTracer.attach(hikari);
+            }
+        }
+        return dataSource;
+    }
+
+    /**
+     * The pools behind the DataSource bean: itself, or the primary and replicas of the routing data source
+     */
+    public static List<DataSource> pools(DataSource dataSource) {
+        List<DataSource> pools = new ArrayList<>();
+        if (dataSource instanceof ReplicaRoutingDataSource.Lazy) {
+            ReplicaRoutingDataSource routing = ((ReplicaRoutingDataSource.Lazy) dataSource).getRouting();
+            pools.add(routing.getPrimary());
+            for (ReplicaRoutingDataSource.Replica replica : routing.getReplicas()) {
+                pools.add(replica.getDataSource());
+            }
+        } else {
+            pools.add(dataSource);
+        }
+        return pools;
+    }
+
+    public static void bindMetrics(DataSource dataSource, MeterRegistry registry) {
+        if (dataSource instanceof DruidDataSource) {
+            DruidPoolMetrics.attach((DruidDataSource) dataSource).bindTo(registry);
+        } else if (dataSource instanceof HikariDataSource) {
+            ((HikariDataSource) dataSource).setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.alibaba.druid.util.JdbcUtils;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.util.DriverDataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Feeds the statements of one HikariCP pool into a {@link QueryLog}, the same as {@link QueryTracer} does
+ * for Druid. HikariCP has no filters, so the tracer sits below the pool: the pool opens its connections
+ * through it, and their statements and result sets report to it. Like QueryTracer it is attached with
+ * {@link #attach} before the pool opens a connection and records nothing until it is bound.
+ * <p>
+ * Bytes are the lengths of strings and byte arrays read.
+ */
+public class HikariQueryTracer {
+
+    private final String pool;
+
+    private final String dbType;
+
+    private volatile QueryLog log;
+
+    private HikariQueryTracer(HikariDataSource dataSource) {
+        this.pool = dataSource.getPoolName() != null ? dataSource.getPoolName() : "default";
+        this.dbType = JdbcUtils.getDbType(dataSource.getJdbcUrl(), dataSource.getDriverClassName());
+    }
+
+    /**
+     * The tracer of the pool, put below it the first time
+     *
+     * @throws IllegalStateException if the pool was started untraced or is not configured by jdbcUrl
+     */
+    public static synchronized HikariQueryTracer attach(HikariDataSource dataSource) {
+        if (dataSource.getDataSource() instanceof TracedDataSource) {
+            return ((TracedDataSource) dataSource.getDataSource()).tracer;
+        }
+        if (dataSource.isRunning()) {
+            throw new IllegalStateException("Pool " + dataSource.getPoolName()
+                    + " was started before its query tracer was attached");
+        }
+        DataSource target = dataSource.getDataSource();
+        if (target == null) {
+            if (dataSource.getJdbcUrl() == null) {
+                throw new IllegalStateException("Pool " + dataSource.getPoolName()
+                        + " can only be traced with a jdbcUrl, not a dataSourceClassName or JNDI name");
+            }
+            // what the pool would open its connections with itself
+            target = new DriverDataSource(dataSource.getJdbcUrl(), dataSource.getDriverClassName(),
+                    dataSource.getDataSourceProperties(), dataSource.getUsername(), dataSource.getPassword());
+        }
+        HikariQueryTracer tracer = new HikariQueryTracer(dataSource);
+        dataSource.setDataSource(new TracedDataSource(target, tracer));
+        return tracer;
+    }
+
+    public void bindTo(QueryLog log) {
+        this.log = log;
+    }
+
+    private void executed(String sql, long nanos, long rows, List<Object> binds) {
+        QueryLog log = this.log;
+        if (log == null || sql == null) {
+            return;
+        }
+        QueryLog.Query query = log.executed(sql, dbType, nanos, rows);
+        if (nanos >= log.getSlowNanos()) {
+            log.slow(query, nanos, rows, pool, QueryLog.binds(binds));
+        }
+    }
+
+    private void read(String sql, long rows, long bytes) {
+        QueryLog log = this.log;
+        if (log != null && sql != null) {
+            log.query(sql, dbType).read(rows, bytes);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(HikariQueryTracer.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    /**
+     * The pool's source of physical connections, handing them out traced
+     */
+    private static final class TracedDataSource extends DelegatingDataSource {
+
+        private final HikariQueryTracer tracer;
+
+        TracedDataSource(DataSource target, HikariQueryTracer tracer) {
+            super(target);
+            this.tracer = tracer;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return proxy(Connection.class, tracer.new ConnectionHandler(super.getConnection()));
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return proxy(Connection.class, tracer.new ConnectionHandler(super.getConnection(username, password)));
+        }
+    }
+
+    /**
+     * Passes every call on to the target, a proxy only equals itself
+     */
+    private abstract static class Handler implements InvocationHandler {
+
+        private final Object target;
+
+        Handler(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return handle(method, args);
+            }
+        }
+
+        abstract Object handle(Method method, Object[] args) throws Throwable;
+
+        final Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+
+    private final class ConnectionHandler extends Handler {
+
+        ConnectionHandler(Connection target) {
+            super(target);
+        }
+
+        @Override
+        Object handle(Method method, Object[] args) throws Throwable {
+            Object result = call(method, args);
+            switch (method.getName()) {
+                case "createStatement":
+                    return proxy(Statement.class, new StatementHandler((Statement) result, null));
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class, new StatementHandler((Statement) result, (String) args[0]));
+                case "prepareCall":
+                    return proxy(CallableStatement.class, new StatementHandler((Statement) result, (String) args[0]));
+                default:
+                    return result;
+            }
+        }
+    }
+
+    private final class StatementHandler extends Handler {
+
+        /**
+         * The SQL it was prepared with, null for a plain statement
+         */
+        private final String prepared;
+
+        /**
+         * The SQL last executed, the SQL of the result sets
+         */
+        private String sql;
+
+        private final List<Object> binds = new ArrayList<>();
+
+        private final List<String> batch = new ArrayList<>();
+
+        private ResultSetHandler open;
+
+        StatementHandler(Statement target, String prepared) {
+            super(target);
+            this.prepared = prepared;
+            this.sql = prepared;
+        }
+
+        @Override
+        Object handle(Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "executeQuery":
+                case "execute":
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                    return execute(method, args, name.equals("executeQuery"), name.endsWith("Update"));
+                case "executeBatch":
+                case "executeLargeBatch":
+                    return executeBatch(method, args);
+                case "addBatch":
+                    if (prepared == null) {
+                        batch.add((String) args[0]);
+                    }
+                    return call(method, args);
+                case "clearBatch":
+                    batch.clear();
+                    return call(method, args);
+                case "clearParameters":
+                    binds.clear();
+                    return call(method, args);
+                case "getResultSet":
+                    return resultSet((ResultSet) call(method, args));
+                case "close":
+                    if (open != null) {
+                        // the driver closes its result sets itself, their reads are counted here
+                        open.finish();
+                    }
+                    return call(method, args);
+                default:
+                    if (name.startsWith("set") && method.getDeclaringClass() == PreparedStatement.class) {
+                        bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                    }
+                    return call(method, args);
+            }
+        }
+
+        private Object execute(Method method, Object[] args, boolean query, boolean update) throws Throwable {
+            if (prepared == null) {
+                sql = (String) args[0];
+            }
+            long started = System.nanoTime();
+            Object result = call(method, args);
+            executed(sql, System.nanoTime() - started, update ? ((Number) result).longValue() : -1, binds);
+            return query ? resultSet((ResultSet) result) : result;
+        }
+
+        private Object executeBatch(Method method, Object[] args) throws Throwable {
+            String batchSql = prepared != null ? prepared : String.join("\n", batch);
+            batch.clear();
+            long started = System.nanoTime();
+            Object result = call(method, args);
+            long nanos = System.nanoTime() - started;
+            long rows = 0;
+            int length = Array.getLength(result);
+            for (int i = 0; i < length; i++) {
+                // SUCCESS_NO_INFO of rewritten batches is not a row count
+                rows += Math.max(((Number) Array.get(result, i)).longValue(), 0);
+            }
+            executed(batchSql, nanos, rows, binds);
+            return result;
+        }
+
+        private void bind(int index, Object value) {
+            while (binds.size() < index) {
+                binds.add(null);
+            }
+            binds.set(index - 1, value);
+        }
+
+        private ResultSet resultSet(ResultSet resultSet) {
+            if (resultSet == null) {
+                return null;
+            }
+            open = new ResultSetHandler(resultSet, sql);
+            return proxy(ResultSet.class, open);
+        }
+    }
+
+    private final class ResultSetHandler extends Handler {
+
+        private final String sql;
+
+        private long rows;
+
+        private long bytes;
+
+        private boolean finished;
+
+        ResultSetHandler(ResultSet target, String sql) {
+            super(target);
+            this.sql = sql;
+        }
+
+        @Override
+        Object handle(Method method, Object[] args) throws Throwable {
+            Object result = call(method, args);
+            switch (method.getName()) {
+                case "next":
+                    if (Boolean.TRUE.equals(result)) {
+                        rows++;
+                    }
+                    break;
+                case "getString":
+                case "getNString":
+                    if (result != null) {
+                        bytes += ((String) result).length();
+                    }
+                    break;
+                case "getBytes":
+                    if (result != null) {
+                        bytes += ((byte[]) result).length;
+                    }
+                    break;
+                case "close":
+                    finish();
+                    break;
+                default:
+                    break;
+            }
+            return result;
+        }
+
+        void finish() {
+            if (!finished) {
+                finished = true;
+                read(sql, rows, bytes);
+            }
+        }
+    }
+}
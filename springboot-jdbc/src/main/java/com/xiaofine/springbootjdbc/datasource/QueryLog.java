@@ -0,0 +1,279 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Statement time, rows and bytes by SQL fingerprint, and the last slow statements. The meters are
+ * jdbc.queries, jdbc.queries.rows and jdbc.queries.bytes tagged with the fingerprint as query.
+ * <p>
+ * Looking up the meters of a statement seen recently is a cache lookup keyed by its SQL string, and
+ * recording into them allocates nothing. Only a SQL string not in the cache is parsed, and only slow
+ * statements are copied into the log. The cache keeps the strings used most, so statements built with
+ * their values in the SQL cannot push out the ones that run all the time.
+ */
+public class QueryLog {
+
+    static final String OTHER = "other";
+
+    private final MeterRegistry registry;
+
+    private final long slowNanos;
+
+    private final int maxQueries;
+
+    /**
+     * Meters by SQL string as sent, many strings share a fingerprint
+     */
+    private final Cache<String, Query> bySql;
+
+    private final ConcurrentMap<String, Query> byFingerprint = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<SlowQuery> slow;
+
+    private final AtomicLong slowCount = new AtomicLong();
+
+    public QueryLog(MeterRegistry registry, QueryTracingProperties properties) {
+        this.registry = registry;
+        this.slowNanos = properties.getSlowThreshold().toNanos();
+        this.maxQueries = properties.getMaxQueries();
+        this.bySql = Caffeine.newBuilder().maximumSize(Math.max(1, maxQueries) * 16L).build();
+        this.slow = new AtomicReferenceArray<>(Math.max(1, properties.getSlowLogSize()));
+    }
+
+    /**
+     * The meters of this statement
+     *
+     * @param dbType Druid's name of the database the statement runs on
+     */
+    public Query query(String sql, String dbType) {
+        Query query = bySql.getIfPresent(sql);
+        return query != null ? query : register(sql, dbType);
+    }
+
+    /**
+     * Times a statement that ran, rows are the rows it changed or -1 for a query
+     */
+    Query executed(String sql, String dbType, long nanos, long rows) {
+        Query query = query(sql, dbType);
+        query.executed(nanos);
+        if (rows >= 0) {
+            query.rows(rows);
+        }
+        return query;
+    }
+
+    /**
+     * The meters cached for this SQL string, null if the next execution parses it
+     */
+    Query cached(String sql) {
+        bySql.cleanUp();
+        return bySql.getIfPresent(sql);
+    }
+
+    long getSlowNanos() {
+        return slowNanos;
+    }
+
+    void slow(Query query, long nanos, long rows, String pool, String binds) {
+        long sequence = slowCount.getAndIncrement();
+        slow.set((int) (sequence % slow.length()), new SlowQuery(Instant.now().toString(), query.getQuery(), pool,
+                Thread.currentThread().getName(), nanos / 1e6, rows >= 0 ? rows : null, binds));
+    }
+
+    /**
+     * Type and length of each bind value, the values stay out of the log
+     */
+    static String binds(List<?> values) {
+        StringBuilder binds = new StringBuilder("[");
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
+            if (i > 0) {
+                binds.append(", ");
+            }
+            if (value == null) {
+                binds.append("null");
+            } else if (value instanceof String) {
+                binds.append("String(").append(((String) value).length()).append(')');
+            } else if (value instanceof byte[]) {
+                binds.append("byte[").append(((byte[]) value).length).append(']');
+            } else {
+                binds.append(value.getClass().getSimpleName());
+            }
+        }
+        return binds.append(']').toString();
+    }
+
+    /**
+     * Every fingerprint, the most total time first
+     */
+    public List<Query> queries() {
+        List<Query> queries = new ArrayList<>(byFingerprint.values());
+        queries.sort(Comparator.comparingDouble(Query::getTotalMillis).reversed());
+        return queries;
+    }
+
+    /**
+     * The slow query log, the newest first
+     */
+    public List<SlowQuery> slowQueries() {
+        long last = slowCount.get();
+        List<SlowQuery> queries = new ArrayList<>(slow.length());
+        for (long i = last - 1; i >= Math.max(0, last - slow.length()); i--) {
+            SlowQuery query = slow.get((int) (i % slow.length()));
+            if (query != null) {
+                queries.add(query);
+            }
+        }
+        return queries;
+    }
+
+    private Query register(String sql, String dbType) {
+        String fingerprint = SqlFingerprint.of(sql, dbType);
+        Query query = byFingerprint.get(fingerprint);
+        if (query == null) {
+            // beyond the bound meters would pile up for statements built with their values in the SQL
+            String name = byFingerprint.size() < maxQueries ? fingerprint : OTHER;
+            query = byFingerprint.computeIfAbsent(name, key -> new Query(key, registry));
+        }
+        bySql.put(sql, query);
+        return query;
+    }
+
+    public static class Query {
+
+        private final String query;
+
+        private final Timer time;
+
+        private final DistributionSummary rows;
+
+        private final DistributionSummary bytes;
+
+        Query(String query, MeterRegistry registry) {
+            this.query = query;
+            this.time = Timer.builder("jdbc.queries").tag("query", query)
+                    .description("Statement execution by SQL fingerprint, until the first row for queries")
+                    .register(registry);
+            this.rows = DistributionSummary.builder("jdbc.queries.rows").tag("query", query)
+                    .description("Rows read from a query or changed by an update").register(registry);
+            this.bytes = DistributionSummary.builder("jdbc.queries.bytes").tag("query", query).baseUnit("bytes")
+                    .description("Length of the strings and byte arrays read from a query").register(registry);
+        }
+
+        void executed(long nanos) {
+            time.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        void rows(long rows) {
+            this.rows.record(rows);
+        }
+
+        void read(long rows, long bytes) {
+            this.rows.record(rows);
+            this.bytes.record(bytes);
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public long getCount() {
+            return time.count();
+        }
+
+        public double getTotalMillis() {
+            return time.totalTime(TimeUnit.MILLISECONDS);
+        }
+
+        public double getMeanMillis() {
+            return time.mean(TimeUnit.MILLISECONDS);
+        }
+
+        public double getMaxMillis() {
+            return time.max(TimeUnit.MILLISECONDS);
+        }
+
+        public double getRows() {
+            return rows.totalAmount();
+        }
+
+        public double getBytes() {
+            return bytes.totalAmount();
+        }
+    }
+
+    public static class SlowQuery {
+
+        private final String time;
+
+        private final String query;
+
+        private final String pool;
+
+        private final String thread;
+
+        private final double millis;
+
+        /**
+         * Rows changed, null for queries: their rows are counted when the result set is closed
+         */
+        private final Long rows;
+
+        /**
+         * Type and length of each bind value, never the value
+         */
+        private final String binds;
+
+        SlowQuery(String time, String query, String pool, String thread, double millis, Long rows, String binds) {
+            this.time = time;
+            this.query = query;
+            this.pool = pool;
+            this.thread = thread;
+            this.millis = millis;
+            this.rows = rows;
+            this.binds = binds;
+        }
+
+        public String getTime() {
+            return time;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public String getPool() {
+            return pool;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        public double getMillis() {
+            return millis;
+        }
+
+        public Long getRows() {
+            return rows;
+        }
+
+        public String getBinds() {
+            return binds;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * /actuator/queries: time, rows and bytes of every statement fingerprint, the most total time first, and
+ * the slow query log
+ */
+@Endpoint(id = "queries")
+public class QueryLogEndpoint {
+
+    private final QueryLog log;
+
+    public QueryLogEndpoint(QueryLog log) {
+        this.log = log;
+    }
+
+    @ReadOperation
+    public Map<String, Object> queries() {
+        Map<String, Object> queries = new LinkedHashMap<>();
+        queries.put("queries", log.queries());
+        queries.put("slow", log.slowQueries());
+        return queries;
+    }
+}
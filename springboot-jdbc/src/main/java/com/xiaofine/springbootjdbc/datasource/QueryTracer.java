@@ -0,0 +1,190 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.alibaba.druid.filter.Filter;
+import com.alibaba.druid.filter.FilterChain;
+import com.alibaba.druid.filter.FilterEventAdapter;
+import com.alibaba.druid.filter.stat.StatFilter;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.proxy.jdbc.DataSourceProxy;
+import com.alibaba.druid.proxy.jdbc.JdbcParameter;
+import com.alibaba.druid.proxy.jdbc.PreparedStatementProxy;
+import com.alibaba.druid.proxy.jdbc.ResultSetProxy;
+import com.alibaba.druid.proxy.jdbc.StatementProxy;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Feeds the statements of one Druid pool into a {@link QueryLog}: execution time and changed rows when
+ * a statement ran, rows and bytes read when its result set is closed. Like {@link DruidPoolMetrics} it
+ * is attached with {@link #attach} before the pool opens a connection and records nothing until it is
+ * bound.
+ * <p>
+ * Bytes are the lengths of strings and byte arrays read. Druid's stat filter counts them already, without
+ * it this filter does.
+ */
+public class QueryTracer extends FilterEventAdapter {
+
+    private final DruidDataSource dataSource;
+
+    private volatile QueryLog log;
+
+    private volatile boolean countReads = true;
+
+    private QueryTracer(DruidDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * The tracer of the pool, added to it the first time
+     */
+    public static synchronized QueryTracer attach(DruidDataSource dataSource) {
+        for (Filter filter : dataSource.getProxyFilters()) {
+            if (filter instanceof QueryTracer) {
+                return (QueryTracer) filter;
+            }
+        }
+        QueryTracer tracer = new QueryTracer(dataSource);
+        dataSource.getProxyFilters().add(tracer);
+        return tracer;
+    }
+
+    public void bindTo(QueryLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public void init(DataSourceProxy dataSource) {
+        boolean statFilter = false;
+        for (Filter filter : this.dataSource.getProxyFilters()) {
+            statFilter |= filter instanceof StatFilter;
+        }
+        countReads = !statFilter;
+    }
+
+    @Override
+    protected void statementExecuteQueryBefore(StatementProxy statement, String sql) {
+        statement.setLastExecuteStartNano();
+    }
+
+    @Override
+    protected void statementExecuteQueryAfter(StatementProxy statement, String sql, ResultSetProxy resultSet) {
+        executed(statement, sql, -1);
+    }
+
+    @Override
+    protected void statementExecuteUpdateBefore(StatementProxy statement, String sql) {
+        statement.setLastExecuteStartNano();
+    }
+
+    @Override
+    protected void statementExecuteUpdateAfter(StatementProxy statement, String sql, int updateCount) {
+        executed(statement, sql, updateCount);
+    }
+
+    @Override
+    protected void statementExecuteBefore(StatementProxy statement, String sql) {
+        statement.setLastExecuteStartNano();
+    }
+
+    @Override
+    protected void statementExecuteAfter(StatementProxy statement, String sql, boolean result) {
+        executed(statement, sql, -1);
+    }
+
+    @Override
+    protected void statementExecuteBatchBefore(StatementProxy statement) {
+        statement.setLastExecuteStartNano();
+    }
+
+    @Override
+    protected void statementExecuteBatchAfter(StatementProxy statement, int[] result) {
+        long rows = 0;
+        for (int count : result) {
+            // SUCCESS_NO_INFO of rewritten batches is not a row count
+            rows += Math.max(count, 0);
+        }
+        String sql = statement instanceof PreparedStatementProxy
+                ? ((PreparedStatementProxy) statement).getSql() : statement.getBatchSql();
+        executed(statement, sql, rows);
+    }
+
+    @Override
+    public void resultSet_close(FilterChain chain, ResultSetProxy resultSet) throws SQLException {
+        QueryLog log = this.log;
+        String sql = resultSet.getSql();
+        if (log != null && sql != null && resultSet.getCloseCount() == 0) {
+            log.query(sql, dataSource.getDbType()).read(resultSet.getFetchRowCount(),
+                    resultSet.getReadStringLength() + resultSet.getReadBytesLength());
+        }
+        super.resultSet_close(chain, resultSet);
+    }
+
+    @Override
+    public String resultSet_getString(FilterChain chain, ResultSetProxy resultSet, int columnIndex)
+            throws SQLException {
+        String value = super.resultSet_getString(chain, resultSet, columnIndex);
+        if (countReads && value != null) {
+            resultSet.addReadStringLength(value.length());
+        }
+        return value;
+    }
+
+    @Override
+    public String resultSet_getString(FilterChain chain, ResultSetProxy resultSet, String columnLabel)
+            throws SQLException {
+        String value = super.resultSet_getString(chain, resultSet, columnLabel);
+        if (countReads && value != null) {
+            resultSet.addReadStringLength(value.length());
+        }
+        return value;
+    }
+
+    @Override
+    public byte[] resultSet_getBytes(FilterChain chain, ResultSetProxy resultSet, int columnIndex)
+            throws SQLException {
+        byte[] value = super.resultSet_getBytes(chain, resultSet, columnIndex);
+        if (countReads && value != null) {
+            resultSet.addReadBytesLength(value.length);
+        }
+        return value;
+    }
+
+    @Override
+    public byte[] resultSet_getBytes(FilterChain chain, ResultSetProxy resultSet, String columnLabel)
+            throws SQLException {
+        byte[] value = super.resultSet_getBytes(chain, resultSet, columnLabel);
+        if (countReads && value != null) {
+            resultSet.addReadBytesLength(value.length);
+        }
+        return value;
+    }
+
+    private void executed(StatementProxy statement, String sql, long rows) {
+        QueryLog log = this.log;
+        long started = statement.getLastExecuteStartNano();
+        if (log == null || sql == null || started == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - started;
+        QueryLog.Query query = log.executed(sql, dataSource.getDbType(), nanos, rows);
+        if (nanos >= log.getSlowNanos()) {
+            log.slow(query, nanos, rows, poolName(), binds(statement));
+        }
+    }
+
+    private static String binds(StatementProxy statement) {
+        List<Object> values = new ArrayList<>(statement.getParametersSize());
+        for (int i = 0; i < statement.getParametersSize(); i++) {
+            JdbcParameter parameter = statement.getParameter(i);
+            values.add(parameter != null ? parameter.getValue() : null);
+        }
+        return QueryLog.binds(values);
+    }
+
+    private String poolName() {
+        String name = dataSource.getName();
+        return name != null ? name : "default";
+    }
+}
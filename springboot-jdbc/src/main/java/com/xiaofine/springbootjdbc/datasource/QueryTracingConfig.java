@@ -0,0 +1,55 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * Binds the query tracers of the pools behind the DataSource to one {@link QueryLog}, with routing that is
+ * the primary and every replica. Druid pools are traced by a filter, HikariCP pools by
+ * {@link HikariQueryTracer}, which is put below a HikariCP DataSource bean before the pool starts.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "datasource.tracing", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class QueryTracingConfig {
+
+    /**
+     * Runs after Boot bound spring.datasource.hikari to the bean and before anything opens a connection
+     */
+    @Bean
+    public static BeanPostProcessor hikariQueryTracerPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource) {
+                    HikariQueryTracer.attach((HikariDataSource) bean);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public QueryLog queryLog(MeterRegistry registry, QueryTracingProperties properties, DataSource dataSource) {
+        QueryLog log = new QueryLog(registry, properties);
+        for (DataSource pool : DataSourcePools.pools(dataSource)) {
+            if (pool instanceof DruidDataSource) {
+                QueryTracer.attach((DruidDataSource) pool).bindTo(log);
+            } else if (pool instanceof HikariDataSource) {
+                HikariQueryTracer.attach((HikariDataSource) pool).bindTo(log);
+            }
+        }
+        return log;
+    }
+
+    @Bean
+    public QueryLogEndpoint queryLogEndpoint(QueryLog queryLog) {
+        return new QueryLogEndpoint(queryLog);
+    }
+}
@@ -0,0 +1,63 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties("datasource.tracing")
+public class QueryTracingProperties {
+
+    /**
+     * Time statements by fingerprint, the SQL with its literals and IN lists replaced by ?
+     */
+    private boolean enabled = true;
+
+    /**
+     * Statements running at least this long are kept in the slow query log
+     */
+    private Duration slowThreshold = Duration.ofMillis(200);
+
+    /**
+     * Slow queries kept, the oldest are dropped first
+     */
+    private int slowLogSize = 100;
+
+    /**
+     * Distinct fingerprints timed, statements beyond it are timed together as "other"
+     */
+    private int maxQueries = 500;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    public void setSlowThreshold(Duration slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    public int getSlowLogSize() {
+        return slowLogSize;
+    }
+
+    public void setSlowLogSize(int slowLogSize) {
+        this.slowLogSize = slowLogSize;
+    }
+
+    public int getMaxQueries() {
+        return maxQueries;
+    }
+
+    public void setMaxQueries(int maxQueries) {
+        this.maxQueries = maxQueries;
+    }
+}
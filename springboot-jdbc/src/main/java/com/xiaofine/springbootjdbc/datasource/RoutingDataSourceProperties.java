@@ -0,0 +1,138 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+@ConfigurationProperties("datasource.routing")
+public class RoutingDataSourceProperties {
+
+    /**
+     * Send read-only transactions to the replicas, spring.datasource stays the primary for everything else
+     */
+    private boolean enabled = false;
+
+    /**
+     * How a replica is picked for a read-only transaction
+     */
+    private Strategy strategy = Strategy.ROUND_ROBIN;
+
+    /**
+     * After a client wrote, its reads stay on the primary this long, cover the usual replication lag.
+     * 0 turns this off
+     */
+    private Duration readYourWrites = Duration.ofSeconds(2);
+
+    /**
+     * How often each replica is pinged, to measure its latency and to notice when it is back
+     */
+    private Duration probeInterval = Duration.ofSeconds(5);
+
+    /**
+     * How long a replica that failed is skipped
+     */
+    private Duration downTime = Duration.ofSeconds(30);
+
+    private List<Replica> replicas = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public Duration getReadYourWrites() {
+        return readYourWrites;
+    }
+
+    public void setReadYourWrites(Duration readYourWrites) {
+        this.readYourWrites = readYourWrites;
+    }
+
+    public Duration getProbeInterval() {
+        return probeInterval;
+    }
+
+    public void setProbeInterval(Duration probeInterval) {
+        this.probeInterval = probeInterval;
+    }
+
+    public Duration getDownTime() {
+        return downTime;
+    }
+
+    public void setDownTime(Duration downTime) {
+        this.downTime = downTime;
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(List<Replica> replicas) {
+        this.replicas = replicas;
+    }
+
+    public enum Strategy {
+
+        ROUND_ROBIN,
+
+        /**
+         * The replica with the lowest recent ping time
+         */
+        LEAST_LATENCY
+    }
+
+    public static class Replica {
+
+        private String url;
+
+        /**
+         * Defaults to the primary's username
+         */
+        private String username;
+
+        /**
+         * Defaults to the primary's password
+         */
+        private String password;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+    }
+}
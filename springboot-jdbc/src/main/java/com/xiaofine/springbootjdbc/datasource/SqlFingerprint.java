@@ -0,0 +1,39 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.alibaba.druid.sql.visitor.ParameterizedOutputVisitorUtils;
+
+import java.util.regex.Pattern;
+
+/**
+ * The SQL of a statement with its literals replaced by ?, so statements that differ only in their values
+ * are timed together and no value ends up in a meter or a log. Druid's parser also folds IN lists of any
+ * length into IN (?).
+ */
+public final class SqlFingerprint {
+
+    private static final Pattern STRING = Pattern.compile("'(?:[^'\\\\]|''|\\\\.)*'");
+
+    private static final Pattern NUMBER = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?\\b");
+
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private SqlFingerprint() {
+    }
+
+    /**
+     * @param dbType Druid's name of the database, null parses as MySQL
+     */
+    public static String of(String sql, String dbType) {
+        String parameterized;
+        try {
+            parameterized = ParameterizedOutputVisitorUtils.parameterize(sql, dbType != null ? dbType : "mysql");
+        } catch (RuntimeException e) {
+            // statements Druid cannot parse, e.g. LOAD DATA
+            parameterized = NUMBER.matcher(STRING.matcher(sql).replaceAll("?")).replaceAll("?");
+            parameterized = IN_LIST.matcher(parameterized).replaceAll("(?)");
+        }
+        return WHITESPACE.matcher(parameterized).replaceAll(" ").trim();
+    }
+}
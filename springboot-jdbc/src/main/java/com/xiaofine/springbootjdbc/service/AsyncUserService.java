@@ -0,0 +1,33 @@
+package com.xiaofine.springbootjdbc.service;
+
+import com.xiaofine.springbootjdbc.entity.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link UserService} off the calling thread. Every method throws {@link RejectedExecutionException}
+ * right away when the executor is saturated, callers should shed the request rather than retry in a loop.
+ */
+public interface AsyncUserService {
+
+    CompletableFuture<Integer> add(User user);
+
+    CompletableFuture<Integer> update(User user);
+
+    CompletableFuture<Integer> addAll(List<User> users);
+
+    CompletableFuture<Integer> updateAll(List<User> users);
+
+    CompletableFuture<Integer> delete(int id);
+
+    CompletableFuture<User> findUserById(int id);
+
+    CompletableFuture<List<User>> findUsersByIds(Collection<Integer> ids);
+
+    CompletableFuture<List<User>> findAllUsers();
+
+    CompletableFuture<List<User>> findUsers(int afterId, int limit);
+}
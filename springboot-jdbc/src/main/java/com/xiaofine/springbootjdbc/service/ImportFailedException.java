@@ -0,0 +1,19 @@
+package com.xiaofine.springbootjdbc.service;
+
+/**
+ * An import that failed after some of its rows were committed. The result tells how many landed, so the
+ * client knows a plain retry would insert them again
+ */
+public class ImportFailedException extends RuntimeException {
+
+    private final ImportResult result;
+
+    public ImportFailedException(ImportResult result, Throwable cause) {
+        super("import failed after " + result.getImported() + " users were imported: " + cause, cause);
+        this.result = result;
+    }
+
+    public ImportResult getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,57 @@
+package com.xiaofine.springbootjdbc.service;
+
+import java.util.List;
+
+public class ImportResult {
+
+    private final long imported;
+
+    private final long rejected;
+
+    /**
+     * The first rejected lines as "line 12: reason", in line order
+     */
+    private final List<String> errors;
+
+    /**
+     * Why the import stopped part way, null when it read the whole input
+     */
+    private final String failure;
+
+    public ImportResult(long imported, long rejected, List<String> errors) {
+        this(imported, rejected, errors, null);
+    }
+
+    public ImportResult(long imported, long rejected, List<String> errors, String failure) {
+        this.imported = imported;
+        this.rejected = rejected;
+        this.errors = errors;
+        this.failure = failure;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportResult{" +
+                "imported=" + imported +
+                ", rejected=" + rejected +
+                ", errors=" + errors +
+                ", failure='" + failure + '\'' +
+                '}';
+    }
+}
@@ -2,7 +2,9 @@ package com.xiaofine.springbootjdbc.service;
 
 import com.xiaofine.springbootjdbc.entity.User;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface UserService {
 
@@ -10,9 +12,19 @@ public interface UserService {
 
     int update(User user);
 
+    int addAll(List<User> users);
+
+    int updateAll(List<User> users);
+
     int delete(int id);
 
     User findUserById(int id);
 
+    List<User> findUsersByIds(Collection<Integer> ids);
+
     List<User> findAllUsers();
+
+    List<User> findUsers(int afterId, int limit);
+
+    void forEachUser(Consumer<User> action);
 }
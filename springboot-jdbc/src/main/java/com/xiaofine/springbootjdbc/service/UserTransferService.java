@@ -0,0 +1,46 @@
+package com.xiaofine.springbootjdbc.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Moves users in and out in bulk as CSV (a header line, then name and email, ids are generated) or
+ * NDJSON (one user object per line). Both stream, memory does not grow with the number of rows.
+ */
+public interface UserTransferService {
+
+    enum Format {
+
+        CSV("text/csv"),
+
+        NDJSON("application/x-ndjson");
+
+        private final String mediaType;
+
+        Format(String mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        public static Format of(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Inserts the valid lines and reports the others. Rows are committed batch by batch, when the import
+     * fails part way the batches written so far stay
+     *
+     * @throws ImportFailedException when the import fails after rows were committed, with how many
+     * @throws RejectedExecutionException when too many imports are running
+     */
+    ImportResult importUsers(InputStream in, Format format) throws IOException;
+
+    void exportUsers(OutputStream out, Format format) throws IOException;
+}
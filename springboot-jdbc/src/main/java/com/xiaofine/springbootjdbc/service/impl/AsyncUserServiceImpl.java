@@ -0,0 +1,72 @@
+package com.xiaofine.springbootjdbc.service.impl;
+
+import com.xiaofine.springbootjdbc.entity.User;
+import com.xiaofine.springbootjdbc.service.AsyncUserService;
+import com.xiaofine.springbootjdbc.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+@Service
+public class AsyncUserServiceImpl implements AsyncUserService {
+
+    private final UserService userService;
+
+    private final Executor executor;
+
+    @Autowired
+    public AsyncUserServiceImpl(UserService userService, @Qualifier("jdbcExecutor") Executor executor) {
+        this.userService = userService;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Integer> add(User user) {
+        return CompletableFuture.supplyAsync(() -> userService.add(user), executor);
+    }
+
+    @Override
+    public CompletableFuture<Integer> update(User user) {
+        return CompletableFuture.supplyAsync(() -> userService.update(user), executor);
+    }
+
+    @Override
+    public CompletableFuture<Integer> addAll(List<User> users) {
+        return CompletableFuture.supplyAsync(() -> userService.addAll(users), executor);
+    }
+
+    @Override
+    public CompletableFuture<Integer> updateAll(List<User> users) {
+        return CompletableFuture.supplyAsync(() -> userService.updateAll(users), executor);
+    }
+
+    @Override
+    public CompletableFuture<Integer> delete(int id) {
+        return CompletableFuture.supplyAsync(() -> userService.delete(id), executor);
+    }
+
+    @Override
+    public CompletableFuture<User> findUserById(int id) {
+        return CompletableFuture.supplyAsync(() -> userService.findUserById(id), executor);
+    }
+
+    @Override
+    public CompletableFuture<List<User>> findUsersByIds(Collection<Integer> ids) {
+        return CompletableFuture.supplyAsync(() -> userService.findUsersByIds(ids), executor);
+    }
+
+    @Override
+    public CompletableFuture<List<User>> findAllUsers() {
+        return CompletableFuture.supplyAsync(userService::findAllUsers, executor);
+    }
+
+    @Override
+    public CompletableFuture<List<User>> findUsers(int afterId, int limit) {
+        return CompletableFuture.supplyAsync(() -> userService.findUsers(afterId, limit), executor);
+    }
+}
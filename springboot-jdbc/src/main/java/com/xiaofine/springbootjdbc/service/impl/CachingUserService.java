@@ -0,0 +1,416 @@
+package com.xiaofine.springbootjdbc.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xiaofine.springbootjdbc.config.UserCacheProperties;
+import com.xiaofine.springbootjdbc.datasource.ReplicaRoutingDataSource;
+import com.xiaofine.springbootjdbc.entity.User;
+import com.xiaofine.springbootjdbc.service.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Serves {@link #findUserById} from a bounded local cache. Concurrent misses for one id wait for a single
+ * query on the primary, and update and delete drop the cached user once the database has changed.
+ * Caffeine makes an invalidation wait for a load of the same id in progress, so a load that read the old
+ * row cannot put it back afterwards.
+ * <p>
+ * With write-behind, single adds and single updates of users that exist are buffered and written with
+ * addAll and updateAll every flush interval or, on the flusher thread, when a batch is full. Their count of
+ * 1 only means the write is buffered, and a user deleted in between is not updated. A batch that fails is
+ * put back in front of what was buffered since and retried with the next flush, the buffer bound then
+ * holds writers back until the database takes writes again. A batch the database rejects as a constraint
+ * violation is written one row at a time instead, so only the rows it rejects are logged and dropped.
+ * Lookups by id see buffered updates right away without caching them, a buffered add has no id yet and is
+ * seen once it is written. Anything that reads or writes more than one row flushes first. Once a batch is
+ * written, or fails to be, its ids are invalidated so the next lookup reads what the database holds.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(prefix = "user.cache", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class CachingUserService implements UserService {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingUserService.class);
+
+    private final UserService delegate;
+
+    private final Cache<Integer, User> cache;
+
+    private final boolean writeBehind;
+
+    private final int batchSize;
+
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Held for a whole flush, so batches reach the database in the order they were buffered
+     */
+    private final Lock flushLock = new ReentrantLock();
+
+    private List<User> pendingAdds = new ArrayList<>();
+
+    private Map<Integer, User> pendingUpdates = new LinkedHashMap<>();
+
+    /**
+     * Updates taken by the flush in progress, still served to lookups until they are written
+     */
+    private Map<Integer, User> flushingUpdates = new LinkedHashMap<>();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    @Autowired
+    public CachingUserService(@Qualifier("userServiceImpl") UserService delegate, UserCacheProperties properties) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxSize())
+                .expireAfterWrite(properties.getExpireAfterWrite())
+                .build();
+        UserCacheProperties.WriteBehind writeBehind = properties.getWriteBehind();
+        this.writeBehind = writeBehind.isEnabled();
+        this.batchSize = writeBehind.getBatchSize();
+        if (this.writeBehind) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("user-write-behind-");
+            threadFactory.setDaemon(true);
+            long interval = Math.max(1, writeBehind.getFlushInterval().toMillis());
+            this.flusher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    @Override
+    public int add(User user) {
+        if (!writeBehind) {
+            // a new user is not cached, there is nothing to invalidate
+            return delegate.add(user);
+        }
+        User buffered = copy(user);
+        // set once the row is inserted, a retry after a partly written batch skips what already landed
+        buffered.setId(0);
+        buffer(buffered, true);
+        return 1;
+    }
+
+    @Override
+    public int update(User user) {
+        if (!writeBehind) {
+            int updated = delegate.update(user);
+            cache.invalidate(user.getId());
+            return updated;
+        }
+        // an unknown id is answered right away instead of being buffered as if it would update a row
+        if (pending(user.getId()) == null && cache.get(user.getId(), this::load) == null) {
+            return 0;
+        }
+        User buffered = copy(user);
+        buffer(buffered, false);
+        // served from the buffer until it is written, a value that may never reach the database is not cached
+        cache.invalidate(buffered.getId());
+        return 1;
+    }
+
+    @Override
+    public int addAll(List<User> users) {
+        flush();
+        return delegate.addAll(users);
+    }
+
+    @Override
+    public int updateAll(List<User> users) {
+        flush();
+        int updated = delegate.updateAll(users);
+        for (User user : users) {
+            cache.invalidate(user.getId());
+        }
+        return updated;
+    }
+
+    @Override
+    public int delete(int id) {
+        flush();
+        int deleted = delegate.delete(id);
+        cache.invalidate(id);
+        return deleted;
+    }
+
+    @Override
+    public User findUserById(int id) {
+        User pending = pending(id);
+        if (pending != null) {
+            return copy(pending);
+        }
+        User user = cache.get(id, this::load);
+        return user != null ? copy(user) : null;
+    }
+
+    /**
+     * Cached users are served from the cache and the rest are read in one call, those are not cached:
+     * putting them could race an update that invalidates one of them
+     */
+    @Override
+    public List<User> findUsersByIds(Collection<Integer> ids) {
+        flush();
+        Map<Integer, User> found = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : new LinkedHashSet<>(ids)) {
+            User user = cache.getIfPresent(id);
+            if (user != null) {
+                found.put(id, user);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (User user : delegate.findUsersByIds(missing)) {
+                found.put(user.getId(), user);
+            }
+        }
+        List<User> users = new ArrayList<>(found.size());
+        for (Integer id : new LinkedHashSet<>(ids)) {
+            User user = found.get(id);
+            if (user != null) {
+                users.add(copy(user));
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public List<User> findAllUsers() {
+        flush();
+        return delegate.findAllUsers();
+    }
+
+    @Override
+    public List<User> findUsers(int afterId, int limit) {
+        flush();
+        return delegate.findUsers(afterId, limit);
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        flush();
+        delegate.forEachUser(action);
+    }
+
+    /**
+     * Writes all buffered adds and updates, a no-op without write-behind
+     */
+    public void flush() {
+        if (!writeBehind) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            List<User> adds;
+            List<User> updates;
+            synchronized (this) {
+                if (pendingCount() == 0) {
+                    return;
+                }
+                adds = pendingAdds;
+                flushingUpdates = pendingUpdates;
+                updates = new ArrayList<>(flushingUpdates.values());
+                pendingAdds = new ArrayList<>();
+                pendingUpdates = new LinkedHashMap<>();
+                // writers waiting for room in the buffer
+                notifyAll();
+            }
+            try {
+                // new rows and updates of existing ones touch different rows, their order does not matter
+                if (!adds.isEmpty()) {
+                    delegate.addAll(adds);
+                }
+                if (!updates.isEmpty()) {
+                    delegate.updateAll(updates);
+                }
+            } catch (DataIntegrityViolationException e) {
+                log.warn("Database rejected a batch of buffered users, writing them one at a time", e);
+                writeOneByOne(adds, updates);
+            } catch (RuntimeException e) {
+                requeue(adds, updates);
+                throw e;
+            } finally {
+                synchronized (this) {
+                    flushingUpdates = new LinkedHashMap<>();
+                }
+                // a load that ran while the batch was buffered may have cached the old row, and after a
+                // failure the batch is served from the buffer again: either way the cache must not answer
+                for (User user : updates) {
+                    cache.invalidate(user.getId());
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flush();
+        }
+    }
+
+    /**
+     * A full batch is written on the flusher thread, so a failure is not thrown at whichever writer filled
+     * it. Writers wait while two batches are buffered, which slows them down to what the database takes
+     */
+    private void buffer(User user, boolean added) {
+        int pending;
+        synchronized (this) {
+            while (pendingCount() >= 2 * batchSize && !flusher.isShutdown()) {
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (added) {
+                pendingAdds.add(user);
+            } else {
+                pendingUpdates.put(user.getId(), user);
+            }
+            pending = pendingCount();
+        }
+        if (pending >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(() -> {
+                    flushRequested.set(false);
+                    flushQuietly();
+                });
+            } catch (RejectedExecutionException e) {
+                // closing, close() writes what is left
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Failed to write buffered users, retrying with the next flush", e);
+        }
+    }
+
+    /**
+     * Reads from the primary: a miss right after an update must not cache what a lagging replica still has
+     * for the whole expiry
+     */
+    private User load(int id) {
+        return ReplicaRoutingDataSource.onPrimary(() -> delegate.findUserById(id));
+    }
+
+    /**
+     * Rows of a rejected batch one at a time, dropping those the database rejects on their own. On any other
+     * failure the rows not yet written are put back
+     */
+    private void writeOneByOne(List<User> adds, List<User> updates) {
+        int add = 0;
+        int update = 0;
+        try {
+            for (; add < adds.size(); add++) {
+                User user = adds.get(add);
+                if (user.getId() != 0) {
+                    continue;
+                }
+                try {
+                    delegate.add(user);
+                } catch (DataIntegrityViolationException e) {
+                    log.error("Dropping buffered add of user {}, the database rejects it", user.getName(), e);
+                }
+            }
+            for (; update < updates.size(); update++) {
+                User user = updates.get(update);
+                try {
+                    delegate.update(user);
+                } catch (DataIntegrityViolationException e) {
+                    log.error("Dropping buffered update of user {}, the database rejects it", user.getId(), e);
+                }
+            }
+        } catch (RuntimeException e) {
+            requeue(adds.subList(add, adds.size()), updates.subList(update, updates.size()));
+            throw e;
+        }
+    }
+
+    /**
+     * Puts a failed batch back in front of what was buffered meanwhile. Adds that got an id were inserted
+     * before the failure, and an update buffered meanwhile for the same user replaces the failed one
+     */
+    private synchronized void requeue(List<User> adds, List<User> updates) {
+        List<User> unwritten = new ArrayList<>(adds.size() + pendingAdds.size());
+        for (User user : adds) {
+            if (user.getId() == 0) {
+                unwritten.add(user);
+            }
+        }
+        unwritten.addAll(pendingAdds);
+        pendingAdds = unwritten;
+        Map<Integer, User> retried = new LinkedHashMap<>();
+        for (User user : updates) {
+            if (!pendingUpdates.containsKey(user.getId())) {
+                retried.put(user.getId(), user);
+            }
+        }
+        retried.putAll(pendingUpdates);
+        pendingUpdates = retried;
+    }
+
+    /**
+     * Must be called holding this
+     */
+    private int pendingCount() {
+        return pendingAdds.size() + pendingUpdates.size();
+    }
+
+    /**
+     * The buffered update of the user, the newest if several are
+     */
+    private synchronized User pending(int id) {
+        if (!writeBehind) {
+            return null;
+        }
+        User pending = pendingUpdates.get(id);
+        return pending != null ? pending : flushingUpdates.get(id);
+    }
+
+    /**
+     * Cached users are never handed out or taken in directly, callers may change their copies
+     */
+    private static User copy(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setName(user.getName());
+        copy.setEmail(user.getEmail());
+        return copy;
+    }
+}
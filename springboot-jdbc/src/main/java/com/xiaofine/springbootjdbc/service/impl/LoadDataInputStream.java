@@ -0,0 +1,121 @@
+package com.xiaofine.springbootjdbc.service.impl;
+
+import com.xiaofine.springbootjdbc.entity.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Batches of users as the tab separated lines LOAD DATA reads by default, encoded one batch at a time as
+ * the driver reads
+ */
+class LoadDataInputStream extends InputStream {
+
+    interface Batches {
+
+        /**
+         * The next batch, null when there are no more
+         */
+        List<User> next() throws IOException;
+    }
+
+    private final Batches batches;
+
+    private final Buffer buffer = new Buffer();
+
+    private int position;
+
+    private boolean done;
+
+    LoadDataInputStream(Batches batches) {
+        this.batches = batches;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position == buffer.size()) {
+            if (done) {
+                return -1;
+            }
+            List<User> batch = batches.next();
+            buffer.reset();
+            position = 0;
+            if (batch == null) {
+                done = true;
+            } else {
+                encode(batch);
+            }
+        }
+        int n = Math.min(len, buffer.size() - position);
+        System.arraycopy(buffer.bytes(), position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    private void encode(List<User> batch) {
+        StringBuilder lines = new StringBuilder(batch.size() * 48);
+        for (User user : batch) {
+            field(lines, user.getName());
+            lines.append('\t');
+            field(lines, user.getEmail());
+            lines.append('\n');
+        }
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+        buffer.write(bytes, 0, bytes.length);
+    }
+
+    private static void field(StringBuilder lines, String value) {
+        if (value == null) {
+            lines.append("\\N");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    lines.append("\\\\");
+                    break;
+                case '\t':
+                    lines.append("\\t");
+                    break;
+                case '\n':
+                    lines.append("\\n");
+                    break;
+                case '\r':
+                    lines.append("\\r");
+                    break;
+                case '\0':
+                    lines.append("\\0");
+                    break;
+                default:
+                    lines.append(c);
+            }
+        }
+    }
+
+    /**
+     * Hands out its array instead of a copy, it is reused for every batch
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(64 * 1024);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.xiaofine.springbootjdbc.service.impl;
+
+import com.xiaofine.springbootjdbc.entity.User;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RFC 4180 fields, except that a quoted field cannot span lines: imports are split into blocks of lines
+ * before they are parsed
+ */
+final class UserCsv {
+
+    static final String HEADER = "id,name,email";
+
+    private UserCsv() {
+    }
+
+    static List<String> parse(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        int i = 0;
+        while (true) {
+            field.setLength(0);
+            if (i < line.length() && line.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i == line.length()) {
+                        throw new IllegalArgumentException("unterminated quoted field");
+                    }
+                    char c = line.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < line.length() && line.charAt(i) != ',') {
+                    throw new IllegalArgumentException("text after a quoted field");
+                }
+            } else {
+                int end = line.indexOf(',', i);
+                end = end < 0 ? line.length() : end;
+                field.append(line, i, end);
+                i = end;
+            }
+            fields.add(field.toString());
+            if (i == line.length()) {
+                return fields;
+            }
+            // skip the comma
+            i++;
+        }
+    }
+
+    static void write(Writer out, User user) throws IOException {
+        out.write(Integer.toString(user.getId()));
+        out.write(',');
+        writeField(out, user.getName());
+        out.write(',');
+        writeField(out, user.getEmail());
+        out.write('\n');
+    }
+
+    private static void writeField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
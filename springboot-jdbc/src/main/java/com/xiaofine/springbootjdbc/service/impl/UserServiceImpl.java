@@ -5,8 +5,11 @@ import com.xiaofine.springbootjdbc.entity.User;
 import com.xiaofine.springbootjdbc.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Service
 public class UserServiceImpl implements UserService {
@@ -25,18 +28,56 @@ public class UserServiceImpl implements UserService {
         return userDao.update(user);
     }
 
+    /**
+     * All batches in one transaction, a failing batch rolls back the ones before it
+     */
+    @Override
+    @Transactional
+    public int addAll(List<User> users) {
+        return userDao.addAll(users);
+    }
+
+    @Override
+    @Transactional
+    public int updateAll(List<User> users) {
+        return userDao.updateAll(users);
+    }
+
     @Override
     public int delete(int id) {
         return userDao.delete(id);
     }
 
     @Override
+    @Transactional(readOnly = true)
     public User findUserById(int id) {
         return userDao.findUserById(id);
     }
 
+    /**
+     * Not transactional: the IN lists run in read-only transactions of their own, in parallel, and an outer
+     * transaction would hold a connection of the same pool while they wait for theirs
+     */
     @Override
+    public List<User> findUsersByIds(Collection<Integer> ids) {
+        return userDao.findUsersByIds(ids);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
     public List<User> findAllUsers() {
         return userDao.findAllUsers();
     }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<User> findUsers(int afterId, int limit) {
+        return userDao.findUsers(afterId, limit);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachUser(Consumer<User> action) {
+        userDao.forEachUser(action);
+    }
 }
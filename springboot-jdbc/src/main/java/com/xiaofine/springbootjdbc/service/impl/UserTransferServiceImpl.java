@@ -0,0 +1,411 @@
+package com.xiaofine.springbootjdbc.service.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaofine.springbootjdbc.config.UserTransferProperties;
+import com.xiaofine.springbootjdbc.dao.UserDao;
+import com.xiaofine.springbootjdbc.entity.User;
+import com.xiaofine.springbootjdbc.service.ImportFailedException;
+import com.xiaofine.springbootjdbc.service.ImportResult;
+import com.xiaofine.springbootjdbc.service.UserService;
+import com.xiaofine.springbootjdbc.service.UserTransferService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * An import is a pipeline: the calling thread reads blocks of lines, parser threads turn them into
+ * validated users and writer threads insert them batch by batch. Bounded queues between the stages make a
+ * fast reader wait for the database, so memory stays the same however large the input is. A failing stage
+ * stops the others. Every writer batch is one transaction, so the imported count is exactly what was
+ * committed when an import fails part way.
+ * <p>
+ * Exports stream the rows from a forward-only cursor straight into the output.
+ */
+@Service
+public class UserTransferServiceImpl implements UserTransferService {
+
+    private static final int NAME_LENGTH = 64;
+
+    private static final int EMAIL_LENGTH = 128;
+
+    private static final Pattern EMAIL = Pattern.compile("[^@\\s]+@[^@\\s]+");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final UserDao userDao;
+
+    private final UserService userService;
+
+    private final ObjectMapper objectMapper;
+
+    private final UserTransferProperties properties;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Semaphore imports;
+
+    @Autowired
+    public UserTransferServiceImpl(UserDao userDao, UserService userService, ObjectMapper objectMapper,
+                                   UserTransferProperties properties, PlatformTransactionManager transactionManager) {
+        this.userDao = userDao;
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.imports = new Semaphore(properties.getMaxImports());
+    }
+
+    @Override
+    public ImportResult importUsers(InputStream in, Format format) throws IOException {
+        if (!imports.tryAcquire()) {
+            throw new RejectedExecutionException("too many imports running");
+        }
+        try {
+            return new Import(format).run(in);
+        } finally {
+            imports.release();
+        }
+    }
+
+    @Override
+    public void exportUsers(OutputStream out, Format format) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            if (format == Format.CSV) {
+                writer.write(UserCsv.HEADER);
+                writer.write('\n');
+                userService.forEachUser(user -> {
+                    try {
+                        UserCsv.write(writer, user);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                writer.flush();
+            } else {
+                JsonGenerator generator = objectMapper.getFactory().createGenerator(writer);
+                generator.setRootValueSeparator(null);
+                userService.forEachUser(user -> {
+                    try {
+                        generator.writeObject(user);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.flush();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class Block {
+
+        /**
+         * Number of the first line, counting from 1
+         */
+        final long firstLine;
+
+        final List<String> lines;
+
+        Block(long firstLine, List<String> lines) {
+            this.firstLine = firstLine;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * Thrown in a stage that finds another one has failed, the first failure is the one reported
+     */
+    private static final class Aborted extends RuntimeException {
+
+        Aborted() {
+            super(null, null, false, false);
+        }
+    }
+
+    private interface Stage {
+
+        void run() throws Exception;
+    }
+
+    private class Import {
+
+        private final Block endOfLines = new Block(0, Collections.emptyList());
+
+        private final List<User> endOfRows = new ArrayList<>(0);
+
+        private final Format format;
+
+        private final int writers;
+
+        private final BlockingQueue<Block> lines;
+
+        private final BlockingQueue<List<User>> rows;
+
+        private final AtomicInteger parsing;
+
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private final AtomicLong imported = new AtomicLong();
+
+        private final AtomicLong rejected = new AtomicLong();
+
+        /**
+         * The lowest rejected line numbers and their reasons
+         */
+        private final TreeMap<Long, String> errors = new TreeMap<>();
+
+        private int nameColumn = 0;
+
+        private int emailColumn = 1;
+
+        Import(Format format) {
+            this.format = format;
+            // LOAD DATA is one statement reading one stream
+            this.writers = properties.isLoadData() ? 1 : properties.getWriters();
+            this.lines = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+            this.rows = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+            this.parsing = new AtomicInteger(properties.getParsers());
+        }
+
+        ImportResult run(InputStream in) throws IOException {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("user-import-");
+            threadFactory.setDaemon(true);
+            ExecutorService threads = Executors.newFixedThreadPool(properties.getParsers() + writers, threadFactory);
+            try {
+                List<Future<?>> stages = new ArrayList<>();
+                for (int i = 0; i < properties.getParsers(); i++) {
+                    stages.add(threads.submit(() -> guard(this::parse)));
+                }
+                for (int i = 0; i < writers; i++) {
+                    stages.add(threads.submit(() -> guard(properties.isLoadData() ? this::load : this::insert)));
+                }
+                guard(() -> read(in));
+                for (Future<?> stage : stages) {
+                    stage.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("import interrupted");
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, e.getCause());
+            } finally {
+                threads.shutdownNow();
+            }
+            List<String> reported = new ArrayList<>(errors.size());
+            for (Map.Entry<Long, String> error : errors.entrySet()) {
+                reported.add("line " + error.getKey() + ": " + error.getValue());
+            }
+            Throwable e = failure.get();
+            if (e != null && imported.get() > 0) {
+                throw new ImportFailedException(new ImportResult(imported.get(), rejected.get(), reported,
+                        String.valueOf(e.getMessage())), e);
+            } else if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            } else if (e != null) {
+                throw new IllegalStateException("import failed", e);
+            }
+            return new ImportResult(imported.get(), rejected.get(), reported);
+        }
+
+        private void guard(Stage stage) {
+            try {
+                stage.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        private void read(InputStream in) throws IOException, InterruptedException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+            long lineNumber = 1;
+            if (format == Format.CSV) {
+                String header = reader.readLine();
+                if (header == null) {
+                    throw new IllegalArgumentException("CSV import needs a header line");
+                }
+                List<String> columns = UserCsv.parse(header.toLowerCase(Locale.ROOT));
+                nameColumn = columns.indexOf("name");
+                emailColumn = columns.indexOf("email");
+                if (nameColumn < 0 || emailColumn < 0) {
+                    throw new IllegalArgumentException("CSV header needs name and email columns");
+                }
+                lineNumber++;
+            }
+            List<String> block = new ArrayList<>(properties.getBlockSize());
+            long firstLine = lineNumber;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                block.add(line);
+                if (block.size() == properties.getBlockSize()) {
+                    put(lines, new Block(firstLine, block));
+                    firstLine += block.size();
+                    block = new ArrayList<>(properties.getBlockSize());
+                }
+            }
+            if (!block.isEmpty()) {
+                put(lines, new Block(firstLine, block));
+            }
+            for (int i = 0; i < properties.getParsers(); i++) {
+                put(lines, endOfLines);
+            }
+        }
+
+        private void parse() throws InterruptedException {
+            for (Block block = take(lines); block != endOfLines; block = take(lines)) {
+                List<User> users = new ArrayList<>(block.lines.size());
+                for (int i = 0; i < block.lines.size(); i++) {
+                    String line = block.lines.get(i);
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        users.add(validate(format == Format.CSV ? fromCsv(line) : fromJson(line)));
+                    } catch (IllegalArgumentException e) {
+                        reject(block.firstLine + i, e.getMessage());
+                    } catch (JsonProcessingException e) {
+                        reject(block.firstLine + i, e.getOriginalMessage());
+                    }
+                }
+                if (!users.isEmpty()) {
+                    put(rows, users);
+                }
+            }
+            if (parsing.decrementAndGet() == 0) {
+                for (int i = 0; i < writers; i++) {
+                    put(rows, endOfRows);
+                }
+            }
+        }
+
+        private void insert() throws InterruptedException {
+            for (List<User> batch = take(rows); batch != endOfRows; batch = take(rows)) {
+                List<User> users = batch;
+                imported.addAndGet(transactionTemplate.execute(status -> userDao.addAll(users)));
+            }
+        }
+
+        private void load() {
+            imported.addAndGet(userDao.loadAll(new LoadDataInputStream(() -> {
+                try {
+                    List<User> batch = take(rows);
+                    return batch != endOfRows ? batch : null;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("import interrupted");
+                }
+            })));
+        }
+
+        private User fromCsv(String line) {
+            List<String> fields = UserCsv.parse(line);
+            if (fields.size() <= Math.max(nameColumn, emailColumn)) {
+                throw new IllegalArgumentException("expected at least " + (Math.max(nameColumn, emailColumn) + 1)
+                        + " columns, found " + fields.size());
+            }
+            User user = new User();
+            user.setName(fields.get(nameColumn));
+            user.setEmail(fields.get(emailColumn));
+            return user;
+        }
+
+        private User fromJson(String line) throws JsonProcessingException {
+            User user = objectMapper.readValue(line, User.class);
+            if (user == null) {
+                throw new IllegalArgumentException("not a user object");
+            }
+            // ids are generated
+            user.setId(0);
+            return user;
+        }
+
+        private User validate(User user) {
+            String name = user.getName();
+            String email = user.getEmail();
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("name is missing");
+            }
+            if (name.length() > NAME_LENGTH) {
+                throw new IllegalArgumentException("name is longer than " + NAME_LENGTH + " characters");
+            }
+            // a CSV export would write it as a quoted field over several lines, which this importer reads line by line
+            if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("name contains a line break");
+            }
+            if (email == null || email.length() > EMAIL_LENGTH || !EMAIL.matcher(email).matches()) {
+                throw new IllegalArgumentException("email is not valid");
+            }
+            return user;
+        }
+
+        private void reject(long line, String reason) {
+            rejected.incrementAndGet();
+            synchronized (errors) {
+                errors.put(line, reason);
+                if (errors.size() > properties.getMaxReportedErrors()) {
+                    errors.remove(errors.lastKey());
+                }
+            }
+        }
+
+        private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        }
+
+        private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+            T item;
+            while ((item = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                checkFailure();
+            }
+            return item;
+        }
+
+        private void checkFailure() {
+            if (failure.get() != null) {
+                throw new Aborted();
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.xiaofine.springbootjdbc.controller;
+
+import com.xiaofine.springbootjdbc.entity.User;
+import com.xiaofine.springbootjdbc.service.AsyncUserService;
+import com.xiaofine.springbootjdbc.service.ImportFailedException;
+import com.xiaofine.springbootjdbc.service.ImportResult;
+import com.xiaofine.springbootjdbc.service.UserService;
+import com.xiaofine.springbootjdbc.service.UserTransferService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(UserController.class)
+class UserControllerTests {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @MockBean
+    UserService userService;
+
+    @MockBean
+    AsyncUserService asyncUserService;
+
+    @MockBean
+    UserTransferService userTransferService;
+
+    @Test
+    void lookupCompletesAsynchronously() throws Exception {
+        CompletableFuture<User> result = new CompletableFuture<>();
+        when(asyncUserService.findUserById(1)).thenReturn(result);
+
+        MvcResult started = mockMvc.perform(get("/user/1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.complete(user(1));
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("user1"));
+    }
+
+    @Test
+    void saturatedExecutorAnswersServiceUnavailable() throws Exception {
+        when(asyncUserService.findUserById(1)).thenThrow(new TaskRejectedException("jdbc executor is full"));
+
+        mockMvc.perform(get("/user/1"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void multiGetAnswersInRequestOrder() throws Exception {
+        when(asyncUserService.findUsersByIds(Arrays.asList(2, 1)))
+                .thenReturn(CompletableFuture.completedFuture(Arrays.asList(user(2), user(1))));
+
+        MvcResult started = mockMvc.perform(get("/user").param("ids", "2,1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("user2"))
+                .andExpect(jsonPath("$[1].name").value("user1"));
+    }
+
+    @Test
+    void multiGetRejectsTooManyIds() throws Exception {
+        String ids = String.join(",", Collections.nCopies(1001, "1"));
+
+        MvcResult started = mockMvc.perform(get("/user").param("ids", ids)).andReturn();
+
+        mockMvc.perform(asyncDispatch(started)).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void listAfterAnIdWithoutLimitGetsTheDefaultPageSize() throws Exception {
+        when(asyncUserService.findUsers(5, 100))
+                .thenReturn(CompletableFuture.completedFuture(Collections.singletonList(user(6))));
+
+        MvcResult started = mockMvc.perform(get("/user/list").param("after", "5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("user6"));
+    }
+
+    @Test
+    void listWithoutParametersReturnsEveryUser() throws Exception {
+        when(asyncUserService.findAllUsers())
+                .thenReturn(CompletableFuture.completedFuture(Arrays.asList(user(1), user(2))));
+
+        MvcResult started = mockMvc.perform(get("/user/list"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    void importPicksTheFormatFromTheContentType() throws Exception {
+        when(userTransferService.importUsers(any(), eq(UserTransferService.Format.CSV)))
+                .thenReturn(new ImportResult(2, 1, Collections.singletonList("line 3: email is not valid")));
+
+        mockMvc.perform(post("/user/import").contentType("text/csv; charset=UTF-8").content("name,email\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(2))
+                .andExpect(jsonPath("$.errors[0]").value("line 3: email is not valid"));
+    }
+
+    @Test
+    void failedImportStillSaysWhatWasImported() throws Exception {
+        when(userTransferService.importUsers(any(), eq(UserTransferService.Format.NDJSON)))
+                .thenThrow(new ImportFailedException(new ImportResult(1000, 0, Collections.emptyList(),
+                        "connection reset"), new IOException("connection reset")));
+
+        mockMvc.perform(post("/user/import").contentType("application/x-ndjson").content("{}\n"))
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.imported").value(1000))
+                .andExpect(jsonPath("$.failure").value("connection reset"));
+    }
+
+    @Test
+    void streamWritesAllUsersAsOneJsonArray() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<User> action = invocation.getArgument(0);
+            for (int i = 1; i <= 3; i++) {
+                action.accept(user(i));
+            }
+            return null;
+        }).when(userService).forEachUser(any());
+
+        MvcResult started = mockMvc.perform(get("/user/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"id\":1,\"name\":\"user1\"},{\"id\":2},{\"id\":3,\"email\":\"user3@example.com\"}]"));
+    }
+
+    private static User user(int id) {
+        User user = new User();
+        user.setId(id);
+        user.setName("user" + id);
+        user.setEmail("user" + id + "@example.com");
+        return user;
+    }
+}
@@ -0,0 +1,86 @@
+package com.xiaofine.springbootjdbc.dao;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.xiaofine.springbootjdbc.dao.impl.UserDaoImpl;
+import com.xiaofine.springbootjdbc.datasource.DataSourcePools;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * findUserById latency with and without the Druid statement cache. H2 runs with QUERY_CACHE_SIZE=0 so
+ * that, like MySQL with server-side prepare, every prepare that reaches the database is parsed again.
+ * Run with {@code mvn test -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class FindUserByIdBenchmarkTests {
+
+    private static final int USERS = 10_000;
+
+    private static final int LOOKUPS = 200_000;
+
+    @Test
+    void withAndWithoutStatementCache() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            measure(false);
+            measure(true);
+        }
+    }
+
+    private void measure(boolean cached) throws Exception {
+        DruidDataSource dataSource = new DruidDataSource();
+        dataSource.setUrl("jdbc:h2:mem:find-by-id-" + System.nanoTime() + ";QUERY_CACHE_SIZE=0");
+        dataSource.setName(cached ? "cached" : "uncached");
+        if (cached) {
+            // setting a size turns the cache on as well
+            dataSource.setMaxPoolPreparedStatementPerConnectionSize(50);
+        }
+        MeterRegistry registry = new SimpleMeterRegistry();
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                return DistributionStatisticConfig.builder().percentiles(0.5, 0.99).build().merge(config);
+            }
+        });
+        DataSourcePools.bindMetrics(dataSource, registry);
+        try {
+            new ResourceDatabasePopulator(new ClassPathResource("user-schema.sql")).execute(dataSource);
+            UserDaoImpl userDao = new UserDaoImpl();
+            ReflectionTestUtils.setField(userDao, "jdbcTemplate", new JdbcTemplate(dataSource));
+            ReflectionTestUtils.setField(userDao, "batchSize", 1000);
+            userDao.addAll(UserDaoImplTests.users(USERS));
+
+            Timer lookups = Timer.builder("lookup").register(registry);
+            for (int i = 0; i < LOOKUPS; i++) {
+                int id = ThreadLocalRandom.current().nextInt(USERS) + 1;
+                lookups.record(() -> userDao.findUserById(id));
+            }
+
+            StringBuilder percentiles = new StringBuilder();
+            for (ValueAtPercentile value : lookups.takeSnapshot().percentileValues()) {
+                percentiles.append(String.format(" p%.0f=%.1fus", value.percentile() * 100,
+                        value.value(TimeUnit.MICROSECONDS)));
+            }
+            System.out.printf("%-8s findUserById mean=%.1fus%s, prepares=%d, cache hit ratio=%.3f, saved=%.2fs%n",
+                    dataSource.getName(), lookups.mean(TimeUnit.MICROSECONDS), percentiles,
+                    registry.get("druid.statements.prepare").timer().count(),
+                    registry.get("druid.statements.cache.hit.ratio").gauge().value(),
+                    registry.get("druid.statements.cache.saved").gauge().value());
+        } finally {
+            dataSource.close();
+        }
+    }
+}
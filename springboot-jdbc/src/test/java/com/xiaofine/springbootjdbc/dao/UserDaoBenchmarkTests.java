@@ -0,0 +1,57 @@
+package com.xiaofine.springbootjdbc.dao;
+
+import com.xiaofine.springbootjdbc.dao.impl.UserDaoImpl;
+import com.xiaofine.springbootjdbc.entity.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Rows per second of single-row and batched inserts against H2, run with {@code mvn test -Dbenchmark=true}.
+ * H2 runs in process, so this shows the per-statement overhead; against MySQL the saved round trips add to it.
+ */
+@JdbcTest(properties = "spring.datasource.schema=classpath:user-schema.sql")
+@Import(UserDaoImpl.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class UserDaoBenchmarkTests {
+
+    private static final int ROWS = 100_000;
+
+    @Autowired
+    UserDao userDao;
+
+    @Test
+    void singleRowVersusBatchedInserts() {
+        // warm up both paths
+        insertOneByOne(UserDaoImplTests.users(ROWS / 10));
+        userDao.addAll(UserDaoImplTests.users(ROWS / 10));
+
+        List<User> single = UserDaoImplTests.users(ROWS);
+        long started = System.nanoTime();
+        insertOneByOne(single);
+        report("single row", started);
+
+        List<User> batched = UserDaoImplTests.users(ROWS);
+        started = System.nanoTime();
+        userDao.addAll(batched);
+        report("batched", started);
+    }
+
+    private void insertOneByOne(List<User> users) {
+        for (User user : users) {
+            userDao.add(user);
+        }
+    }
+
+    private static void report(String path, long started) {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("%-10s %,10.0f rows/s%n", path, ROWS / seconds);
+    }
+}
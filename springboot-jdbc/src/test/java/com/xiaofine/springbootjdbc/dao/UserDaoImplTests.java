@@ -0,0 +1,134 @@
+package com.xiaofine.springbootjdbc.dao;
+
+import com.xiaofine.springbootjdbc.dao.impl.UserDaoImpl;
+import com.xiaofine.springbootjdbc.entity.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@JdbcTest(properties = {"spring.datasource.schema=classpath:user-schema.sql", "user.batch-size=3",
+        "user.multi-get.chunk-size=4"})
+@Import(UserDaoImpl.class)
+class UserDaoImplTests {
+
+    @Autowired
+    UserDao userDao;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void addAllInsertsInChunksAndSetsGeneratedIds() {
+        List<User> users = users(10);
+
+        assertThat(userDao.addAll(users)).isEqualTo(10);
+
+        List<Integer> ids = users.stream().map(User::getId).collect(Collectors.toList());
+        assertThat(ids).doesNotContain(0).doesNotHaveDuplicates();
+        for (User user : users) {
+            assertThat(userDao.findUserById(user.getId()).getName()).isEqualTo(user.getName());
+        }
+    }
+
+    @Test
+    void updateAllUpdatesEveryUser() {
+        List<User> users = users(7);
+        userDao.addAll(users);
+        users.forEach(user -> user.setEmail("new-" + user.getEmail()));
+
+        assertThat(userDao.updateAll(users)).isEqualTo(7);
+
+        assertThat(userDao.findUserById(users.get(6).getId()).getEmail()).isEqualTo("new-user6@example.com");
+    }
+
+    @Test
+    void keysetPagesWalkTheTableInIdOrder() {
+        userDao.addAll(users(5));
+        List<User> first = userDao.findUsers(0, 2);
+        List<User> second = userDao.findUsers(first.get(1).getId(), 2);
+        List<User> last = userDao.findUsers(second.get(1).getId(), 2);
+
+        assertThat(first).extracting(User::getName).containsExactly("user0", "user1");
+        assertThat(second).extracting(User::getName).containsExactly("user2", "user3");
+        assertThat(last).extracting(User::getName).containsExactly("user4");
+    }
+
+    @Test
+    void forEachUserVisitsEveryRow() {
+        userDao.addAll(users(5));
+        List<String> names = new ArrayList<>();
+
+        userDao.forEachUser(user -> names.add(user.getName()));
+
+        assertThat(names).containsExactly("user0", "user1", "user2", "user3", "user4");
+    }
+
+    @Test
+    void findUsersByIdsKeepsRequestOrder() {
+        List<User> users = users(3);
+        userDao.addAll(users);
+
+        List<User> found = userDao.findUsersByIds(Arrays.asList(users.get(2).getId(), -1, users.get(0).getId(),
+                users.get(2).getId()));
+
+        assertThat(found).extracting(User::getName).containsExactly("user2", "user0");
+    }
+
+    /**
+     * The IN lists run in their own transactions on other threads, which only see committed rows
+     */
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void findUsersByIdsSplitsLargeIdSets() {
+        try {
+            List<User> users = users(11);
+            userDao.addAll(users);
+            List<Integer> ids = new ArrayList<>();
+            for (int i = users.size() - 1; i >= 0; i--) {
+                ids.add(users.get(i).getId());
+            }
+            ids.add(4, -1);
+
+            List<User> found = userDao.findUsersByIds(ids);
+
+            assertThat(found).extracting(User::getName).containsExactly("user10", "user9", "user8", "user7",
+                    "user6", "user5", "user4", "user3", "user2", "user1", "user0");
+        } finally {
+            jdbcTemplate.update("DELETE FROM user");
+        }
+    }
+
+    /**
+     * Inside a transaction every IN list runs on its connection, so they see its uncommitted rows
+     */
+    @Test
+    void findUsersByIdsInATransactionStaysOnItsConnection() {
+        List<User> users = users(11);
+        userDao.addAll(users);
+        List<Integer> ids = users.stream().map(User::getId).collect(Collectors.toList());
+
+        assertThat(userDao.findUsersByIds(ids)).hasSize(11);
+    }
+
+    static List<User> users(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setName("user" + i);
+            user.setEmail("user" + i + "@example.com");
+            users.add(user);
+        }
+        return users;
+    }
+}
@@ -0,0 +1,55 @@
+package com.xiaofine.springbootjdbc.dao;
+
+import com.xiaofine.springbootjdbc.dao.impl.UserDaoImpl;
+import com.xiaofine.springbootjdbc.dao.impl.UserRowMapper;
+import com.xiaofine.springbootjdbc.entity.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.function.Supplier;
+
+/**
+ * Per-row cost of reading 100k users with BeanPropertyRowMapper, created per query as the DAO used to,
+ * against the shared UserRowMapper. Run with {@code mvn test -Dbenchmark=true}.
+ */
+@JdbcTest(properties = "spring.datasource.schema=classpath:user-schema.sql")
+@Import(UserDaoImpl.class)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class UserRowMapperBenchmarkTests {
+
+    private static final int ROWS = 100_000;
+
+    private static final int RUNS = 10;
+
+    @Autowired
+    UserDao userDao;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void beanPropertyVersusColumnIndexMapping() {
+        userDao.addAll(UserDaoImplTests.users(ROWS));
+
+        measure("bean property", () -> new BeanPropertyRowMapper<>(User.class));
+        measure("column index", () -> UserRowMapper.INSTANCE);
+        measure("bean property", () -> new BeanPropertyRowMapper<>(User.class));
+        measure("column index", () -> UserRowMapper.INSTANCE);
+    }
+
+    private void measure(String mapper, Supplier<RowMapper<User>> perQuery) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long started = System.nanoTime();
+            jdbcTemplate.query("SELECT " + UserRowMapper.COLUMNS + " FROM user", perQuery.get());
+            best = Math.min(best, System.nanoTime() - started);
+        }
+        System.out.printf("%-14s %6.0f ns/row%n", mapper, (double) best / ROWS);
+    }
+}
@@ -0,0 +1,89 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.GetConnectionTimeoutException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DruidPoolMetricsTests {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final DruidDataSource dataSource = new DruidDataSource();
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    void recordsAcquireUsageAndStatements() throws Exception {
+        pool(2);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        jdbcTemplate.execute("CREATE TABLE node (name VARCHAR(16))");
+        jdbcTemplate.update("INSERT INTO node VALUES (?)", "a");
+        jdbcTemplate.queryForList("SELECT name FROM node", String.class);
+        try (Connection connection = dataSource.getConnection()) {
+            assertThat(registry.get("druid.connections.active").tag("pool", "test").gauge().value()).isEqualTo(1);
+        }
+
+        assertThat(registry.get("druid.connections.acquire").timer().count()).isEqualTo(4);
+        assertThat(registry.get("druid.connections.usage").timer().count()).isEqualTo(4);
+        assertThat(registry.get("druid.connections.active").gauge().value()).isEqualTo(0);
+        assertThat(registry.get("druid.statements").tag("kind", "execute").timer().count()).isEqualTo(1);
+        assertThat(registry.get("druid.statements").tag("kind", "update").timer().count()).isEqualTo(1);
+        assertThat(registry.get("druid.statements").tag("kind", "query").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void countsTimeoutsWhenThePoolIsExhausted() throws Exception {
+        pool(1);
+        try (Connection held = dataSource.getConnection()) {
+            assertThat(registry.get("druid.connections.pending").gauge().value()).isEqualTo(0);
+            assertThatThrownBy(dataSource::getConnection).isInstanceOf(GetConnectionTimeoutException.class);
+        }
+
+        assertThat(registry.get("druid.connections.timeout").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void statementCacheAnswersRepeatedPrepares() throws SQLException {
+        dataSource.setPoolPreparedStatements(true);
+        dataSource.setMaxPoolPreparedStatementPerConnectionSize(10);
+        pool(1);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        for (int i = 0; i < 3; i++) {
+            jdbcTemplate.queryForObject("SELECT ?", Integer.class, i);
+        }
+
+        assertThat(registry.get("druid.statements.prepare").timer().count()).isEqualTo(1);
+        assertThat(registry.get("druid.statements.cache.hits").functionCounter().count()).isEqualTo(2);
+        assertThat(registry.get("druid.statements.cache.misses").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("druid.statements.cache.hit.ratio").gauge().value()).isEqualTo(2.0 / 3);
+        assertThat(registry.get("druid.statements.cache.saved").gauge().value()).isGreaterThan(0);
+    }
+
+    /**
+     * Opens the connections up front, the short max-wait is only meant for the exhausted pool
+     */
+    private void pool(int maxActive) throws SQLException {
+        dataSource.setUrl("jdbc:h2:mem:druid-metrics-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setInitialSize(maxActive);
+        dataSource.setMaxActive(maxActive);
+        dataSource.setMaxWait(50);
+        dataSource.setName("test");
+        DataSourcePools.bindMetrics(dataSource, registry);
+        dataSource.init();
+    }
+}
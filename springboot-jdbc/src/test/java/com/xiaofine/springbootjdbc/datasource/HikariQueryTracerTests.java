@@ -0,0 +1,134 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HikariQueryTracerTests {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final HikariDataSource dataSource = new HikariDataSource();
+
+    private QueryLog log;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        dataSource.setJdbcUrl("jdbc:h2:mem:hikari-query-tracer-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setPoolName("test");
+        QueryTracingProperties properties = new QueryTracingProperties();
+        properties.setSlowThreshold(Duration.ZERO);
+        properties.setSlowLogSize(3);
+        log = new QueryLog(registry, properties);
+        HikariQueryTracer.attach(dataSource).bindTo(log);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE node (id INT PRIMARY KEY, name VARCHAR(16))");
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    void statementsDifferingInValuesShareAFingerprint() {
+        jdbcTemplate.update("INSERT INTO node VALUES (?, ?)", 1, "alpha");
+        jdbcTemplate.update("INSERT INTO node VALUES (2, 'beta')");
+        jdbcTemplate.queryForList("SELECT name FROM node WHERE id IN (?, ?)", String.class, 1, 2);
+        jdbcTemplate.queryForList("SELECT name FROM node WHERE id IN (?, ?, ?)", String.class, 1, 2, 3);
+
+        QueryLog.Query insert = log.query("INSERT INTO node VALUES (3, 'gamma')", "h2");
+        QueryLog.Query select = log.query("SELECT name FROM node WHERE id IN (?)", "h2");
+        assertThat(insert.getQuery()).isEqualTo("INSERT INTO node VALUES (?, ?)");
+        assertThat(insert.getCount()).isEqualTo(2);
+        assertThat(insert.getRows()).isEqualTo(2);
+        assertThat(select.getCount()).isEqualTo(2);
+        assertThat(select.getRows()).isEqualTo(4);
+        assertThat(select.getBytes()).isEqualTo(2 * "alpha".length() + 2 * "beta".length());
+    }
+
+    @Test
+    void batchesCountTheirRows() {
+        jdbcTemplate.batchUpdate("INSERT INTO node VALUES (?, ?)",
+                Arrays.asList(new Object[]{1, "alpha"}, new Object[]{2, "beta"}, new Object[]{3, "gamma"}));
+
+        QueryLog.Query insert = log.query("INSERT INTO node VALUES (?, ?)", "h2");
+        assertThat(insert.getCount()).isEqualTo(1);
+        assertThat(insert.getRows()).isEqualTo(3);
+    }
+
+    @Test
+    void slowLogKeepsTheNewestWithoutValues() {
+        for (int i = 0; i < 4; i++) {
+            jdbcTemplate.update("INSERT INTO node VALUES (?, ?)", i, "secret" + i);
+        }
+
+        List<QueryLog.SlowQuery> slow = log.slowQueries();
+
+        assertThat(slow).hasSize(3);
+        assertThat(slow.get(0).getBinds()).isEqualTo("[Integer, String(7)]");
+        assertThat(slow.get(0).getRows()).isEqualTo(1);
+        assertThat(slow.get(0).getPool()).isEqualTo("test");
+        assertThat(slow).extracting(QueryLog.SlowQuery::getQuery).containsOnly("INSERT INTO node VALUES (?, ?)");
+        assertThat(slow.toString()).doesNotContain("secret");
+    }
+
+    @Test
+    void poolStartedUntracedFailsToAttach() {
+        HikariDataSource started = new HikariDataSource();
+        started.setJdbcUrl("jdbc:h2:mem:hikari-untraced-" + System.nanoTime());
+        try {
+            new JdbcTemplate(started).execute("SELECT 1");
+
+            assertThatThrownBy(() -> HikariQueryTracer.attach(started)).isInstanceOf(IllegalStateException.class);
+        } finally {
+            started.close();
+        }
+    }
+
+    @Test
+    void bootHikariDataSourceIsTracedBeforeTheSchemaIsCreated() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(DataSourceAutoConfiguration.class))
+                .withUserConfiguration(QueryTracingConfig.class, QueryTracingProperties.class, Registry.class)
+                .withPropertyValues("spring.datasource.type=com.zaxxer.hikari.HikariDataSource",
+                        "spring.datasource.url=jdbc:h2:mem:hikari-boot-" + System.nanoTime(),
+                        "spring.datasource.schema=classpath:user-schema.sql",
+                        "spring.datasource.initialization-mode=always")
+                .run(context -> {
+                    assertThat(context).hasNotFailed();
+                    new JdbcTemplate(context.getBean(DataSource.class)).queryForList("SELECT name FROM user", String.class);
+
+                    QueryLog queryLog = context.getBean(QueryLog.class);
+                    assertThat(queryLog.query("SELECT name FROM user", "h2").getCount()).isEqualTo(1);
+                });
+    }
+
+    @Configuration
+    static class Registry {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
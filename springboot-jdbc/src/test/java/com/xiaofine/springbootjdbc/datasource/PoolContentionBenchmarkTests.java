@@ -0,0 +1,136 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Druid against HikariCP with more threads than connections. Each thread borrows a connection, runs a
+ * query and holds the connection for a moment like a request doing some work, the acquire-wait
+ * percentiles come from the pools' own meters. Run with {@code mvn test -Dbenchmark=true}, set
+ * {@code -Dbenchmark.url} and {@code -Dbenchmark.username/password} to run it against a real database
+ * instead of H2.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PoolContentionBenchmarkTests {
+
+    private static final int POOL_SIZE = 10;
+
+    private static final int THREADS = 64;
+
+    private static final int BORROWS_PER_THREAD = 500;
+
+    private static final long HOLD_MICROS = 200;
+
+    private static final String URL = System.getProperty("benchmark.url",
+            "jdbc:h2:mem:pool-contention;DB_CLOSE_DELAY=-1");
+
+    @Test
+    void druidVersusHikari() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            run("druid", druid(), "druid.connections.acquire");
+            run("hikari", hikari(), "hikaricp.connections.acquire");
+        }
+    }
+
+    private void run(String name, DataSource dataSource, String acquireTimer) throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                return DistributionStatisticConfig.builder().percentiles(0.5, 0.95, 0.99).build().merge(config);
+            }
+        });
+        DataSourcePools.bindMetrics(dataSource, registry);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            // opens the pool, Hikari fills it in the background
+            jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+            Thread.sleep(500);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int n = 0; n < BORROWS_PER_THREAD; n++) {
+                        jdbcTemplate.execute((ConnectionCallback<Object>) connection -> {
+                            connection.createStatement().executeQuery("SELECT 1").close();
+                            // the rest of the request's time in the database
+                            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(HOLD_MICROS));
+                            return null;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            long started = System.nanoTime();
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            long elapsed = System.nanoTime() - started;
+
+            Timer acquire = registry.find(acquireTimer).timer();
+            HistogramSnapshot snapshot = acquire.takeSnapshot();
+            StringBuilder percentiles = new StringBuilder();
+            for (ValueAtPercentile value : snapshot.percentileValues()) {
+                percentiles.append(String.format(" p%.0f=%.3fms", value.percentile() * 100,
+                        value.value(TimeUnit.MILLISECONDS)));
+            }
+            System.out.printf("%-6s %8.0f borrows/s, acquire mean=%.3fms max=%.3fms%s%n", name,
+                    THREADS * BORROWS_PER_THREAD / (elapsed / 1e9), acquire.mean(TimeUnit.MILLISECONDS),
+                    acquire.max(TimeUnit.MILLISECONDS), percentiles);
+        } finally {
+            executor.shutdown();
+            ((Closeable) dataSource).close();
+        }
+    }
+
+    private static DataSource druid() {
+        DruidDataSource dataSource = new DruidDataSource();
+        dataSource.setUrl(URL);
+        dataSource.setUsername(System.getProperty("benchmark.username"));
+        dataSource.setPassword(System.getProperty("benchmark.password"));
+        dataSource.setName("druid");
+        dataSource.setInitialSize(POOL_SIZE);
+        dataSource.setMinIdle(POOL_SIZE);
+        dataSource.setMaxActive(POOL_SIZE);
+        dataSource.setMaxWait(30_000);
+        return dataSource;
+    }
+
+    private static DataSource hikari() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(System.getProperty("benchmark.username"));
+        dataSource.setPassword(System.getProperty("benchmark.password"));
+        dataSource.setPoolName("hikari");
+        dataSource.setMinimumIdle(POOL_SIZE);
+        dataSource.setMaximumPoolSize(POOL_SIZE);
+        dataSource.setConnectionTimeout(30_000);
+        return dataSource;
+    }
+}
@@ -0,0 +1,103 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryTracerTests {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final DruidDataSource dataSource = new DruidDataSource();
+
+    private QueryLog log;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        dataSource.setUrl("jdbc:h2:mem:query-tracer-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setName("test");
+        QueryTracingProperties properties = new QueryTracingProperties();
+        properties.setSlowThreshold(Duration.ZERO);
+        properties.setSlowLogSize(3);
+        log = new QueryLog(registry, properties);
+        QueryTracer.attach(dataSource).bindTo(log);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE node (id INT PRIMARY KEY, name VARCHAR(16))");
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    void statementsDifferingInValuesShareAFingerprint() {
+        jdbcTemplate.update("INSERT INTO node VALUES (?, ?)", 1, "alpha");
+        jdbcTemplate.update("INSERT INTO node VALUES (2, 'beta')");
+        jdbcTemplate.queryForList("SELECT name FROM node WHERE id IN (?, ?)", String.class, 1, 2);
+        jdbcTemplate.queryForList("SELECT name FROM node WHERE id IN (?, ?, ?)", String.class, 1, 2, 3);
+
+        QueryLog.Query insert = log.query("INSERT INTO node VALUES (3, 'gamma')", "h2");
+        QueryLog.Query select = log.query("SELECT name FROM node WHERE id IN (?)", "h2");
+        assertThat(insert.getQuery()).isEqualTo("INSERT INTO node VALUES (?, ?)");
+        assertThat(insert.getCount()).isEqualTo(2);
+        assertThat(insert.getRows()).isEqualTo(2);
+        assertThat(select.getCount()).isEqualTo(2);
+        assertThat(select.getRows()).isEqualTo(4);
+        assertThat(select.getBytes()).isEqualTo(2 * "alpha".length() + 2 * "beta".length());
+        assertThat(registry.get("jdbc.queries").tag("query", select.getQuery()).timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void slowLogKeepsTheNewestWithoutValues() {
+        for (int i = 0; i < 4; i++) {
+            jdbcTemplate.update("INSERT INTO node VALUES (?, ?)", i, "secret" + i);
+        }
+
+        List<QueryLog.SlowQuery> slow = log.slowQueries();
+
+        assertThat(slow).hasSize(3);
+        assertThat(slow.get(0).getBinds()).isEqualTo("[Integer, String(7)]");
+        assertThat(slow.get(0).getRows()).isEqualTo(1);
+        assertThat(slow.get(0).getPool()).isEqualTo("test");
+        assertThat(slow).extracting(QueryLog.SlowQuery::getQuery).containsOnly("INSERT INTO node VALUES (?, ?)");
+        assertThat(slow.toString()).doesNotContain("secret");
+    }
+
+    @Test
+    void statementsSeenPastTheBoundAreCachedToo() {
+        QueryTracingProperties properties = new QueryTracingProperties();
+        properties.setMaxQueries(1);
+        QueryLog bounded = new QueryLog(registry, properties);
+        for (int i = 0; i < 100; i++) {
+            bounded.query("SELECT name FROM node WHERE id = " + (i + 2), "h2");
+        }
+        // first seen after the bound was reached, yet not parsed on every execution
+        String frequent = "SELECT name FROM node WHERE id = 1";
+        for (int i = 0; i < 5; i++) {
+            bounded.query(frequent, "h2");
+        }
+
+        assertThat(bounded.cached(frequent)).isNotNull();
+        assertThat(bounded.cached(frequent).getQuery()).isEqualTo("SELECT name FROM node WHERE id = ?");
+    }
+
+    @Test
+    void fingerprintOfUnparsableStatementsHidesLiterals() {
+        assertThat(SqlFingerprint.of("LOAD DATA LOCAL INFILE 'users.tsv' INTO TABLE user CHARACTER SET utf8mb4 (name,email)", "mysql"))
+                .isEqualTo("LOAD DATA LOCAL INFILE ? INTO TABLE user CHARACTER SET utf8mb4 (name,email)");
+        assertThat(SqlFingerprint.of("FROB x = 'it''s', y = 42 IN (?, ?)", "mysql"))
+                .isEqualTo("FROB x = ?, y = ? IN (?)");
+    }
+}
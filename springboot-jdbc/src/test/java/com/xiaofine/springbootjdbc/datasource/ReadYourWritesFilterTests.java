@@ -0,0 +1,51 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReadYourWritesFilterTests {
+
+    private final ReadYourWritesFilter filter = new ReadYourWritesFilter(Duration.ofSeconds(5));
+
+    @Test
+    void writesPinAndSetTheCookie() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(pinned(new MockHttpServletRequest("POST", "/user"), response)).isTrue();
+        assertThat(response.getCookie(ReadYourWritesFilter.COOKIE)).isNotNull();
+    }
+
+    @Test
+    void readsWithinTheWindowArePinned() throws Exception {
+        assertThat(pinned(read(System.currentTimeMillis() + 2_000), new MockHttpServletResponse())).isTrue();
+        assertThat(pinned(read(System.currentTimeMillis() - 1), new MockHttpServletResponse())).isFalse();
+    }
+
+    @Test
+    void cookieFurtherOutThanOneWindowIsIgnored() throws Exception {
+        assertThat(pinned(read(Long.MAX_VALUE), new MockHttpServletResponse())).isFalse();
+        assertThat(pinned(read(System.currentTimeMillis() + 60_000), new MockHttpServletResponse())).isFalse();
+    }
+
+    private static MockHttpServletRequest read(long until) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/user/1");
+        request.setCookies(new Cookie(ReadYourWritesFilter.COOKIE, Long.toString(until)));
+        return request;
+    }
+
+    private boolean pinned(MockHttpServletRequest request, MockHttpServletResponse response)
+            throws ServletException, IOException {
+        AtomicBoolean pinned = new AtomicBoolean();
+        filter.doFilter(request, response, (req, res) -> pinned.set(ReplicaRoutingDataSource.isPinned()));
+        return pinned.get();
+    }
+}
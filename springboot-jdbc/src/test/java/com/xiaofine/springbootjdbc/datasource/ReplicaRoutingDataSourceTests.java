@@ -0,0 +1,120 @@
+package com.xiaofine.springbootjdbc.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReplicaRoutingDataSourceTests {
+
+    private final List<EmbeddedDatabase> databases = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        databases.forEach(EmbeddedDatabase::shutdown);
+    }
+
+    @Test
+    void readOnlyTransactionsGoRoundRobinOverTheReplicas() {
+        ReplicaRoutingDataSource routing = routing(RoutingDataSourceProperties.Strategy.ROUND_ROBIN,
+                database("primary"), database("replica0"), database("replica1"));
+
+        assertThat(Arrays.asList(read(routing), read(routing), read(routing), read(routing)))
+                .containsExactly("replica0", "replica1", "replica0", "replica1");
+        assertThat(write(routing)).isEqualTo("primary");
+        assertThat(new JdbcTemplate(proxy(routing)).queryForObject("SELECT name FROM node", String.class))
+                .isEqualTo("primary");
+    }
+
+    @Test
+    void pinnedThreadsReadFromThePrimary() {
+        ReplicaRoutingDataSource routing = routing(RoutingDataSourceProperties.Strategy.ROUND_ROBIN,
+                database("primary"), database("replica0"));
+
+        ReplicaRoutingDataSource.pinToPrimary();
+        try {
+            assertThat(read(routing)).isEqualTo("primary");
+        } finally {
+            ReplicaRoutingDataSource.unpin();
+        }
+        assertThat(read(routing)).isEqualTo("replica0");
+    }
+
+    @Test
+    void leastLatencyPicksTheFastestReplica() {
+        ReplicaRoutingDataSource routing = routing(RoutingDataSourceProperties.Strategy.LEAST_LATENCY,
+                database("primary"), database("replica0"), database("replica1"));
+        routing.getReplicas().get(0).recordLatency(5_000_000);
+        routing.getReplicas().get(1).recordLatency(1_000_000);
+
+        assertThat(read(routing)).isEqualTo("replica1");
+        assertThat(read(routing)).isEqualTo("replica1");
+    }
+
+    @Test
+    void failingReplicaIsSkippedAndReadsFallBackToThePrimary() throws SQLException {
+        DataSource broken = mock(DataSource.class);
+        when(broken.getConnection()).thenThrow(new SQLException("replica is down"));
+        ReplicaRoutingDataSource routing = routing(RoutingDataSourceProperties.Strategy.ROUND_ROBIN,
+                database("primary"), broken, database("replica1"));
+
+        assertThat(read(routing)).isEqualTo("primary");
+        assertThat(routing.getReplicas().get(0).isUp()).isFalse();
+        assertThat(Arrays.asList(read(routing), read(routing))).containsExactly("replica1", "replica1");
+    }
+
+    private ReplicaRoutingDataSource routing(RoutingDataSourceProperties.Strategy strategy, DataSource primary,
+                                             DataSource... replicas) {
+        return new ReplicaRoutingDataSource(primary, Arrays.asList(replicas), strategy,
+                Duration.ZERO, Duration.ofMinutes(1));
+    }
+
+    private static String read(ReplicaRoutingDataSource routing) {
+        return query(routing, true);
+    }
+
+    private static String write(ReplicaRoutingDataSource routing) {
+        return query(routing, false);
+    }
+
+    private static String query(ReplicaRoutingDataSource routing, boolean readOnly) {
+        DataSource dataSource = proxy(routing);
+        TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transaction.setReadOnly(readOnly);
+        return transaction.execute(status ->
+                new JdbcTemplate(dataSource).queryForObject("SELECT name FROM node", String.class));
+    }
+
+    private static DataSource proxy(ReplicaRoutingDataSource routing) {
+        return routing.lazy();
+    }
+
+    /**
+     * A separate H2 database with a single row naming it
+     */
+    private EmbeddedDatabase database(String name) {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName("routing-" + name + "-" + System.nanoTime())
+                .build();
+        new JdbcTemplate(database).execute("CREATE TABLE node (name VARCHAR(16))");
+        new JdbcTemplate(database).update("INSERT INTO node VALUES (?)", name);
+        databases.add(database);
+        return database;
+    }
+}
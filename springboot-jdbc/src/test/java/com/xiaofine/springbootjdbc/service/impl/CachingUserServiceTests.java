@@ -0,0 +1,273 @@
+package com.xiaofine.springbootjdbc.service.impl;
+
+import com.xiaofine.springbootjdbc.config.UserCacheProperties;
+import com.xiaofine.springbootjdbc.datasource.ReplicaRoutingDataSource;
+import com.xiaofine.springbootjdbc.entity.User;
+import com.xiaofine.springbootjdbc.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CachingUserServiceTests {
+
+    private final UserService delegate = mock(UserService.class);
+
+    private CachingUserService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    @Test
+    void concurrentMissesForOneIdRunOneQuery() throws Exception {
+        service = new CachingUserService(delegate, new UserCacheProperties());
+        CountDownLatch release = new CountDownLatch(1);
+        when(delegate.findUserById(1)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return user(1, "a");
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<User>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> service.findUserById(1)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<User> result : results) {
+                assertThat(result.get().getName()).isEqualTo("a");
+            }
+        } finally {
+            executor.shutdown();
+        }
+        verify(delegate, times(1)).findUserById(1);
+    }
+
+    @Test
+    void multiGetReadsOnlyTheUncachedIds() {
+        service = new CachingUserService(delegate, new UserCacheProperties());
+        when(delegate.findUserById(2)).thenReturn(user(2, "b"));
+        when(delegate.findUsersByIds(Arrays.asList(3, 1))).thenReturn(Arrays.asList(user(1, "a"), user(3, "c")));
+        service.findUserById(2);
+
+        assertThat(service.findUsersByIds(Arrays.asList(3, 2, 1, 2)))
+                .extracting(User::getName).containsExactly("c", "b", "a");
+        verify(delegate, never()).findUsersByIds(Collections.singletonList(2));
+    }
+
+    @Test
+    void updateAndDeleteInvalidate() {
+        service = new CachingUserService(delegate, new UserCacheProperties());
+        when(delegate.findUserById(1)).thenReturn(user(1, "a"), user(1, "b"), null);
+
+        assertThat(service.findUserById(1).getName()).isEqualTo("a");
+        assertThat(service.findUserById(1).getName()).isEqualTo("a");
+        service.update(user(1, "b"));
+        assertThat(service.findUserById(1).getName()).isEqualTo("b");
+        service.delete(1);
+        assertThat(service.findUserById(1)).isNull();
+
+        verify(delegate, times(3)).findUserById(1);
+    }
+
+    @Test
+    void missesAreLoadedFromThePrimary() {
+        service = new CachingUserService(delegate, new UserCacheProperties());
+        when(delegate.findUserById(1)).thenAnswer(invocation ->
+                user(1, ReplicaRoutingDataSource.isPinned() ? "primary" : "replica"));
+
+        assertThat(service.findUserById(1).getName()).isEqualTo("primary");
+        assertThat(ReplicaRoutingDataSource.isPinned()).isFalse();
+    }
+
+    @Test
+    void writeBehindBuffersUntilTheBatchIsFull() {
+        UserCacheProperties properties = new UserCacheProperties();
+        properties.getWriteBehind().setEnabled(true);
+        properties.getWriteBehind().setFlushInterval(Duration.ofHours(1));
+        properties.getWriteBehind().setBatchSize(3);
+        service = new CachingUserService(delegate, properties);
+        List<String> flushedOn = new CopyOnWriteArrayList<>();
+        when(delegate.updateAll(anyList())).thenAnswer(invocation -> {
+            flushedOn.add(Thread.currentThread().getName());
+            return 3;
+        });
+        when(delegate.findUserById(1)).thenReturn(user(1, "c"));
+        when(delegate.findUserById(2)).thenReturn(user(2, "b"));
+        when(delegate.findUserById(3)).thenReturn(user(3, "c"));
+
+        service.update(user(1, "b"));
+        service.update(user(2, "c"));
+
+        assertThat(service.findUserById(1).getName()).isEqualTo("b");
+        // only the existence check before buffering
+        verify(delegate, times(1)).findUserById(1);
+        verify(delegate, never()).updateAll(anyList());
+
+        service.update(user(1, "c"));
+        service.update(user(3, "d"));
+
+        verify(delegate, timeout(5000)).updateAll(anyList());
+        assertThat(flushedOn).allMatch(thread -> thread.startsWith("user-write-behind-"));
+        assertThat(service.findUserById(1).getName()).isEqualTo("c");
+    }
+
+    @Test
+    void writeBehindDoesNotBufferUpdatesOfUnknownUsers() {
+        UserCacheProperties properties = new UserCacheProperties();
+        properties.getWriteBehind().setEnabled(true);
+        properties.getWriteBehind().setFlushInterval(Duration.ofHours(1));
+        service = new CachingUserService(delegate, properties);
+
+        assertThat(service.update(user(7, "nobody"))).isEqualTo(0);
+        service.flush();
+
+        verify(delegate, never()).updateAll(anyList());
+    }
+
+    @Test
+    void writeBehindBuffersAddsAndWritesThemWithAddAll() {
+        UserCacheProperties properties = new UserCacheProperties();
+        properties.getWriteBehind().setEnabled(true);
+        properties.getWriteBehind().setFlushInterval(Duration.ofHours(1));
+        service = new CachingUserService(delegate, properties);
+        List<String> added = new CopyOnWriteArrayList<>();
+        when(delegate.addAll(anyList())).thenAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            users.forEach(user -> added.add(user.getName()));
+            return users.size();
+        });
+
+        assertThat(service.add(user(0, "x"))).isEqualTo(1);
+        assertThat(service.add(user(0, "y"))).isEqualTo(1);
+        verify(delegate, never()).add(any());
+        verify(delegate, never()).addAll(anyList());
+
+        service.findAllUsers();
+
+        assertThat(added).containsExactly("x", "y");
+        verify(delegate, never()).updateAll(anyList());
+    }
+
+    @Test
+    void failedFlushIsRetriedWithTheNextOne() {
+        UserCacheProperties properties = new UserCacheProperties();
+        properties.getWriteBehind().setEnabled(true);
+        properties.getWriteBehind().setFlushInterval(Duration.ofHours(1));
+        service = new CachingUserService(delegate, properties);
+        when(delegate.findUserById(1)).thenReturn(user(1, "a"));
+        when(delegate.findUserById(2)).thenReturn(user(2, "a"));
+        List<String> written = new CopyOnWriteArrayList<>();
+        when(delegate.updateAll(anyList()))
+                .thenThrow(new QueryTimeoutException("database down"))
+                .thenAnswer(invocation -> {
+                    List<User> users = invocation.getArgument(0);
+                    users.forEach(user -> written.add(user.getId() + "=" + user.getName()));
+                    return users.size();
+                });
+
+        assertThat(service.findUserById(1).getName()).isEqualTo("a");
+        service.update(user(1, "b"));
+        service.update(user(2, "b"));
+        assertThatThrownBy(service::flush).isInstanceOf(QueryTimeoutException.class);
+
+        // still buffered, and an update made meanwhile replaces the failed one
+        assertThat(service.findUserById(1).getName()).isEqualTo("b");
+        service.update(user(2, "c"));
+        service.flush();
+
+        assertThat(written).containsExactly("1=b", "2=c");
+    }
+
+    @Test
+    void addsInsertedBeforeAFailureAreNotRetried() {
+        UserCacheProperties properties = new UserCacheProperties();
+        properties.getWriteBehind().setEnabled(true);
+        properties.getWriteBehind().setFlushInterval(Duration.ofHours(1));
+        service = new CachingUserService(delegate, properties);
+        List<String> added = new CopyOnWriteArrayList<>();
+        when(delegate.addAll(anyList()))
+                .thenAnswer(invocation -> {
+                    // the first row lands and gets its key, then the connection drops
+                    List<User> users = invocation.getArgument(0);
+                    users.get(0).setId(100);
+                    added.add(users.get(0).getName());
+                    throw new QueryTimeoutException("connection reset");
+                })
+                .thenAnswer(invocation -> {
+                    List<User> users = invocation.getArgument(0);
+                    users.forEach(user -> added.add(user.getName()));
+                    return users.size();
+                });
+
+        service.add(user(7, "x"));
+        service.add(user(7, "y"));
+        assertThatThrownBy(service::flush).isInstanceOf(QueryTimeoutException.class);
+        service.flush();
+
+        assertThat(added).containsExactly("x", "y");
+    }
+
+    @Test
+    void rejectedBatchIsWrittenOneRowAtATime() {
+        UserCacheProperties properties = new UserCacheProperties();
+        properties.getWriteBehind().setEnabled(true);
+        properties.getWriteBehind().setFlushInterval(Duration.ofHours(1));
+        service = new CachingUserService(delegate, properties);
+        when(delegate.findUserById(1)).thenReturn(user(1, "a"));
+        when(delegate.findUserById(2)).thenReturn(user(2, "a"));
+        when(delegate.updateAll(anyList())).thenThrow(new DataIntegrityViolationException("name too long"));
+        when(delegate.update(any())).thenAnswer(invocation -> {
+            if (invocation.<User>getArgument(0).getId() == 2) {
+                throw new DataIntegrityViolationException("name too long");
+            }
+            return 1;
+        });
+
+        service.update(user(1, "b"));
+        service.update(user(2, "way too long"));
+        service.flush();
+
+        verify(delegate).update(argThat(user -> user.getId() == 1 && user.getName().equals("b")));
+        // the rejected row is dropped, not retried forever
+        service.flush();
+        verify(delegate, times(1)).updateAll(anyList());
+        assertThat(service.findUserById(2).getName()).isEqualTo("a");
+    }
+
+    private static User user(int id, String name) {
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        user.setEmail(name + "@example.com");
+        return user;
+    }
+}
@@ -0,0 +1,75 @@
+package com.xiaofine.springbootjdbc.service.impl;
+
+import com.xiaofine.springbootjdbc.dao.impl.UserDaoImpl;
+import com.xiaofine.springbootjdbc.entity.User;
+import com.xiaofine.springbootjdbc.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The bulk methods commit all their batches or none, run outside the test transaction to see that
+ */
+@JdbcTest(properties = {"spring.datasource.schema=classpath:user-schema.sql", "user.batch-size=3"})
+@Import({UserDaoImpl.class, UserServiceImpl.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class UserServiceImplTests {
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM user");
+    }
+
+    @Test
+    void addAllRollsBackEarlierBatchesWhenOneFails() {
+        List<User> users = users(7);
+        // too long for the column, fails the third batch
+        users.get(6).setName(new String(new char[100]).replace('\0', 'x'));
+
+        assertThatThrownBy(() -> userService.addAll(users)).isInstanceOf(DataAccessException.class);
+
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM user", Integer.class)).isZero();
+    }
+
+    @Test
+    void updateAllRollsBackEarlierBatchesWhenOneFails() {
+        List<User> users = users(7);
+        userService.addAll(users);
+        users.forEach(user -> user.setEmail("new-" + user.getEmail()));
+        users.get(6).setName(new String(new char[100]).replace('\0', 'x'));
+
+        assertThatThrownBy(() -> userService.updateAll(users)).isInstanceOf(DataAccessException.class);
+
+        assertThat(jdbcTemplate.queryForList("SELECT email FROM user", String.class))
+                .noneMatch(email -> email.startsWith("new-"));
+    }
+
+    private static List<User> users(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setName("user" + i);
+            user.setEmail("user" + i + "@example.com");
+            users.add(user);
+        }
+        return users;
+    }
+}
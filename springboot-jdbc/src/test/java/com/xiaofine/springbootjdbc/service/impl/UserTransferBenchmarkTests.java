@@ -0,0 +1,128 @@
+package com.xiaofine.springbootjdbc.service.impl;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaofine.springbootjdbc.config.UserTransferProperties;
+import com.xiaofine.springbootjdbc.dao.impl.UserDaoImpl;
+import com.xiaofine.springbootjdbc.service.ImportResult;
+import com.xiaofine.springbootjdbc.service.UserTransferService.Format;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Imports and exports a million users generated on the fly. Against H2 in memory the peak heap includes
+ * the table itself, with {@code -Dbenchmark.url} pointing at a database server it should not depend on the
+ * row count ({@code -Dbenchmark.users}). Run with {@code mvn test -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class UserTransferBenchmarkTests {
+
+    private static final int USERS = Integer.getInteger("benchmark.users", 1_000_000);
+
+    @Test
+    void millionRowsInAndOut() throws Exception {
+        DruidDataSource dataSource = new DruidDataSource();
+        dataSource.setUrl(System.getProperty("benchmark.url", "jdbc:h2:mem:transfer;DB_CLOSE_DELAY=-1"));
+        dataSource.setMaxActive(8);
+        try {
+            new ResourceDatabasePopulator(new ClassPathResource("user-schema.sql")).execute(dataSource);
+            UserDaoImpl userDao = new UserDaoImpl();
+            ReflectionTestUtils.setField(userDao, "jdbcTemplate", new JdbcTemplate(dataSource));
+            ReflectionTestUtils.setField(userDao, "batchSize", 1000);
+            ReflectionTestUtils.setField(userDao, "fetchSize", 1000);
+            UserServiceImpl userService = new UserServiceImpl();
+            ReflectionTestUtils.setField(userService, "userDao", userDao);
+            UserTransferServiceImpl transfer = new UserTransferServiceImpl(userDao, userService, new ObjectMapper(),
+                    new UserTransferProperties(), new DataSourceTransactionManager(dataSource));
+
+            resetPeakHeap();
+            long start = System.nanoTime();
+            ImportResult result = transfer.importUsers(new GeneratedCsv(USERS), Format.CSV);
+            System.out.printf("import %d rows in %.2fs, peak heap %dMB%n", result.getImported(),
+                    (System.nanoTime() - start) / 1e9, peakHeap() >> 20);
+
+            for (Format format : Format.values()) {
+                resetPeakHeap();
+                CountingOutputStream out = new CountingOutputStream();
+                start = System.nanoTime();
+                transfer.exportUsers(out, format);
+                System.out.printf("export %s %dMB in %.2fs, peak heap %dMB%n", format, out.count >> 20,
+                        (System.nanoTime() - start) / 1e9, peakHeap() >> 20);
+            }
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static final class GeneratedCsv extends InputStream {
+
+        private final int rows;
+
+        private int row = -1;
+
+        private byte[] line = "name,email\n".getBytes(StandardCharsets.UTF_8);
+
+        private int position;
+
+        GeneratedCsv(int rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public int read() {
+            if (position == line.length) {
+                if (row + 1 == rows) {
+                    return -1;
+                }
+                row++;
+                line = ("user" + row + ",user" + row + "@example.com\n").getBytes(StandardCharsets.UTF_8);
+                position = 0;
+            }
+            return line[position++];
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
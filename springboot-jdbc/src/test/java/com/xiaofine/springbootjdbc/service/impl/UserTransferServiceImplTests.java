@@ -0,0 +1,157 @@
+package com.xiaofine.springbootjdbc.service.impl;
+
+import com.xiaofine.springbootjdbc.config.UserTransferProperties;
+import com.xiaofine.springbootjdbc.dao.impl.UserDaoImpl;
+import com.xiaofine.springbootjdbc.service.ImportFailedException;
+import com.xiaofine.springbootjdbc.service.ImportResult;
+import com.xiaofine.springbootjdbc.service.UserTransferService;
+import com.xiaofine.springbootjdbc.service.UserTransferService.Format;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The import threads commit on their own connections, so the tests run outside a test transaction
+ */
+@JdbcTest(properties = {"spring.datasource.schema=classpath:user-schema.sql", "user.transfer.block-size=2",
+        "user.transfer.parsers=2", "user.transfer.max-reported-errors=2"})
+@Import({UserDaoImpl.class, UserServiceImpl.class, UserTransferServiceImpl.class, UserTransferProperties.class})
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class UserTransferServiceImplTests {
+
+    @Autowired
+    UserTransferService userTransferService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM user");
+    }
+
+    @Test
+    void csvImportInsertsValidLinesAndReportsTheOthers() throws IOException {
+        String csv = "email,name\n"
+                + "a@example.com,a\n"
+                + "\"c@example.com\",\"c, \"\"quoted\"\"\"\n"
+                + "not an email,b\n"
+                + "\n"
+                + "d@example.com,\n"
+                + "e@example.com\n"
+                + "f@example.com,f\n";
+
+        ImportResult result = userTransferService.importUsers(stream(csv), Format.CSV);
+
+        assertThat(result.getImported()).isEqualTo(3);
+        assertThat(result.getRejected()).isEqualTo(3);
+        assertThat(result.getErrors()).containsExactly("line 4: email is not valid", "line 6: name is missing");
+        assertThat(jdbcTemplate.queryForList("SELECT name FROM user ORDER BY name", String.class))
+                .containsExactly("a", "c, \"quoted\"", "f");
+    }
+
+    @Test
+    void csvImportNeedsAHeader() {
+        assertThatThrownBy(() -> userTransferService.importUsers(stream("a,b\n"), Format.CSV))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void namesWithLineBreaksAreRejected() throws IOException {
+        String ndjson = "{\"name\":\"a\\nb\",\"email\":\"a@example.com\"}\n"
+                + "{\"name\":\"c\\r\",\"email\":\"c@example.com\"}\n";
+
+        ImportResult result = userTransferService.importUsers(stream(ndjson), Format.NDJSON);
+
+        assertThat(result.getImported()).isEqualTo(0);
+        assertThat(result.getErrors()).containsExactly("line 1: name contains a line break",
+                "line 2: name contains a line break");
+    }
+
+    @Test
+    void failureAfterCommittedRowsReportsThem() {
+        byte[] lines = "email,name\na@example.com,a\nb@example.com,b\n".getBytes(StandardCharsets.UTF_8);
+        InputStream in = new InputStream() {
+
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position < lines.length) {
+                    int n = Math.min(len, lines.length - position);
+                    System.arraycopy(lines, position, b, off, n);
+                    position += n;
+                    return n;
+                }
+                // fail only once the first block is committed
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user", Integer.class) < 2
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.yield();
+                }
+                throw new IOException("connection reset");
+            }
+        };
+
+        assertThatThrownBy(() -> userTransferService.importUsers(in, Format.CSV))
+                .isInstanceOfSatisfying(ImportFailedException.class, e -> {
+                    assertThat(e.getResult().getImported()).isEqualTo(2);
+                    assertThat(e.getResult().getFailure()).isEqualTo("connection reset");
+                });
+    }
+
+    @Test
+    void ndjsonRoundTrip() throws IOException {
+        String ndjson = "{\"id\":7,\"name\":\"a\",\"email\":\"a@example.com\"}\n"
+                + "{\"name\":\"b\",\"email\":\"b@example.com\"}\n"
+                + "[1]\n";
+
+        ImportResult result = userTransferService.importUsers(stream(ndjson), Format.NDJSON);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        userTransferService.exportUsers(out, Format.NDJSON);
+
+        assertThat(result.getImported()).isEqualTo(2);
+        assertThat(result.getRejected()).isEqualTo(1);
+        String[] lines = out.toString("UTF-8").split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).contains("\"name\":\"a\"").doesNotContain("\"id\":7");
+        assertThat(lines[1]).contains("\"email\":\"b@example.com\"");
+    }
+
+    @Test
+    void csvExportQuotesWhereNeeded() throws IOException {
+        jdbcTemplate.update("INSERT INTO user(id, name, email) VALUES (1, 'a, b', 'a@example.com')");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        userTransferService.exportUsers(out, Format.CSV);
+
+        assertThat(out.toString("UTF-8")).isEqualTo("id,name,email\n1,\"a, b\",a@example.com\n");
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,5 @@
+create table user (
+    id int auto_increment primary key,
+    name varchar(64),
+    email varchar(128)
+);
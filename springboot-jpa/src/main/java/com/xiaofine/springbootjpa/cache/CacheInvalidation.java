@@ -0,0 +1,51 @@
+package com.xiaofine.springbootjpa.cache;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Entities of one type that changed on another instance. Its cached query results are stale whatever the
+ * ids, the listed entities are dropped, or every entity of the type when the change was too large to list.
+ */
+public class CacheInvalidation {
+
+    private final String entityName;
+
+    private final List<String> ids;
+
+    private final boolean all;
+
+    private CacheInvalidation(String entityName, List<String> ids, boolean all) {
+        this.entityName = entityName;
+        this.ids = ids;
+        this.all = all;
+    }
+
+    /**
+     * @param ids the changed ids as strings, empty when entities were only inserted
+     */
+    public static CacheInvalidation of(String entityName, List<String> ids) {
+        return new CacheInvalidation(entityName, Collections.unmodifiableList(ids), false);
+    }
+
+    public static CacheInvalidation all(String entityName) {
+        return new CacheInvalidation(entityName, Collections.emptyList(), true);
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    @Override
+    public String toString() {
+        return entityName + (all ? "[*]" : ids.toString());
+    }
+}
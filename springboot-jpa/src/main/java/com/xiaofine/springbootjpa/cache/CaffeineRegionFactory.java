@@ -0,0 +1,57 @@
+package com.xiaofine.springbootjpa.cache;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.jcache.internal.JCacheRegionFactory;
+import org.hibernate.cache.spi.RegionFactory;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.spi.CachingProvider;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Hibernate's JCache region factory on local Caffeine caches, each region bounded by its entry in
+ * {@link EntityCacheProperties}. Every factory gets a cache manager of its own, so two persistence units in
+ * one JVM never share a region.
+ * <p>
+ * Entries are stored by reference: Hibernate caches the disassembled state of an entity, which it never
+ * changes, and copying it on every read as JCache does by default would cost more than the query saved.
+ * The update timestamps region is never bounded, an evicted timestamp would let stale query results through.
+ * It holds one entry per table.
+ */
+public class CaffeineRegionFactory extends JCacheRegionFactory {
+
+    private final EntityCacheProperties properties;
+
+    public CaffeineRegionFactory(EntityCacheProperties properties) {
+        this.properties = properties;
+    }
+
+    // the raw Map is JCacheRegionFactory's signature, a parameterized one would not override it
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected CacheManager resolveCacheManager(SessionFactoryOptions settings, Map properties) {
+        CachingProvider provider = new CaffeineCachingProvider();
+        URI uri = URI.create(getClass().getName() + "-" + Integer.toHexString(System.identityHashCode(this)));
+        return provider.getCacheManager(uri, provider.getDefaultClassLoader());
+    }
+
+    @Override
+    protected Cache<Object, Object> createCache(String regionName) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setStoreByValue(false);
+        if (!regionName.equals(RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME)) {
+            configuration.setMaximumSize(OptionalLong.of(properties.region(regionName).getMaxSize()));
+            Duration expireAfterWrite = properties.expireAfterWrite(regionName);
+            if (!expireAfterWrite.isZero()) {
+                configuration.setExpireAfterWrite(OptionalLong.of(expireAfterWrite.toNanos()));
+            }
+        }
+        return getCacheManager().createCache(regionName, configuration);
+    }
+}
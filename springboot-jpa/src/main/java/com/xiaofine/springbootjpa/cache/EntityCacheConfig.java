@@ -0,0 +1,64 @@
+package com.xiaofine.springbootjpa.cache;
+
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.jcache.MissingCacheStrategy;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.SharedCacheMode;
+import java.io.IOException;
+
+/**
+ * Turns on Hibernate's second-level and query cache on {@link CaffeineRegionFactory}. Only entities marked
+ * @Cache are cached, and only queries given the org.hibernate.cacheable hint. With jpa.cache.invalidation
+ * enabled, writes are broadcast to the other instances.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "jpa.cache", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class EntityCacheConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer entityCacheCustomizer(EntityCacheProperties properties) {
+        return hibernateProperties -> {
+            hibernateProperties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+            hibernateProperties.put(AvailableSettings.USE_QUERY_CACHE, properties.isQueryCache());
+            hibernateProperties.put(AvailableSettings.CACHE_REGION_FACTORY, new CaffeineRegionFactory(properties));
+            hibernateProperties.put(ConfigSettings.MISSING_CACHE_STRATEGY, MissingCacheStrategy.CREATE.getExternalRepresentation());
+            hibernateProperties.put(AvailableSettings.JPA_SHARED_CACHE_MODE, SharedCacheMode.ENABLE_SELECTIVE);
+            hibernateProperties.put(AvailableSettings.GENERATE_STATISTICS, properties.isStatistics());
+        };
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "jpa.cache", name = "statistics", havingValue = "true", matchIfMissing = true)
+    public EntityCacheMetrics entityCacheMetrics(EntityManagerFactory entityManagerFactory) {
+        return new EntityCacheMetrics(entityManagerFactory.unwrap(SessionFactoryImplementor.class));
+    }
+
+    @Configuration
+    @ConditionalOnProperty(prefix = "jpa.cache.invalidation", name = "enabled", havingValue = "true")
+    static class InvalidationConfig {
+
+        @Bean
+        @ConditionalOnProperty(prefix = "jpa.cache.invalidation", name = "channel", havingValue = "multicast",
+                matchIfMissing = true)
+        public MulticastInvalidationChannel invalidationChannel(EntityCacheProperties properties) throws IOException {
+            EntityCacheProperties.Invalidation invalidation = properties.getInvalidation();
+            return new MulticastInvalidationChannel(invalidation.getGroup(), invalidation.getPort(),
+                    invalidation.getTimeToLive());
+        }
+
+        @Bean
+        public EntityCacheInvalidator entityCacheInvalidator(EntityManagerFactory entityManagerFactory,
+                                                             InvalidationChannel channel,
+                                                             EntityCacheProperties properties) {
+            return new EntityCacheInvalidator(entityManagerFactory.unwrap(SessionFactoryImplementor.class), channel,
+                    properties.getInvalidation());
+        }
+    }
+}
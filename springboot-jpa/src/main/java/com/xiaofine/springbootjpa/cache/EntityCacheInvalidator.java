@@ -0,0 +1,218 @@
+package com.xiaofine.springbootjpa.cache;
+
+import org.hibernate.MappingException;
+import org.hibernate.cache.spi.CacheImplementor;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the second-level caches of several instances coherent. Entities inserted, updated or deleted here
+ * are collected once their transaction committed and published on the {@link InvalidationChannel} every
+ * flush interval, one message per entity type. Messages from the other instances drop the listed entities
+ * from the local cache and invalidate the cached queries on their tables.
+ * <p>
+ * Bulk HQL and native statements bypass these events, as they bypass the local cache. A reader that loaded
+ * the old row before the change committed, or from a lagging replica after it, can still put it back in its
+ * cache, the region expiry bounds how long it is served.
+ */
+public class EntityCacheInvalidator implements PostCommitInsertEventListener, PostCommitUpdateEventListener,
+        PostCommitDeleteEventListener, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityCacheInvalidator.class);
+
+    private final SessionFactoryImplementor sessionFactory;
+
+    private final InvalidationChannel channel;
+
+    private final int maxIds;
+
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Changed ids by entity name, more than maxIds stands for all of them
+     */
+    private Map<String, Set<Serializable>> pending = new HashMap<>();
+
+    public EntityCacheInvalidator(SessionFactoryImplementor sessionFactory, InvalidationChannel channel,
+                                  EntityCacheProperties.Invalidation properties) {
+        this.sessionFactory = sessionFactory;
+        this.channel = channel;
+        this.maxIds = properties.getMaxIds();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cache-invalidation-flush-");
+        threadFactory.setDaemon(true);
+        long interval = Math.max(1, properties.getFlushInterval().toMillis());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+
+        EventListenerRegistry listeners = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        listeners.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        listeners.appendListeners(EventType.POST_COMMIT_DELETE, this);
+        channel.subscribe(this::invalidate);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        // nothing cached elsewhere under a new id, but queries over the table are stale
+        changed(event.getPersister(), null);
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        changed(event.getPersister(), event.getId());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        changed(event.getPersister(), event.getId());
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return true;
+    }
+
+    /**
+     * Still abstract in Hibernate 5.4, which only calls it through requiresPostCommitHandling
+     */
+    @Override
+    @Deprecated
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return requiresPostCommitHandling(persister);
+    }
+
+    /**
+     * Publishes the changes collected since the last flush
+     */
+    public void flush() {
+        Map<String, Set<Serializable>> changes;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            changes = pending;
+            pending = new HashMap<>();
+        }
+        for (Map.Entry<String, Set<Serializable>> change : changes.entrySet()) {
+            CacheInvalidation invalidation = invalidation(change.getKey(), change.getValue());
+            try {
+                channel.publish(invalidation);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Publishing cache invalidation {} failed, other instances serve it until it expires",
+                        invalidation, e);
+            }
+        }
+    }
+
+    /**
+     * Applies an invalidation from another instance
+     */
+    public void invalidate(CacheInvalidation invalidation) {
+        EntityPersister persister;
+        try {
+            persister = sessionFactory.getMetamodel().entityPersister(invalidation.getEntityName());
+        } catch (MappingException e) {
+            // an instance of another version with entities this one does not have
+            log.debug("Ignoring cache invalidation of unknown entity {}", invalidation.getEntityName());
+            return;
+        }
+        CacheImplementor cache = sessionFactory.getCache();
+        if (persister.canWriteToCache()) {
+            Class<?> idType = persister.getIdentifierType().getReturnedClass();
+            if (invalidation.isAll() || !isSimple(idType)) {
+                cache.evictEntityData(persister.getEntityName());
+            } else {
+                for (String id : invalidation.getIds()) {
+                    cache.evictEntityData(persister.getEntityName(), parse(id, idType));
+                }
+            }
+        }
+        if (sessionFactory.getSessionFactoryOptions().isQueryCacheEnabled()) {
+            try (SessionImplementor session = (SessionImplementor) sessionFactory.openSession()) {
+                cache.getTimestampsCache().invalidate(persister.getQuerySpaces(), session);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    private synchronized void changed(EntityPersister persister, Serializable id) {
+        Set<Serializable> ids = pending.computeIfAbsent(persister.getEntityName(), name -> new LinkedHashSet<>());
+        if (id != null && ids.size() <= maxIds) {
+            ids.add(id);
+        }
+    }
+
+    private CacheInvalidation invalidation(String entityName, Set<Serializable> ids) {
+        if (ids.size() > maxIds) {
+            return CacheInvalidation.all(entityName);
+        }
+        List<String> strings = new ArrayList<>(ids.size());
+        for (Serializable id : ids) {
+            if (!isSimple(id.getClass())) {
+                return CacheInvalidation.all(entityName);
+            }
+            strings.add(id.toString());
+        }
+        return CacheInvalidation.of(entityName, strings);
+    }
+
+    /**
+     * Ids that survive as strings, composite ids drop the whole region instead
+     */
+    private static boolean isSimple(Class<?> idType) {
+        return idType == Integer.class || idType == int.class || idType == Long.class || idType == long.class
+                || idType == String.class;
+    }
+
+    private static Serializable parse(String id, Class<?> idType) {
+        if (idType == Integer.class || idType == int.class) {
+            return Integer.valueOf(id);
+        }
+        if (idType == Long.class || idType == long.class) {
+            return Long.valueOf(id);
+        }
+        return id;
+    }
+}
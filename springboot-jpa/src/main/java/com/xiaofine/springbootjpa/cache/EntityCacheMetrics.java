@@ -0,0 +1,64 @@
+package com.xiaofine.springbootjpa.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+
+/**
+ * Hit, miss and put counts and the entry count of every second-level cache region, tagged with the region.
+ * Boot's hibernate.second.level.cache meters only add them up over all regions.
+ */
+public class EntityCacheMetrics implements MeterBinder {
+
+    private final SessionFactoryImplementor sessionFactory;
+
+    public EntityCacheMetrics(SessionFactoryImplementor sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Statistics statistics = sessionFactory.getStatistics();
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            if (statistics.getCacheRegionStatistics(region) == null) {
+                continue;
+            }
+            // looked up on every read, clearing the statistics replaces the region's
+            FunctionCounter.builder("jpa.cache.requests", statistics,
+                    s -> s.getCacheRegionStatistics(region).getHitCount())
+                    .tags("region", region, "result", "hit")
+                    .description("Lookups in the region that found the entry").register(registry);
+            FunctionCounter.builder("jpa.cache.requests", statistics,
+                    s -> s.getCacheRegionStatistics(region).getMissCount())
+                    .tags("region", region, "result", "miss")
+                    .description("Lookups in the region that went to the database").register(registry);
+            FunctionCounter.builder("jpa.cache.puts", statistics, s -> s.getCacheRegionStatistics(region).getPutCount())
+                    .tags("region", region)
+                    .description("Entries put in the region").register(registry);
+            Cache<?, ?> cache = cacheOf(region);
+            if (cache != null) {
+                @SuppressWarnings("unchecked")
+                com.github.benmanes.caffeine.cache.Cache<Object, Object> caffeine =
+                        cache.unwrap(com.github.benmanes.caffeine.cache.Cache.class);
+                Gauge.builder("jpa.cache.size", caffeine, com.github.benmanes.caffeine.cache.Cache::estimatedSize)
+                        .tags("region", region)
+                        .description("Entries in the region").register(registry);
+            }
+        }
+    }
+
+    private Cache<?, ?> cacheOf(String region) {
+        if (!(sessionFactory.getCache().getRegionFactory() instanceof CaffeineRegionFactory)) {
+            return null;
+        }
+        CacheManager cacheManager = ((CaffeineRegionFactory) sessionFactory.getCache().getRegionFactory())
+                .getCacheManager();
+        return cacheManager.getCache(region);
+    }
+}
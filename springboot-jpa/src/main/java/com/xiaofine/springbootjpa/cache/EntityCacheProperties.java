@@ -0,0 +1,248 @@
+package com.xiaofine.springbootjpa.cache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Configuration
+@ConfigurationProperties("jpa.cache")
+public class EntityCacheProperties {
+
+    /**
+     * Hibernate's second-level cache of entities marked @Cache, held in local Caffeine caches
+     */
+    private boolean enabled = true;
+
+    /**
+     * Cache the results of queries marked cacheable. They are dropped whenever a table they read changes
+     */
+    private boolean queryCache = true;
+
+    /**
+     * Collect Hibernate statistics, published as the hibernate.* meters and by region as jpa.cache.requests,
+     * jpa.cache.puts and jpa.cache.size. Costs a few atomic increments per session
+     */
+    private boolean statistics = true;
+
+    /**
+     * Bounds of every region not listed under regions, query result regions included
+     */
+    private Region defaults = new Region();
+
+    /**
+     * Bounds by region name, the region given in @Cache or the entity class name
+     */
+    private Map<String, Region> regions = new LinkedHashMap<>();
+
+    private final Invalidation invalidation = new Invalidation();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isQueryCache() {
+        return queryCache;
+    }
+
+    public void setQueryCache(boolean queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public boolean isStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(boolean statistics) {
+        this.statistics = statistics;
+    }
+
+    public Region getDefaults() {
+        return defaults;
+    }
+
+    public void setDefaults(Region defaults) {
+        this.defaults = defaults;
+    }
+
+    public Map<String, Region> getRegions() {
+        return regions;
+    }
+
+    public void setRegions(Map<String, Region> regions) {
+        this.regions = regions;
+    }
+
+    public Invalidation getInvalidation() {
+        return invalidation;
+    }
+
+    /**
+     * The bounds of the region, its own or the defaults
+     */
+    public Region region(String name) {
+        Region region = regions.get(name);
+        return region != null ? region : defaults;
+    }
+
+    /**
+     * How long entries of the region are served, at most invalidation.max-stale while invalidation is on.
+     * 0 keeps them until they are evicted by size or invalidated
+     */
+    public Duration expireAfterWrite(String name) {
+        Duration expireAfterWrite = region(name).getExpireAfterWrite();
+        Duration maxStale = invalidation.getMaxStale();
+        if (!invalidation.isEnabled() || maxStale.isZero()) {
+            return expireAfterWrite;
+        }
+        return expireAfterWrite.isZero() || expireAfterWrite.compareTo(maxStale) > 0 ? maxStale : expireAfterWrite;
+    }
+
+    public static class Region {
+
+        /**
+         * Most entries kept, the least recently used go first
+         */
+        private long maxSize = 10000;
+
+        /**
+         * How long an entry is served after it was written, bounds staleness from writes that bypass
+         * Hibernate. 0 keeps entries until they are evicted by size or invalidated
+         */
+        private Duration expireAfterWrite = Duration.ofMinutes(10);
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public Duration getExpireAfterWrite() {
+            return expireAfterWrite;
+        }
+
+        public void setExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+        }
+    }
+
+    public static class Invalidation {
+
+        /**
+         * Tell the other instances which entities changed here, so they drop them from their caches.
+         * Needed as soon as more than one instance writes
+         */
+        private boolean enabled = false;
+
+        /**
+         * How invalidations travel, custom uses the InvalidationChannel bean the application defines
+         */
+        private Channel channel = Channel.MULTICAST;
+
+        /**
+         * Multicast group the instances share
+         */
+        private String group = "239.255.27.1";
+
+        private int port = 45588;
+
+        /**
+         * Router hops a multicast message may cross, 1 stays on the local network
+         */
+        private int timeToLive = 1;
+
+        /**
+         * Changes committed within this interval go out together, one message per entity
+         */
+        private Duration flushInterval = Duration.ofMillis(50);
+
+        /**
+         * Most ids in one message, beyond it the other instances drop the whole region
+         */
+        private int maxIds = 1000;
+
+        /**
+         * Longest any region keeps an entry while invalidation is on, however long its expire-after-write.
+         * Delivery is not guaranteed, multicast datagrams in particular can be dropped, and an instance
+         * that misses a message serves the stale entry until it expires. 0 leaves the regions as they are
+         */
+        private Duration maxStale = Duration.ofMinutes(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Channel getChannel() {
+            return channel;
+        }
+
+        public void setChannel(Channel channel) {
+            this.channel = channel;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public void setGroup(String group) {
+            this.group = group;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public int getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(int timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public int getMaxIds() {
+            return maxIds;
+        }
+
+        public void setMaxIds(int maxIds) {
+            this.maxIds = maxIds;
+        }
+
+        public Duration getMaxStale() {
+            return maxStale;
+        }
+
+        public void setMaxStale(Duration maxStale) {
+            this.maxStale = maxStale;
+        }
+    }
+
+    public enum Channel {
+        MULTICAST,
+        CUSTOM
+    }
+}
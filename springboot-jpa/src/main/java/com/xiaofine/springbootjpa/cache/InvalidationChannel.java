@@ -0,0 +1,23 @@
+package com.xiaofine.springbootjpa.cache;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Carries cache invalidations between the instances of the application. {@link MulticastInvalidationChannel}
+ * is the default, with jpa.cache.invalidation.channel set to custom the application defines a bean of its
+ * own instead, e.g. on Redis pub/sub or a message broker.
+ * Delivery may be lost, the region expiry bounds how long an instance serves an entity it missed.
+ */
+public interface InvalidationChannel {
+
+    /**
+     * Sends to every other instance, never back to this one
+     */
+    void publish(CacheInvalidation invalidation) throws IOException;
+
+    /**
+     * Where invalidations from the other instances go, called on the channel's own thread
+     */
+    void subscribe(Consumer<CacheInvalidation> receiver);
+}
@@ -0,0 +1,115 @@
+package com.xiaofine.springbootjpa.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Invalidations as UDP datagrams to a multicast group every instance joins, no broker needed. A message is
+ * the sending instance, the entity name and one id per line, or * for all of them. Messages that would not
+ * fit a datagram are sent as *. Each instance skips its own messages, the group loops them back so that
+ * instances on one host hear each other.
+ * <p>
+ * UDP does not guarantee delivery and nothing is retried, so a datagram lost on the way leaves the
+ * instances that missed it serving the old entity. Only a failure to send is noticed here. Staleness is
+ * bounded by jpa.cache.invalidation.max-stale, which caps every region's expiry while invalidation is on.
+ */
+public class MulticastInvalidationChannel implements InvalidationChannel, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MulticastInvalidationChannel.class);
+
+    private static final int MAX_DATAGRAM = 65507;
+
+    private static final String ALL = "*";
+
+    private final String node = UUID.randomUUID().toString();
+
+    private final InetAddress group;
+
+    private final int port;
+
+    private final MulticastSocket socket;
+
+    private volatile Consumer<CacheInvalidation> receiver;
+
+    public MulticastInvalidationChannel(String group, int port, int timeToLive) throws IOException {
+        this.group = InetAddress.getByName(group);
+        this.port = port;
+        this.socket = new MulticastSocket(port);
+        this.socket.setTimeToLive(timeToLive);
+        this.socket.joinGroup(this.group);
+        Thread thread = new Thread(this::receive, "cache-invalidation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void publish(CacheInvalidation invalidation) throws IOException {
+        byte[] message = encode(invalidation);
+        if (message.length > MAX_DATAGRAM) {
+            message = encode(CacheInvalidation.all(invalidation.getEntityName()));
+        }
+        socket.send(new DatagramPacket(message, message.length, group, port));
+    }
+
+    @Override
+    public void subscribe(Consumer<CacheInvalidation> receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MAX_DATAGRAM];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                List<String> lines = Arrays.asList(
+                        new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).split("\n"));
+                Consumer<CacheInvalidation> receiver = this.receiver;
+                if (lines.size() < 2 || lines.get(0).equals(node) || receiver == null) {
+                    continue;
+                }
+                receiver.accept(lines.size() == 3 && lines.get(2).equals(ALL)
+                        ? CacheInvalidation.all(lines.get(1))
+                        : CacheInvalidation.of(lines.get(1), new ArrayList<>(lines.subList(2, lines.size()))));
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.warn("Receiving cache invalidations on {}:{} failed", group.getHostAddress(), port, e);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Applying a cache invalidation failed", e);
+            }
+        }
+    }
+
+    private byte[] encode(CacheInvalidation invalidation) {
+        StringBuilder message = new StringBuilder(node).append('\n').append(invalidation.getEntityName());
+        if (invalidation.isAll()) {
+            message.append('\n').append(ALL);
+        } else {
+            for (String id : invalidation.getIds()) {
+                if (id.indexOf('\n') >= 0 || id.equals(ALL)) {
+                    return encode(CacheInvalidation.all(invalidation.getEntityName()));
+                }
+                message.append('\n').append(id);
+            }
+        }
+        return message.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -25,6 +25,15 @@ public class UserController {
         return user1.toString();
     }
 
+    /**
+     * Bulk insert or update of a JSON array of users in JDBC batches, answers with the users and their ids
+     */
+    @RequestMapping(value = "batch",method = RequestMethod.POST)
+    public List<User> addUsers(@RequestBody List<User> users){
+        userDao.saveAllInBatches(users);
+        return users;
+    }
+
     @RequestMapping(value="/{id}",method = RequestMethod.PUT)
     public String updateUser(@PathVariable("id") int id ,
                              @RequestParam(value = "name",required = true)String name,
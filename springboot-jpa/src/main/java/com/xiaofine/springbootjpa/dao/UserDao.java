@@ -2,7 +2,18 @@ package com.xiaofine.springbootjpa.dao;
 
 import com.xiaofine.springbootjpa.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 
-public interface UserDao extends JpaRepository<User,Integer> {
+import javax.persistence.QueryHint;
+import java.util.List;
 
+public interface UserDao extends JpaRepository<User,Integer>, UserDaoCustom {
+
+    /**
+     * The ids are kept in the query cache until the user table changes, the users themselves come from the
+     * "user" region. Users evicted from it are loaded one by one, keep the region larger than the table
+     */
+    @Override
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.CACHEABLE, value = "true"))
+    List<User> findAll();
 }
@@ -0,0 +1,16 @@
+package com.xiaofine.springbootjpa.dao;
+
+import com.xiaofine.springbootjpa.entity.User;
+
+import java.util.List;
+
+public interface UserDaoCustom {
+
+    /**
+     * Inserts new users and updates existing ones in JDBC batches, in one transaction. The persistence
+     * context is flushed and cleared after every batch, so memory stays the same however many users there
+     * are, and the users passed in are detached afterwards with their ids set. The users are not put in the
+     * second-level cache, for the rest of the transaction neither is anything else
+     */
+    int saveAllInBatches(List<User> users);
+}
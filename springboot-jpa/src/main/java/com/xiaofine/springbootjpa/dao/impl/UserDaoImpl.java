@@ -0,0 +1,49 @@
+package com.xiaofine.springbootjpa.dao.impl;
+
+import com.xiaofine.springbootjpa.dao.UserDaoCustom;
+import com.xiaofine.springbootjpa.entity.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.CacheStoreMode;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+
+/**
+ * The custom part of {@link com.xiaofine.springbootjpa.dao.UserDao}, Spring Data finds it by its name
+ */
+public class UserDaoImpl implements UserDaoCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Flushing every JDBC batch sends full batches and keeps at most one batch of users managed
+     */
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int batchSize;
+
+    @Override
+    @Transactional
+    public int saveAllInBatches(List<User> users) {
+        // a bulk load would push the users that are actually read out of the second-level cache, updated
+        // users are still dropped from it
+        entityManager.setProperty("javax.persistence.cache.storeMode", CacheStoreMode.BYPASS);
+        int saved = 0;
+        for (User user : users) {
+            if (user.getId() == 0) {
+                entityManager.persist(user);
+            } else {
+                entityManager.merge(user);
+            }
+            if (++saved % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return saved;
+    }
+}
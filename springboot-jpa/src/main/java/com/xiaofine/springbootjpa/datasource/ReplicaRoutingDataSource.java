@@ -0,0 +1,287 @@
+package com.xiaofine.springbootjpa.datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends read-only transactions to a replica and everything else to the primary: writes, reads outside a
+ * transaction, read-write transactions and threads pinned with {@link #pinToPrimary()}. A replica that
+ * fails to hand out a connection is skipped for the down time and the read goes to the primary instead.
+ * <p>
+ * The transaction manager gets its connection before it marks the transaction read-only, so this has to
+ * sit behind a LazyConnectionDataSourceProxy that fetches the connection at the first statement, see
+ * {@link #lazy()}.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    public static final String PRIMARY = "primary";
+
+    /**
+     * Weight of the newest ping in the latency average
+     */
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private static final ThreadLocal<Boolean> pinned = new ThreadLocal<>();
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas;
+
+    private final RoutingDataSourceProperties.Strategy strategy;
+
+    private final long downTimeNanos;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ScheduledExecutorService prober;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas,
+                                    RoutingDataSourceProperties.Strategy strategy, Duration probeInterval, Duration downTime) {
+        this.primary = primary;
+        this.strategy = strategy;
+        this.downTimeNanos = downTime.toNanos();
+        List<Replica> list = new ArrayList<>();
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = new Replica("replica-" + i, replicas.get(i));
+            list.add(replica);
+            targets.put(replica.key, replica.dataSource);
+        }
+        this.replicas = Collections.unmodifiableList(list);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+        afterPropertiesSet();
+        if (!list.isEmpty() && !probeInterval.isZero()) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("replica-probe-");
+            threadFactory.setDaemon(true);
+            long interval = probeInterval.toMillis();
+            this.prober = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.prober.scheduleWithFixedDelay(this::probe, 0, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.prober = null;
+        }
+    }
+
+    /**
+     * Sends everything the current thread does to the primary until {@link #unpin()}
+     */
+    public static void pinToPrimary() {
+        pinned.set(Boolean.TRUE);
+    }
+
+    public static void unpin() {
+        pinned.remove();
+    }
+
+    /**
+     * This behind a LazyConnectionDataSourceProxy, closing the proxy closes the pools
+     */
+    public Lazy lazy() {
+        return new Lazy(this);
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Replica replica = replicaForCurrentTransaction();
+        return replica != null ? replica.key : PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Replica replica = replicaForCurrentTransaction();
+        if (replica == null) {
+            return primary.getConnection();
+        }
+        try {
+            return replica.dataSource.getConnection();
+        } catch (SQLException e) {
+            markDown(replica, e);
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Replica replica = replicaForCurrentTransaction();
+        if (replica == null) {
+            return primary.getConnection(username, password);
+        }
+        try {
+            return replica.dataSource.getConnection(username, password);
+        } catch (SQLException e) {
+            markDown(replica, e);
+            return primary.getConnection(username, password);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+        close(primary);
+        for (Replica replica : replicas) {
+            close(replica.dataSource);
+        }
+    }
+
+    private Replica replicaForCurrentTransaction() {
+        if (pinned.get() != null
+                || !TransactionSynchronizationManager.isActualTransactionActive()
+                || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return null;
+        }
+        return select();
+    }
+
+    private Replica select() {
+        long now = System.nanoTime();
+        if (strategy == RoutingDataSourceProperties.Strategy.LEAST_LATENCY) {
+            Replica best = null;
+            for (Replica replica : replicas) {
+                if (replica.isUp(now) && (best == null || replica.latencyNanos < best.latencyNanos)) {
+                    best = replica;
+                }
+            }
+            return best;
+        }
+        int size = replicas.size();
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.isUp(now)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private void probe() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                long started = System.nanoTime();
+                if (!connection.isValid(5)) {
+                    throw new SQLException("Connection is not valid");
+                }
+                replica.recordLatency(System.nanoTime() - started);
+                replica.downUntil = 0;
+            } catch (SQLException | RuntimeException e) {
+                markDown(replica, e);
+            }
+        }
+    }
+
+    private void markDown(Replica replica, Exception e) {
+        if (replica.isUp(System.nanoTime())) {
+            log.warn("Replica {} is skipped for {} ms: {}", replica.key, downTimeNanos / 1_000_000, e.getMessage());
+        }
+        // 0 is reserved for up, so a down time that ends exactly at 0 is nudged past it
+        long until = System.nanoTime() + downTimeNanos;
+        replica.downUntil = until == 0 ? 1 : until;
+    }
+
+    private static void close(DataSource dataSource) throws IOException {
+        if (dataSource instanceof Closeable) {
+            ((Closeable) dataSource).close();
+        }
+    }
+
+    public static final class Lazy extends LazyConnectionDataSourceProxy implements Closeable {
+
+        private final ReplicaRoutingDataSource routing;
+
+        Lazy(ReplicaRoutingDataSource routing) {
+            super(routing);
+            this.routing = routing;
+        }
+
+        public ReplicaRoutingDataSource getRouting() {
+            return routing;
+        }
+
+        @Override
+        public void close() throws IOException {
+            routing.close();
+        }
+    }
+
+    public static final class Replica {
+
+        private final String key;
+
+        private final DataSource dataSource;
+
+        /**
+         * Average ping time, replicas not pinged yet start at 0 so they get tried
+         */
+        private volatile double latencyNanos;
+
+        /**
+         * System.nanoTime() the replica is skipped until, 0 while it is up
+         */
+        private volatile long downUntil;
+
+        Replica(String key, DataSource dataSource) {
+            this.key = key;
+            this.dataSource = dataSource;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+
+        public double getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        public boolean isUp() {
+            return isUp(System.nanoTime());
+        }
+
+        void recordLatency(long nanos) {
+            double previous = latencyNanos;
+            latencyNanos = previous == 0 ? nanos : previous + LATENCY_WEIGHT * (nanos - previous);
+        }
+
+        private boolean isUp(long now) {
+            long until = downUntil;
+            return until == 0 || now - until >= 0;
+        }
+    }
+}
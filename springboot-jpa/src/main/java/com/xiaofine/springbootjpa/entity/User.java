@@ -1,15 +1,33 @@
 package com.xiaofine.springbootjpa.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 
+// findById is served from the second-level cache region "user", bounded under jpa.cache.regions.user.
+// READ_WRITE locks an entry while its row changes, so a transaction never reads a user a concurrent one
+// is updating
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user")
 public class User {
 
     //@Id表明id， @GeneratedValue 字段自动生成
+    // Ids come from hibernate_sequence 50 at a time, a table on MySQL. IDENTITY would turn JDBC batching
+    // off, and pooled-lo keeps using the values the table already holds
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = "user_id")
+    @GenericGenerator(name = "user_id", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = "hibernate_sequence"),
+            @Parameter(name = "increment_size", value = "50"),
+            @Parameter(name = "optimizer", value = "pooled-lo")
+    })
     private int id;
 
     private String name ;
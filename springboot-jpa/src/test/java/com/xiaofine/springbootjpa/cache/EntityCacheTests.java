@@ -0,0 +1,210 @@
+package com.xiaofine.springbootjpa.cache;
+
+import com.xiaofine.springbootjpa.dao.UserDao;
+import com.xiaofine.springbootjpa.entity.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = {"jpa.cache.regions.user.max-size=100", "jpa.cache.invalidation.enabled=true",
+        "jpa.cache.invalidation.channel=custom", "jpa.cache.invalidation.flush-interval=1h",
+        "jpa.cache.invalidation.max-ids=2", "jpa.cache.regions.user.expire-after-write=30m"})
+@Import({EntityCacheTests.Channel.class, EntityCacheProperties.class, EntityCacheConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EntityCacheTests {
+
+    @Autowired
+    UserDao userDao;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    EntityCacheInvalidator invalidator;
+
+    @Autowired
+    RecordingChannel channel;
+
+    @Autowired
+    EntityCacheMetrics metrics;
+
+    @Autowired
+    EntityCacheProperties properties;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @AfterEach
+    void tearDown() {
+        userDao.deleteAllInBatch();
+        entityManagerFactory.getCache().evictAll();
+        invalidator.flush();
+        channel.published.clear();
+    }
+
+    @Test
+    void findByIdIsServedFromTheCache() {
+        User user = userDao.save(user("ann"));
+        statistics.clear();
+
+        assertThat(userDao.findById(user.getId()).get().getName()).isEqualTo("ann");
+        assertThat(userDao.findById(user.getId()).get().getName()).isEqualTo("ann");
+
+        assertThat(statistics.getCacheRegionStatistics("user").getHitCount()).isEqualTo(2);
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+    }
+
+    @Test
+    void findAllIsServedFromTheQueryCacheUntilTheTableChanges() {
+        userDao.save(user("ann"));
+        userDao.save(user("bob"));
+        statistics.clear();
+
+        assertThat(userDao.findAll()).hasSize(2);
+        assertThat(userDao.findAll()).hasSize(2);
+        assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+        userDao.save(user("cid"));
+
+        assertThat(userDao.findAll()).hasSize(3);
+        assertThat(statistics.getQueryCacheMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    void committedChangesArePublishedOnceByEntity() {
+        User ann = userDao.save(user("ann"));
+        User bob = userDao.save(user("bob"));
+        ann.setEmail("ann@example.org");
+        userDao.save(ann);
+        userDao.delete(bob);
+
+        invalidator.flush();
+
+        assertThat(channel.published).hasSize(1);
+        CacheInvalidation invalidation = channel.published.get(0);
+        assertThat(invalidation.getEntityName()).isEqualTo(User.class.getName());
+        assertThat(invalidation.isAll()).isFalse();
+        assertThat(invalidation.getIds()).containsExactly(String.valueOf(ann.getId()), String.valueOf(bob.getId()));
+    }
+
+    @Test
+    void changesBeyondMaxIdsArePublishedAsTheWholeRegion() {
+        List<User> users = userDao.saveAll(Arrays.asList(user("ann"), user("bob"), user("cid")));
+        users.forEach(user -> user.setEmail("new-" + user.getEmail()));
+        userDao.saveAll(users);
+
+        invalidator.flush();
+
+        assertThat(channel.published).hasSize(1);
+        assertThat(channel.published.get(0).isAll()).isTrue();
+    }
+
+    @Test
+    void invalidationFromAnotherInstanceEvictsTheUserAndItsQueries() {
+        User ann = userDao.save(user("ann"));
+        userDao.findAll();
+        assertThat(entityManagerFactory.getCache().contains(User.class, ann.getId())).isTrue();
+        statistics.clear();
+
+        channel.receive(CacheInvalidation.of(User.class.getName(), Arrays.asList(String.valueOf(ann.getId()))));
+
+        assertThat(entityManagerFactory.getCache().contains(User.class, ann.getId())).isFalse();
+        assertThat(userDao.findAll()).hasSize(1);
+        assertThat(statistics.getQueryCacheHitCount()).isZero();
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(1);
+    }
+
+    @Test
+    void regionMetersAreTaggedWithTheRegion() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        metrics.bindTo(registry);
+        User ann = userDao.save(user("ann"));
+        statistics.clear();
+
+        userDao.findById(ann.getId());
+        userDao.findById(ann.getId() + 1);
+
+        assertThat(registry.get("jpa.cache.requests").tags("region", "user", "result", "hit")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("jpa.cache.requests").tags("region", "user", "result", "miss")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("jpa.cache.size").tag("region", "user").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void invalidationCapsHowLongRegionsKeepEntries() {
+        assertThat(properties.expireAfterWrite("user")).isEqualTo(Duration.ofMinutes(1));
+
+        properties.getInvalidation().setEnabled(false);
+        try {
+            assertThat(properties.expireAfterWrite("user")).isEqualTo(Duration.ofMinutes(30));
+        } finally {
+            properties.getInvalidation().setEnabled(true);
+        }
+    }
+
+    static User user(String name) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(name + "@example.com");
+        return user;
+    }
+
+    @TestConfiguration
+    static class Channel {
+
+        @Bean
+        RecordingChannel invalidationChannel() {
+            return new RecordingChannel();
+        }
+    }
+
+    /**
+     * Keeps what is published, and hands invalidations to the receiver as if another instance sent them
+     */
+    static class RecordingChannel implements InvalidationChannel {
+
+        final List<CacheInvalidation> published = new ArrayList<>();
+
+        private Consumer<CacheInvalidation> receiver;
+
+        @Override
+        public void publish(CacheInvalidation invalidation) {
+            published.add(invalidation);
+        }
+
+        @Override
+        public void subscribe(Consumer<CacheInvalidation> receiver) {
+            this.receiver = receiver;
+        }
+
+        void receive(CacheInvalidation invalidation) {
+            receiver.accept(invalidation);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.xiaofine.springbootjpa.dao;
+
+import com.xiaofine.springbootjpa.entity.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * 100k inserts as UserController.addUser does them, saveAndFlush in a transaction per user, against the
+ * batch path. Run with {@code mvn test -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@DataJpaTest(showSql = false, properties = {"spring.jpa.properties.hibernate.jdbc.batch_size=50",
+        "spring.jpa.properties.hibernate.order_inserts=true"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class UserBulkInsertBenchmarkTests {
+
+    private static final int USERS = 100_000;
+
+    @Autowired
+    UserDao userDao;
+
+    @Test
+    void saveAndFlushAgainstBatches() {
+        for (int round = 0; round < 2; round++) {
+            List<User> users = UserDaoTests.users(USERS);
+            long started = System.nanoTime();
+            users.forEach(userDao::saveAndFlush);
+            report("saveAndFlush", started);
+
+            users = UserDaoTests.users(USERS);
+            started = System.nanoTime();
+            userDao.saveAllInBatches(users);
+            report("batches", started);
+            userDao.deleteAllInBatch();
+        }
+    }
+
+    private static void report(String path, long started) {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("%-12s %d inserts in %.2fs, %.0f/s%n", path, USERS, seconds, USERS / seconds);
+    }
+}
@@ -0,0 +1,70 @@
+package com.xiaofine.springbootjpa.dao;
+
+import com.xiaofine.springbootjpa.entity.User;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = {"spring.jpa.properties.hibernate.jdbc.batch_size=50",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
+class UserDaoTests {
+
+    @Autowired
+    UserDao userDao;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void saveAllInBatchesSendsBatchesAndClearsTheContext() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        List<User> users = users(120);
+
+        assertThat(userDao.saveAllInBatches(users)).isEqualTo(120);
+
+        List<Integer> ids = users.stream().map(User::getId).collect(Collectors.toList());
+        assertThat(ids).doesNotContain(0).doesNotHaveDuplicates();
+        assertThat(entityManager.contains(users.get(119))).isFalse();
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(120);
+        // three insert batches and three trips to the sequence, one per 50 ids
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(6);
+        assertThat(userDao.count()).isEqualTo(120);
+    }
+
+    @Test
+    void saveAllInBatchesUpdatesExistingUsers() {
+        List<User> users = users(3);
+        userDao.saveAllInBatches(users);
+        users.forEach(user -> user.setEmail("new-" + user.getEmail()));
+
+        userDao.saveAllInBatches(users);
+
+        assertThat(userDao.findById(users.get(2).getId()).get().getEmail()).isEqualTo("new-user2@example.com");
+        assertThat(userDao.count()).isEqualTo(3);
+    }
+
+    static List<User> users(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setName("user" + i);
+            user.setEmail("user" + i + "@example.com");
+            users.add(user);
+        }
+        return users;
+    }
+}
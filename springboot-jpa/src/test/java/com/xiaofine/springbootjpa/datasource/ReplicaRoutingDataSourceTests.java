@@ -0,0 +1,117 @@
+package com.xiaofine.springbootjpa.datasource;
+
+import com.xiaofine.springbootjpa.dao.UserDao;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Routing through the stack the application runs: Spring Data repositories whose reads are
+ * {@code @Transactional(readOnly = true)}, a JpaTransactionManager with the HibernateJpaDialect, and
+ * Hibernate fetching its connection from the lazy proxy. Each database holds one user named after it, the
+ * second-level cache is off so every read reaches a connection.
+ */
+@DataJpaTest(properties = {"spring.jpa.hibernate.ddl-auto=none", "jpa.cache.enabled=false",
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ReplicaRoutingDataSourceTests {
+
+    @Autowired
+    UserDao userDao;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    void theStackIsJpaWithTheHibernateDialect() {
+        assertThat(transactionManager).isInstanceOf(JpaTransactionManager.class);
+        assertThat(((JpaTransactionManager) transactionManager).getJpaDialect()).isInstanceOf(HibernateJpaDialect.class);
+    }
+
+    @Test
+    void readOnlyRepositoryCallsGoRoundRobinOverTheReplicas() {
+        String first = name();
+        String second = name();
+
+        assertThat(first).isIn("replica0", "replica1");
+        assertThat(second).isIn("replica0", "replica1").isNotEqualTo(first);
+        assertThat(name()).isEqualTo(first);
+    }
+
+    @Test
+    void readOnlyTransactionKeepsOneReplica() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+
+        String names = transaction.execute(status -> name() + "," + name());
+
+        assertThat(names).isIn("replica0,replica0", "replica1,replica1");
+    }
+
+    @Test
+    void repositoryCallsInAReadWriteTransactionGoToThePrimary() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        String name = transaction.execute(status -> name());
+
+        assertThat(name).isEqualTo("primary");
+    }
+
+    @Test
+    void pinnedThreadsReadFromThePrimary() {
+        ReplicaRoutingDataSource.pinToPrimary();
+        try {
+            assertThat(name()).isEqualTo("primary");
+        } finally {
+            ReplicaRoutingDataSource.unpin();
+        }
+    }
+
+    private String name() {
+        return userDao.findById(1).get().getName();
+    }
+
+    @TestConfiguration
+    static class Databases {
+
+        @Bean(destroyMethod = "close")
+        ReplicaRoutingDataSource.Lazy dataSource() {
+            return new ReplicaRoutingDataSource(database("primary"), Arrays.asList(database("replica0"),
+                    database("replica1")), RoutingDataSourceProperties.Strategy.ROUND_ROBIN,
+                    Duration.ZERO, Duration.ofMinutes(1)).lazy();
+        }
+
+        /**
+         * A separate H2 database with a single user naming it
+         */
+        private static EmbeddedDatabase database(String name) {
+            EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                    .setType(EmbeddedDatabaseType.H2)
+                    .setName("routing-" + name + "-" + System.nanoTime())
+                    .build();
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+            jdbcTemplate.execute("CREATE TABLE user (id INT PRIMARY KEY, name VARCHAR(255), email VARCHAR(255))");
+            jdbcTemplate.update("INSERT INTO user VALUES (1, ?, ?)", name, name + "@example.com");
+            return database;
+        }
+    }
+}
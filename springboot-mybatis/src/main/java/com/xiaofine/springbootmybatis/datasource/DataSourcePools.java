@@ -0,0 +1,52 @@
+package com.xiaofine.springbootmybatis.datasource;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+/**
+ * Pool settings and meters for pools that are not beans of their own, like the ones behind the routing
+ * data source. They get the same spring.datasource.druid or spring.datasource.hikari settings Boot binds
+ * to the DataSource bean.
+ */
+public final class DataSourcePools {
+
+    public static final String DRUID_PREFIX = "spring.datasource.druid";
+
+    public static final String HIKARI_PREFIX = "spring.datasource.hikari";
+
+    private DataSourcePools() {
+    }
+
+    /**
+     * Binds the pool settings and names the pool, the name is the pool tag of its meters
+     */
+    public static <T extends DataSource> T configure(T dataSource, String name, Environment environment) {
+        Binder binder = Binder.get(environment);
+        if (dataSource instanceof DruidDataSource) {
+            DruidDataSource druid = (DruidDataSource) dataSource;
+            binder.bind(DRUID_PREFIX, Bindable.ofInstance(druid));
+            druid.setName(name);
+            DruidPoolMetrics.attach(druid);
+        } else if (dataSource instanceof HikariDataSource) {
+            HikariDataSource hikari = (HikariDataSource) dataSource;
+            binder.bind(HIKARI_PREFIX, Bindable.ofInstance(hikari));
+            hikari.setPoolName(name);
+        }
+        return dataSource;
+    }
+
+    public static void bindMetrics(DataSource dataSource, MeterRegistry registry) {
+        if (dataSource instanceof DruidDataSource) {
+            DruidPoolMetrics.attach((DruidDataSource) dataSource).bindTo(registry);
+        } else if (dataSource instanceof HikariDataSource) {
+            ((HikariDataSource) dataSource).setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.xiaofine.springbootmybatis.datasource;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Boot only binds pool settings for the pools it knows, this binds spring.datasource.druid to the Druid
+ * pool and adds its meters. With spring.datasource.type set to HikariCP, Boot's own configuration takes
+ * over and binds spring.datasource.hikari.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.datasource.type", havingValue = "com.alibaba.druid.pool.DruidDataSource")
+public class DruidDataSourceConfig {
+
+    @Bean
+    @ConditionalOnProperty(prefix = "datasource.routing", name = "enabled", havingValue = "false", matchIfMissing = true)
+    @ConfigurationProperties(DataSourcePools.DRUID_PREFIX)
+    public DruidDataSource dataSource(DataSourceProperties properties) {
+        DruidDataSource dataSource = properties.initializeDataSourceBuilder().type(DruidDataSource.class).build();
+        dataSource.setName("primary");
+        DruidPoolMetrics.attach(dataSource);
+        return dataSource;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "datasource.routing", name = "enabled", havingValue = "false", matchIfMissing = true)
+    public DruidPoolMetrics druidPoolMetrics(DruidDataSource dataSource) {
+        return DruidPoolMetrics.attach(dataSource);
+    }
+}
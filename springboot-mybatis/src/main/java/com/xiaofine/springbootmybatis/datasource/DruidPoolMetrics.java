@@ -0,0 +1,299 @@
+package com.xiaofine.springbootmybatis.datasource;
+
+import com.alibaba.druid.filter.Filter;
+import com.alibaba.druid.filter.FilterChain;
+import com.alibaba.druid.filter.FilterEventAdapter;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+import com.alibaba.druid.pool.GetConnectionTimeoutException;
+import com.alibaba.druid.proxy.jdbc.ConnectionProxy;
+import com.alibaba.druid.proxy.jdbc.PreparedStatementProxy;
+import com.alibaba.druid.proxy.jdbc.ResultSetProxy;
+import com.alibaba.druid.proxy.jdbc.StatementProxy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Druid pool meters named like the ones Boot registers for HikariCP, so both pools can be compared on
+ * one dashboard: druid.connections.acquire is the wait for a connection, usage how long it was held.
+ * The gauges read the pool, leaked counts connections Druid took back with remove-abandoned, and
+ * druid.statements times each statement by kind.
+ * <p>
+ * druid.statements.prepare times the prepares that reach the driver, with server-side prepare on MySQL a
+ * round trip in which the server parses the statement. With pool-prepared-statements the cache meters
+ * show how many prepares the per-connection statement cache answered instead, and saved estimates the
+ * prepare time this saved as hits times the mean prepare time.
+ * <p>
+ * It is a Druid filter, so it has to be attached with {@link #attach} before the pool opens its first
+ * connection to see the statements. Nothing is recorded until it is bound to a registry.
+ */
+public class DruidPoolMetrics extends FilterEventAdapter implements MeterBinder {
+
+    private final DruidDataSource dataSource;
+
+    private volatile Timer acquire;
+
+    private volatile Timer usage;
+
+    private volatile Counter timeouts;
+
+    private volatile Timer query;
+
+    private volatile Timer update;
+
+    private volatile Timer execute;
+
+    private volatile Timer batch;
+
+    private volatile Timer failed;
+
+    private volatile Timer prepare;
+
+    private DruidPoolMetrics(DruidDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * The metrics filter of the pool, added to it the first time
+     */
+    public static synchronized DruidPoolMetrics attach(DruidDataSource dataSource) {
+        for (Filter filter : dataSource.getProxyFilters()) {
+            if (filter instanceof DruidPoolMetrics) {
+                return (DruidPoolMetrics) filter;
+            }
+        }
+        DruidPoolMetrics metrics = new DruidPoolMetrics(dataSource);
+        dataSource.getProxyFilters().add(metrics);
+        return metrics;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Tags tags = Tags.of("pool", poolName());
+        Gauge.builder("druid.connections.active", dataSource, DruidDataSource::getActiveCount)
+                .tags(tags).description("Connections handed out").register(registry);
+        Gauge.builder("druid.connections.idle", dataSource, DruidDataSource::getPoolingCount)
+                .tags(tags).description("Connections waiting in the pool").register(registry);
+        Gauge.builder("druid.connections.pending", dataSource, DruidDataSource::getWaitThreadCount)
+                .tags(tags).description("Threads waiting for a connection").register(registry);
+        Gauge.builder("druid.connections.max", dataSource, DruidDataSource::getMaxActive)
+                .tags(tags).register(registry);
+        Gauge.builder("druid.connections.min", dataSource, DruidDataSource::getMinIdle)
+                .tags(tags).register(registry);
+        FunctionCounter.builder("druid.connections.leaked", dataSource, DruidDataSource::getRemoveAbandonedCount)
+                .tags(tags).description("Connections held past remove-abandoned-timeout and taken back")
+                .register(registry);
+        this.timeouts = Counter.builder("druid.connections.timeout").tags(tags)
+                .description("Requests that gave up waiting for a connection").register(registry);
+        this.usage = Timer.builder("druid.connections.usage").tags(tags)
+                .description("How long connections were held").register(registry);
+        this.query = statementTimer(registry, tags, "query");
+        this.update = statementTimer(registry, tags, "update");
+        this.execute = statementTimer(registry, tags, "execute");
+        this.batch = statementTimer(registry, tags, "batch");
+        this.failed = statementTimer(registry, tags, "error");
+        Timer prepare = Timer.builder("druid.statements.prepare").tags(tags)
+                .description("Prepares sent to the driver, the statement cache misses").register(registry);
+        this.prepare = prepare;
+        FunctionCounter.builder("druid.statements.cache.hits", dataSource, DruidDataSource::getCachedPreparedStatementHitCount)
+                .tags(tags).description("Prepares answered from the statement cache").register(registry);
+        FunctionCounter.builder("druid.statements.cache.misses", dataSource, DruidDataSource::getCachedPreparedStatementMissCount)
+                .tags(tags).register(registry);
+        FunctionCounter.builder("druid.statements.cache.evictions", dataSource, DruidDataSource::getCachedPreparedStatementDeleteCount)
+                .tags(tags).register(registry);
+        Gauge.builder("druid.statements.cache.size", dataSource, DruidDataSource::getCachedPreparedStatementCount)
+                .tags(tags).description("Statements cached over all connections").register(registry);
+        Gauge.builder("druid.statements.cache.hit.ratio", dataSource, DruidPoolMetrics::hitRatio)
+                .tags(tags).register(registry);
+        Gauge.builder("druid.statements.cache.saved", dataSource,
+                pool -> pool.getCachedPreparedStatementHitCount() * prepare.mean(TimeUnit.SECONDS))
+                .tags(tags).baseUnit("seconds").description("Estimated prepare time saved by cache hits")
+                .register(registry);
+        // set last, the connection hooks take a bound acquire timer to mean every meter is there
+        this.acquire = Timer.builder("druid.connections.acquire").tags(tags)
+                .description("Wait for a connection from the pool").register(registry);
+    }
+
+    @Override
+    public DruidPooledConnection dataSource_getConnection(FilterChain chain, DruidDataSource dataSource,
+                                                          long maxWaitMillis) throws SQLException {
+        Timer acquire = this.acquire;
+        if (acquire == null) {
+            return super.dataSource_getConnection(chain, dataSource, maxWaitMillis);
+        }
+        long started = System.nanoTime();
+        DruidPooledConnection connection;
+        try {
+            connection = super.dataSource_getConnection(chain, dataSource, maxWaitMillis);
+        } catch (GetConnectionTimeoutException e) {
+            timeouts.increment();
+            throw e;
+        }
+        long acquired = System.nanoTime();
+        acquire.record(acquired - started, TimeUnit.NANOSECONDS);
+        connection.setConnectedTimeNano(acquired);
+        return connection;
+    }
+
+    @Override
+    public void dataSource_releaseConnection(FilterChain chain, DruidPooledConnection connection) throws SQLException {
+        Timer usage = this.usage;
+        long connected = connection.getConnectedTimeNano();
+        if (usage != null && connected != 0) {
+            usage.record(System.nanoTime() - connected, TimeUnit.NANOSECONDS);
+        }
+        super.dataSource_releaseConnection(chain, connection);
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection,
+                                                              String sql) throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return super.connection_prepareStatement(chain, connection, sql);
+        } finally {
+            recordPrepare(started);
+        }
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection,
+                                                              String sql, int autoGeneratedKeys) throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return super.connection_prepareStatement(chain, connection, sql, autoGeneratedKeys);
+        } finally {
+            recordPrepare(started);
+        }
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection,
+                                                              String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return super.connection_prepareStatement(chain, connection, sql, resultSetType, resultSetConcurrency);
+        } finally {
+            recordPrepare(started);
+        }
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection,
+                                                              String sql, int resultSetType, int resultSetConcurrency,
+                                                              int resultSetHoldability) throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return super.connection_prepareStatement(chain, connection, sql, resultSetType, resultSetConcurrency,
+                    resultSetHoldability);
+        } finally {
+            recordPrepare(started);
+        }
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection,
+                                                              String sql, int[] columnIndexes) throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return super.connection_prepareStatement(chain, connection, sql, columnIndexes);
+        } finally {
+            recordPrepare(started);
+        }
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection,
+                                                              String sql, String[] columnNames) throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return super.connection_prepareStatement(chain, connection, sql, columnNames);
+        } finally {
+            recordPrepare(started);
+        }
+    }
+
+    @Override
+    protected void statementExecuteQueryBefore(StatementProxy statement, String sql) {
+        statement.setLastExecuteStartNano();
+    }
+
+    @Override
+    protected void statementExecuteQueryAfter(StatementProxy statement, String sql, ResultSetProxy resultSet) {
+        record(query, statement);
+    }
+
+    @Override
+    protected void statementExecuteUpdateBefore(StatementProxy statement, String sql) {
+        statement.setLastExecuteStartNano();
+    }
+
+    @Override
+    protected void statementExecuteUpdateAfter(StatementProxy statement, String sql, int updateCount) {
+        record(update, statement);
+    }
+
+    @Override
+    protected void statementExecuteBefore(StatementProxy statement, String sql) {
+        statement.setLastExecuteStartNano();
+    }
+
+    @Override
+    protected void statementExecuteAfter(StatementProxy statement, String sql, boolean result) {
+        record(execute, statement);
+    }
+
+    @Override
+    protected void statementExecuteBatchBefore(StatementProxy statement) {
+        statement.setLastExecuteStartNano();
+    }
+
+    @Override
+    protected void statementExecuteBatchAfter(StatementProxy statement, int[] result) {
+        record(batch, statement);
+    }
+
+    @Override
+    protected void statement_executeErrorAfter(StatementProxy statement, String sql, Throwable error) {
+        record(failed, statement);
+    }
+
+    private void recordPrepare(long started) {
+        Timer prepare = this.prepare;
+        if (prepare != null) {
+            prepare.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static double hitRatio(DruidDataSource dataSource) {
+        long hits = dataSource.getCachedPreparedStatementHitCount();
+        long lookups = hits + dataSource.getCachedPreparedStatementMissCount();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private static Timer statementTimer(MeterRegistry registry, Tags tags, String kind) {
+        return Timer.builder("druid.statements").tags(tags).tag("kind", kind)
+                .description("Statement execution, failed ones are kind error").register(registry);
+    }
+
+    private static void record(Timer timer, StatementProxy statement) {
+        long started = statement.getLastExecuteStartNano();
+        if (timer != null && started != 0) {
+            timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String poolName() {
+        String name = dataSource.getName();
+        return name != null ? name : "default";
+    }
+}
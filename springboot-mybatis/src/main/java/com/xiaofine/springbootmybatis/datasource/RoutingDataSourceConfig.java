@@ -0,0 +1,71 @@
+package com.xiaofine.springbootmybatis.datasource;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces the auto-configured DataSource with a {@link ReplicaRoutingDataSource} over spring.datasource
+ * as the primary and datasource.routing.replicas. Replicas are built with the primary's pool type, driver
+ * and pool settings.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "datasource.routing", name = "enabled", havingValue = "true")
+public class RoutingDataSourceConfig {
+
+    /**
+     * The only DataSource bean, the pools behind it are not beans of their own so that the DataSource
+     * initializer sees just one
+     */
+    @Bean
+    @Primary
+    public ReplicaRoutingDataSource.Lazy dataSource(DataSourceProperties properties, RoutingDataSourceProperties routing,
+                                                    Environment environment) {
+        DataSource primary = DataSourcePools.configure(properties.initializeDataSourceBuilder().build(),
+                ReplicaRoutingDataSource.PRIMARY, environment);
+        List<DataSource> replicas = new ArrayList<>();
+        for (RoutingDataSourceProperties.Replica replica : routing.getReplicas()) {
+            DataSource pool = DataSourceBuilder.create(properties.getClassLoader())
+                    .type(properties.getType())
+                    .driverClassName(properties.determineDriverClassName())
+                    .url(replica.getUrl())
+                    .username(replica.getUsername() != null ? replica.getUsername() : properties.determineUsername())
+                    .password(replica.getPassword() != null ? replica.getPassword() : properties.determinePassword())
+                    .build();
+            replicas.add(DataSourcePools.configure(pool, "replica-" + replicas.size(), environment));
+        }
+        return new ReplicaRoutingDataSource(primary, replicas, routing.getStrategy(),
+                routing.getProbeInterval(), routing.getDownTime()).lazy();
+    }
+
+    @Bean
+    public MeterBinder routingPoolMetrics(ReplicaRoutingDataSource.Lazy dataSource) {
+        return registry -> {
+            ReplicaRoutingDataSource routing = dataSource.getRouting();
+            DataSourcePools.bindMetrics(routing.getPrimary(), registry);
+            for (ReplicaRoutingDataSource.Replica replica : routing.getReplicas()) {
+                DataSourcePools.bindMetrics(replica.getDataSource(), registry);
+            }
+        };
+    }
+
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(RoutingDataSourceProperties routing) {
+        FilterRegistrationBean<ReadYourWritesFilter> registration =
+                new FilterRegistrationBean<>(new ReadYourWritesFilter(routing.getReadYourWrites()));
+        registration.setEnabled(!routing.getReadYourWrites().isZero());
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 100);
+        return registration;
+    }
+}
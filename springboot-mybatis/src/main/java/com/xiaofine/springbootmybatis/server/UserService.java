@@ -4,6 +4,7 @@ import com.xiaofine.springbootmybatis.dao.UserMapper;
 import com.xiaofine.springbootmybatis.entity.User;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -25,10 +26,12 @@ public class UserService {
         return userMapper.delete(id);
     }
 
+    @Transactional(readOnly = true)
     public User findUserById(int id) {
         return userMapper.findUser(id);
     }
 
+    @Transactional(readOnly = true)
     public List<User> findAllUsers() {
         return userMapper.findUserList();
     }
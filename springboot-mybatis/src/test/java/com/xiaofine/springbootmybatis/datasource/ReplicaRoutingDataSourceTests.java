@@ -0,0 +1,149 @@
+package com.xiaofine.springbootmybatis.datasource;
+
+import com.xiaofine.springbootmybatis.dao.UserMapper;
+import com.xiaofine.springbootmybatis.server.UserService;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Routing through the stack the application runs: mapper calls on a SqlSessionTemplate, whose session joins
+ * the transaction of a DataSourceTransactionManager, opened by the {@code @Transactional(readOnly = true)}
+ * reads of UserService. Each database holds one user named after it.
+ */
+@SpringJUnitConfig(ReplicaRoutingDataSourceTests.Config.class)
+class ReplicaRoutingDataSourceTests {
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    UserMapper userMapper;
+
+    @Autowired
+    MapperFactoryBean<UserMapper> userMapperFactory;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    void theMapperRunsOnASqlSessionTemplate() {
+        assertThat(userMapperFactory.getSqlSession()).isInstanceOf(SqlSessionTemplate.class);
+        assertThat(transactionManager).isInstanceOf(DataSourceTransactionManager.class);
+    }
+
+    @Test
+    void readOnlyServiceCallsGoRoundRobinOverTheReplicas() {
+        String first = userService.findUserById(1).getName();
+        String second = userService.findUserById(1).getName();
+
+        assertThat(first).isIn("replica0", "replica1");
+        assertThat(second).isIn("replica0", "replica1").isNotEqualTo(first);
+        assertThat(userService.findUserById(1).getName()).isEqualTo(first);
+    }
+
+    @Test
+    void readOnlyTransactionKeepsOneReplica() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+
+        String names = transaction.execute(status -> name() + "," + name());
+
+        assertThat(names).isIn("replica0,replica0", "replica1,replica1");
+    }
+
+    @Test
+    void mapperCallsInAReadWriteTransactionGoToThePrimary() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        String name = transaction.execute(status -> name());
+
+        assertThat(name).isEqualTo("primary");
+    }
+
+    @Test
+    void mapperCallsOutsideATransactionGoToThePrimary() {
+        assertThat(name()).isEqualTo("primary");
+    }
+
+    @Test
+    void pinnedThreadsReadFromThePrimary() {
+        ReplicaRoutingDataSource.pinToPrimary();
+        try {
+            assertThat(userService.findUserById(1).getName()).isEqualTo("primary");
+        } finally {
+            ReplicaRoutingDataSource.unpin();
+        }
+    }
+
+    private String name() {
+        return userMapper.findUser(1).getName();
+    }
+
+    @Configuration
+    @EnableTransactionManagement
+    @Import(UserService.class)
+    static class Config {
+
+        @Bean(destroyMethod = "close")
+        ReplicaRoutingDataSource.Lazy dataSource() {
+            return new ReplicaRoutingDataSource(database("primary"), Arrays.asList(database("replica0"),
+                    database("replica1")), RoutingDataSourceProperties.Strategy.ROUND_ROBIN,
+                    Duration.ZERO, Duration.ofMinutes(1)).lazy();
+        }
+
+        @Bean
+        DataSourceTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        SqlSessionFactoryBean sqlSessionFactory(DataSource dataSource) {
+            SqlSessionFactoryBean factory = new SqlSessionFactoryBean();
+            factory.setDataSource(dataSource);
+            return factory;
+        }
+
+        @Bean
+        MapperFactoryBean<UserMapper> userMapper(SqlSessionFactory sqlSessionFactory) {
+            MapperFactoryBean<UserMapper> mapper = new MapperFactoryBean<>(UserMapper.class);
+            mapper.setSqlSessionFactory(sqlSessionFactory);
+            return mapper;
+        }
+
+        /**
+         * A separate H2 database with a single user naming it
+         */
+        private static EmbeddedDatabase database(String name) {
+            EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                    .setType(EmbeddedDatabaseType.H2)
+                    .setName("routing-" + name + "-" + System.nanoTime())
+                    .build();
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+            jdbcTemplate.execute("CREATE TABLE user (id INT PRIMARY KEY, name VARCHAR(255), email VARCHAR(255))");
+            jdbcTemplate.update("INSERT INTO user VALUES (1, ?, ?)", name, name + "@example.com");
+            return database;
+        }
+    }
+}
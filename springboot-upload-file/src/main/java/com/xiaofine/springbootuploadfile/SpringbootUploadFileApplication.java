@@ -1,6 +1,7 @@
 package com.xiaofine.springbootuploadfile;
 
 import com.xiaofine.springbootuploadfile.storage.StorageService;
+import com.xiaofine.springbootuploadfile.upload.ChunkedUploadService;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -15,10 +16,12 @@ public class SpringbootUploadFileApplication {
 
 
     @Bean
-    CommandLineRunner init(StorageService storageService) {
+    CommandLineRunner init(StorageService storageService, ChunkedUploadService uploadService) {
         return (args) -> {
             storageService.deleteAll();
             storageService.init();
+            uploadService.deleteAll();
+            uploadService.init();
         };
     }
 }
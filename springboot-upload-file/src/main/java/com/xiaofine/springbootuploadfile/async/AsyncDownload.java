@@ -0,0 +1,186 @@
+package com.xiaofine.springbootuploadfile.async;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes a file to the response without blocking: the next chunk is read only once the previous one has been
+ * handed to the connector, and written only while the connector can take it. Plain files are read with
+ * asynchronous file reads, anything else (e.g. compressed files) is read from its stream on the I/O pool.
+ */
+class AsyncDownload implements WriteListener, AsyncListener, CompletionHandler<Integer, Void> {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncDownload.class);
+
+    private final AsyncContext context;
+
+    private final ServletOutputStream outputStream;
+
+    private final AsynchronousFileChannel channel;
+
+    private final InputStream inputStream;
+
+    private final Executor ioExecutor;
+
+    private final ByteBuffer buffer;
+
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private long position;
+
+    private volatile boolean endOfFile;
+
+    private AsyncDownload(AsyncContext context, AsynchronousFileChannel channel, InputStream inputStream,
+                          int bufferSize, Executor ioExecutor) throws IOException {
+        this.context = context;
+        this.outputStream = context.getResponse().getOutputStream();
+        this.channel = channel;
+        this.inputStream = inputStream;
+        this.ioExecutor = ioExecutor;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+    static AsyncDownload of(AsyncContext context, AsynchronousFileChannel channel, int bufferSize) throws IOException {
+        return new AsyncDownload(context, channel, null, bufferSize, null);
+    }
+
+    static AsyncDownload of(AsyncContext context, InputStream inputStream, int bufferSize, Executor ioExecutor)
+            throws IOException {
+        return new AsyncDownload(context, null, inputStream, bufferSize, ioExecutor);
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        pump();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    @Override
+    public void completed(Integer read, Void attachment) {
+        if (read < 0) {
+            endOfFile = true;
+        } else {
+            position += read;
+        }
+        buffer.flip();
+        try {
+            pump();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void failed(Throwable t, Void attachment) {
+        fail(t);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        fail(event.getThrowable());
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        fail(event.getThrowable());
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    /**
+     * Writes while the connector can take more, then starts the next read. Returning while isReady() is false
+     * makes the connector call onWritePossible again once the client has caught up. Only one thread pumps at
+     * a time: onWritePossible follows an isReady() that returned false, a read completion follows a read, and
+     * the two never overlap. No lock is held while calling into the connector, which takes its own.
+     */
+    private void pump() throws IOException {
+        while (!done.get() && outputStream.isReady()) {
+            if (buffer.hasRemaining()) {
+                outputStream.write(buffer.array(), buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else if (endOfFile) {
+                if (done.compareAndSet(false, true)) {
+                    context.complete();
+                }
+                return;
+            } else {
+                buffer.clear();
+                read();
+                return;
+            }
+        }
+    }
+
+    private void read() {
+        if (channel != null) {
+            channel.read(buffer, position, null, this);
+            return;
+        }
+        ioExecutor.execute(() -> {
+            int read;
+            try {
+                read = inputStream.read(buffer.array(), buffer.position(), buffer.remaining());
+            } catch (IOException e) {
+                failed(e, null);
+                return;
+            }
+            if (read > 0) {
+                buffer.position(buffer.position() + read);
+            }
+            completed(read, null);
+        });
+    }
+
+    private void fail(Throwable t) {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        log.debug("Download aborted", t);
+        close();
+        try {
+            context.complete();
+        } catch (IllegalStateException ignored) {
+            // the container already completed or recycled the request
+        }
+    }
+
+    private void close() {
+        closeQuietly(channel);
+        closeQuietly(inputStream);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.xiaofine.springbootuploadfile.async;
+
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import com.xiaofine.springbootuploadfile.storage.StorageService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(prefix = "storage.async", name = "enabled", havingValue = "true")
+public class AsyncStorageConfig {
+
+    @Bean
+    public ServletRegistrationBean<AsyncStorageServlet> asyncStorageServlet(StorageService storageService,
+                                                                          StorageProperties properties) {
+        ServletRegistrationBean<AsyncStorageServlet> registration = new ServletRegistrationBean<>(
+                new AsyncStorageServlet(storageService, properties), properties.getAsync().getPath() + "/*");
+        registration.setAsyncSupported(true);
+        registration.setLoadOnStartup(1);
+        return registration;
+    }
+}
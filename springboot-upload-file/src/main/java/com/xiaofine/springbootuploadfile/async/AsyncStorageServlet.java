@@ -0,0 +1,132 @@
+package com.xiaofine.springbootuploadfile.async;
+
+import com.xiaofine.springbootuploadfile.download.TomcatSendfile;
+import com.xiaofine.springbootuploadfile.storage.StorageFileNotFoundException;
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import com.xiaofine.springbootuploadfile.storage.StorageService;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking variant of the file endpoints: {@code PUT <path>/{filename}} streams the body into storage and
+ * {@code GET <path>/{filename}} downloads it. The worker thread is released as soon as the request is set up,
+ * from then on the connector calls back when the client has sent or can take more bytes, and a small pool
+ * completes the file reads and writes. A thousand slow clients cost a thousand buffers, not a thousand threads.
+ */
+public class AsyncStorageServlet extends HttpServlet {
+
+    private final StorageService storageService;
+
+    private final Path stagingLocation;
+
+    private final long timeout;
+
+    private final int bufferSize;
+
+    private final ExecutorService ioExecutor;
+
+    public AsyncStorageServlet(StorageService storageService, StorageProperties properties) {
+        StorageProperties.Async async = properties.getAsync();
+        this.storageService = storageService;
+        this.stagingLocation = Paths.get(properties.getStagingLocation());
+        this.timeout = async.getTimeout().toMillis();
+        this.bufferSize = (int) async.getBufferSize().toBytes();
+        this.ioExecutor = Executors.newFixedThreadPool(async.getIoThreads(), new CustomizableThreadFactory("storage-io-"));
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serve(request, response, true);
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serve(request, response, false);
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String filename = filename(request);
+        if (filename == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing file name");
+            return;
+        }
+        Files.createDirectories(stagingLocation);
+        Path stagingFile = stagingLocation.resolve(UUID.randomUUID().toString().replace("-", "") + ".upload");
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(stagingFile,
+                EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), ioExecutor);
+
+        // the wrappers passed in stay in place, so filters keep seeing the bytes
+        AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(timeout);
+        AsyncUpload upload = new AsyncUpload(context, channel, stagingFile, bufferSize, ioExecutor,
+                () -> "You successfully uploaded " + filename + " ("
+                        + storageService.store(filename, stagingFile) + " bytes)!");
+        context.addListener(upload);
+        request.getInputStream().setReadListener(upload);
+    }
+
+    @Override
+    public void destroy() {
+        ioExecutor.shutdown();
+    }
+
+    private void serve(HttpServletRequest request, HttpServletResponse response, boolean body) throws IOException {
+        String filename = filename(request);
+        Resource resource;
+        try {
+            if (filename == null) {
+                throw new StorageFileNotFoundException("Missing file name");
+            }
+            resource = storageService.loadAsResource(filename);
+        } catch (StorageFileNotFoundException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long length = resource.contentLength();
+        response.setContentType(MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+        response.setContentLengthLong(length);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, resource.lastModified());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.builder("attachment").filename(filename, StandardCharsets.UTF_8).build().toString());
+        if (!body || length == 0 || TomcatSendfile.handOff(request, resource, length)) {
+            // sendfile is written by the connector's poller, it does not hold a worker thread either
+            return;
+        }
+
+        AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(timeout);
+        AsyncDownload download = resource.isFile()
+                ? AsyncDownload.of(context, AsynchronousFileChannel.open(resource.getFile().toPath(),
+                        EnumSet.of(StandardOpenOption.READ), ioExecutor), bufferSize)
+                : AsyncDownload.of(context, resource.getInputStream(), bufferSize, ioExecutor);
+        context.addListener(download);
+        response.getOutputStream().setWriteListener(download);
+    }
+
+    private static String filename(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        return pathInfo == null || pathInfo.length() < 2 ? null : pathInfo.substring(1);
+    }
+}
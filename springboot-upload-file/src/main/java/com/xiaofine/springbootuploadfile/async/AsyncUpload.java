@@ -0,0 +1,210 @@
+package com.xiaofine.springbootuploadfile.async;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Copies a request body into a staging file without blocking: the body is read only while the connector
+ * has bytes ready, and each chunk is written with an asynchronous file write before the next one is read.
+ * Once the body is complete the staging file is published on the I/O pool.
+ */
+class AsyncUpload implements ReadListener, AsyncListener, CompletionHandler<Integer, Void> {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncUpload.class);
+
+    private final AsyncContext context;
+
+    private final ServletInputStream inputStream;
+
+    private final AsynchronousFileChannel channel;
+
+    private final Path stagingFile;
+
+    private final byte[] buffer;
+
+    private final Executor ioExecutor;
+
+    private final Callable<String> publish;
+
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private ByteBuffer pending;
+
+    private long position;
+
+    private volatile boolean writing;
+
+    private volatile boolean allDataRead;
+
+    /**
+     * @param publish hands the finished staging file to storage, returns the response message
+     */
+    AsyncUpload(AsyncContext context, AsynchronousFileChannel channel, Path stagingFile, int bufferSize,
+                Executor ioExecutor, Callable<String> publish) throws IOException {
+        this.context = context;
+        this.inputStream = context.getRequest().getInputStream();
+        this.channel = channel;
+        this.stagingFile = stagingFile;
+        this.buffer = new byte[bufferSize];
+        this.ioExecutor = ioExecutor;
+        this.publish = publish;
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        pump();
+    }
+
+    @Override
+    public void onAllDataRead() {
+        allDataRead = true;
+        if (!writing) {
+            finish();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(HttpServletResponse.SC_BAD_REQUEST, t);
+    }
+
+    @Override
+    public void completed(Integer written, Void attachment) {
+        position += written;
+        if (pending.hasRemaining()) {
+            channel.write(pending, position, null, this);
+            return;
+        }
+        writing = false;
+        if (allDataRead) {
+            finish();
+            return;
+        }
+        try {
+            pump();
+        } catch (IOException e) {
+            fail(HttpServletResponse.SC_BAD_REQUEST, e);
+        }
+    }
+
+    @Override
+    public void failed(Throwable t, Void attachment) {
+        fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, t);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        fail(HttpServletResponse.SC_REQUEST_TIMEOUT, event.getThrowable());
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        fail(HttpServletResponse.SC_BAD_REQUEST, event.getThrowable());
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    /**
+     * Reads what the connector has and starts writing it, at most one file write is in flight. Only one thread
+     * pumps at a time: the connector calls onDataAvailable only after isReady() returned false, and a write
+     * completion only follows a read. No lock is held while calling into the connector, which takes its own.
+     */
+    private void pump() throws IOException {
+        while (!done.get() && inputStream.isReady()) {
+            int read = inputStream.read(buffer);
+            if (read == -1) {
+                finish();
+                return;
+            }
+            if (read > 0) {
+                writing = true;
+                pending = ByteBuffer.wrap(buffer, 0, read);
+                channel.write(pending, position, null, this);
+                return;
+            }
+        }
+    }
+
+    private void finish() {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        ioExecutor.execute(() -> {
+            String message;
+            try {
+                channel.close();
+                message = publish.call();
+            } catch (Exception e) {
+                log.warn("Failed to store upload {}", stagingFile, e);
+                deleteQuietly();
+                respond(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+                return;
+            }
+            respond(HttpServletResponse.SC_OK, message);
+        });
+    }
+
+    private void fail(int status, Throwable t) {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        log.debug("Upload to {} failed", stagingFile, t);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        deleteQuietly();
+        respond(status, null);
+    }
+
+    private void respond(int status, String message) {
+        try {
+            HttpServletResponse response = (HttpServletResponse) context.getResponse();
+            if (!response.isCommitted()) {
+                response.setStatus(status);
+                response.setContentType("text/plain;charset=UTF-8");
+                if (message != null) {
+                    response.getOutputStream().write(message.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Could not send the upload response", e);
+        } finally {
+            try {
+                context.complete();
+            } catch (IllegalStateException ignored) {
+                // the container already completed or recycled the request
+            }
+        }
+    }
+
+    private void deleteQuietly() {
+        try {
+            Files.deleteIfExists(stagingFile);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.xiaofine.springbootuploadfile.controller;
+
+import com.xiaofine.springbootuploadfile.storage.StorageFileNotFoundException;
+import com.xiaofine.springbootuploadfile.upload.ChunkedUpload;
+import com.xiaofine.springbootuploadfile.upload.ChunkedUploadService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Chunked upload protocol:
+ * <pre>
+ * POST   /uploads?filename=&amp;size=[&amp;partSize=]   initiate, returns the upload id and part layout
+ * PUT    /uploads/{uploadId}/parts/{partNumber}    raw part body, parts may be sent in parallel
+ * GET    /uploads/{uploadId}                       completed parts, to resume after a dropped connection
+ * POST   /uploads/{uploadId}/complete              publish the file once every part is there
+ * DELETE /uploads/{uploadId}                       abort
+ * </pre>
+ */
+@RestController
+@RequestMapping("/uploads")
+public class ChunkedUploadController {
+
+    private final ChunkedUploadService uploadService;
+
+    @Autowired
+    public ChunkedUploadController(ChunkedUploadService uploadService) {
+        this.uploadService = uploadService;
+    }
+
+    @PostMapping("")
+    public ResponseEntity<ChunkedUpload> initiate(@RequestParam("filename") String filename,
+                                                  @RequestParam("size") long size,
+                                                  @RequestParam(value = "partSize", required = false) Long partSize) {
+        return ResponseEntity.status(HttpStatus.CREATED).body(uploadService.initiate(filename, size, partSize));
+    }
+
+    @PutMapping(value = "/{uploadId}/parts/{partNumber}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public String uploadPart(@PathVariable("uploadId") String uploadId,
+                             @PathVariable("partNumber") int partNumber,
+                             HttpServletRequest request) throws IOException {
+        long size = uploadService.uploadPart(uploadId, partNumber, request.getInputStream());
+        return "Part " + partNumber + " stored (" + size + " bytes)";
+    }
+
+    @GetMapping("/{uploadId}")
+    public ChunkedUpload status(@PathVariable("uploadId") String uploadId) {
+        return uploadService.get(uploadId);
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ChunkedUpload complete(@PathVariable("uploadId") String uploadId) {
+        return uploadService.complete(uploadId);
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abort(@PathVariable("uploadId") String uploadId) {
+        uploadService.abort(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @ExceptionHandler(StorageFileNotFoundException.class)
+    public ResponseEntity<String> handleUploadNotFound(StorageFileNotFoundException exc) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(exc.getMessage());
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleBadRequest(IllegalArgumentException exc) {
+        return ResponseEntity.badRequest().body(exc.getMessage());
+    }
+
+    @ExceptionHandler(IllegalStateException.class)
+    public ResponseEntity<String> handleConflict(IllegalStateException exc) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(exc.getMessage());
+    }
+}
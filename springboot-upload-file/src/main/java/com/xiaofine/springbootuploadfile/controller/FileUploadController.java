@@ -1,24 +1,39 @@
 package com.xiaofine.springbootuploadfile.controller;
 
+import com.xiaofine.springbootuploadfile.download.TomcatSendfile;
 import com.xiaofine.springbootuploadfile.storage.StorageFileNotFoundException;
 import com.xiaofine.springbootuploadfile.storage.StorageService;
+import com.xiaofine.springbootuploadfile.storage.compression.CompressedFileResource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.web.util.UriUtils;
 
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.stream.Collectors;
 
 @Controller
 public class FileUploadController {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+
     private final StorageService storageService;
 
     @Autowired
@@ -27,28 +42,77 @@ public class FileUploadController {
     }
 
     @GetMapping("/")
-    public String listUploadedFiles(Model model) throws IOException {
-
-        model.addAttribute("files", storageService
-                .loadAll()
-                .map(path ->
-                        MvcUriComponentsBuilder
-                                .fromMethodName(FileUploadController.class, "serveFile", path.getFileName().toString())
-                                .build().toString())
+    public String listUploadedFiles(@RequestParam(value = "after", required = false) String after,
+                                    @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                    Model model) {
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<String> names = storageService.list(after, pageSize);
+        // resolve the download URL prefix once per page instead of once per file
+        String filesUri = MvcUriComponentsBuilder.fromController(FileUploadController.class)
+                .path("/files/").build().toUriString();
+        model.addAttribute("files", names.stream()
+                .map(name -> filesUri + UriUtils.encodePathSegment(name, StandardCharsets.UTF_8))
                 .collect(Collectors.toList()));
+        if (names.size() == pageSize) {
+            model.addAttribute("next", names.get(names.size() - 1));
+            model.addAttribute("limit", pageSize);
+        }
 
         return "uploadForm";
     }
 
     @GetMapping("/files/{filename:.+}")
     @ResponseBody
-    public ResponseEntity<Resource> serveFile(@PathVariable String filename) {
+    public ResponseEntity<Resource> serveFile(@PathVariable String filename,
+                                              ServletWebRequest webRequest) throws IOException {
 
         Resource file = storageService.loadAsResource(filename);
-        return ResponseEntity
-                .ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\""+file.getFilename()+"\"")
-                .body(file);
+        String contentEncoding = null;
+        Resource body = file;
+        if (file instanceof CompressedFileResource) {
+            // clients that accept the stored encoding get the compressed bytes, everyone else is decompressed on the fly
+            CompressedFileResource compressed = (CompressedFileResource) file;
+            if (webRequest.getHeader(HttpHeaders.RANGE) == null
+                    && acceptsEncoding(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING), compressed.getContentEncoding())) {
+                contentEncoding = compressed.getContentEncoding();
+                body = compressed.getCompressedContent();
+            }
+        }
+        long lastModified = file.lastModified();
+        long length = body.contentLength();
+        // answers If-None-Match / If-Modified-Since with 304 and sets ETag / Last-Modified otherwise
+        if (webRequest.checkNotModified(etag(lastModified, length, contentEncoding), lastModified)) {
+            return null;
+        }
+
+        // single ranges go to sendfile as well, other Range requests are turned into 206
+        // and multipart/byteranges responses by Spring MVC for Resource bodies
+        ResourceRegion range = singleRange(webRequest.getHeader(HttpHeaders.RANGE), body, length);
+        boolean rangeHandedOff = range != null
+                && TomcatSendfile.handOff(webRequest.getRequest(), body, range.getPosition(), range.getCount());
+        ResponseEntity.BodyBuilder response = ResponseEntity
+                .status(rangeHandedOff ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(filename))
+                .contentType(MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM));
+        if (file instanceof CompressedFileResource) {
+            response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (contentEncoding != null) {
+            response.header(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+        if (rangeHandedOff) {
+            long end = range.getPosition() + range.getCount() - 1;
+            return response
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes " + range.getPosition() + "-" + end + "/" + length)
+                    .contentLength(range.getCount())
+                    .build();
+        }
+        if (TomcatSendfile.handOff(webRequest.getRequest(), body, length)) {
+            return response.contentLength(length).build();
+        }
+        return response.body(body);
     }
 
     @PostMapping("/")
@@ -62,6 +126,65 @@ public class FileUploadController {
         return "redirect:/";
     }
 
+    /**
+     * Raw body upload, e.g. {@code curl -H "Content-Type: application/octet-stream" --data-binary @big.iso "/?filename=big.iso"}.
+     * The body is streamed into storage as it arrives, so it is not bound by the multipart size limits.
+     */
+    @PostMapping(value = "/", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<String> handleFileUpload(@RequestParam("filename") String filename,
+                                                   HttpServletRequest request) throws IOException {
+
+        long size = storageService.store(filename, request.getInputStream());
+        return ResponseEntity.ok("You successfully uploaded " + filename + " (" + size + " bytes)!");
+    }
+
+    /**
+     * @return the one satisfiable range of the header, null for no range, several ranges or an invalid one
+     */
+    private static ResourceRegion singleRange(String rangeHeader, Resource body, long length) {
+        if (rangeHeader == null) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            if (ranges.size() != 1) {
+                return null;
+            }
+            ResourceRegion region = ranges.get(0).toResourceRegion(body);
+            return region.getPosition() < length && region.getCount() > 0 ? region : null;
+        } catch (IllegalArgumentException e) {
+            // left to Spring MVC, which answers 416
+            return null;
+        }
+    }
+
+    /**
+     * Encoded as RFC 5987 filename*, so quotes and non-ASCII characters in the name cannot break the header
+     */
+    private static String contentDisposition(String filename) {
+        return ContentDisposition.builder("attachment").filename(filename, StandardCharsets.UTF_8).build().toString();
+    }
+
+    private static String etag(long lastModified, long length, String contentEncoding) {
+        String tag = Long.toHexString(lastModified) + "-" + Long.toHexString(length);
+        return "\"" + (contentEncoding != null ? tag + "-" + contentEncoding : tag) + "\"";
+    }
+
+    private static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null || encoding == null) {
+            return false;
+        }
+        for (String candidate : acceptEncoding.split(",")) {
+            String[] parts = candidate.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase(encoding)) {
+                // "gzip;q=0" is an explicit refusal
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
     @ExceptionHandler(StorageFileNotFoundException.class)
     public ResponseEntity handleStorageFileNotFound(StorageFileNotFoundException exc) {
         return ResponseEntity.notFound().build();
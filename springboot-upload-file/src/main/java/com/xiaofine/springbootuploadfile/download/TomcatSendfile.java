@@ -0,0 +1,90 @@
+package com.xiaofine.springbootuploadfile.download;
+
+import com.xiaofine.springbootuploadfile.storage.StoredFileResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Hands whole-file and single-range GET responses over to the connector, which then writes them with
+ * sendfile(2) once the handler returns. This is the same mechanism Tomcat's DefaultServlet uses.
+ * <p>
+ * The connector opens the file by name after the headers are sent, so only resources that report
+ * {@link Resource#isFile()} are handed off as they are. A {@link StoredFileResource}, which a store can
+ * replace meanwhile, is handed off through a link to the version the headers describe. Slices of
+ * compressed files are not handed off.
+ */
+public final class TomcatSendfile {
+
+    private static final String SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Below this size a plain write is cheaper than setting up sendfile, matches Tomcat's own default
+     */
+    private static final long MIN_SIZE = 48 * 1024;
+
+    private TomcatSendfile() {
+    }
+
+    /**
+     * Hand off the whole resource, refused for requests with a Range header
+     *
+     * @return true when the connector took over writing the body, the caller must not write it again
+     */
+    public static boolean handOff(HttpServletRequest request, Resource resource, long length) throws IOException {
+        return request.getHeader(HttpHeaders.RANGE) == null && handOff(request, resource, 0, length);
+    }
+
+    /**
+     * Hand off the bytes {@code [start, start + count)} of the resource, for a single range the caller
+     * answers 206 with its Content-Range
+     *
+     * @return true when the connector took over writing the body, the caller must not write it again
+     */
+    public static boolean handOff(HttpServletRequest request, Resource resource, long start, long count)
+            throws IOException {
+        if (!Boolean.TRUE.equals(request.getAttribute(SUPPORT_ATTR))
+                || !HttpMethod.GET.matches(request.getMethod())
+                || count < MIN_SIZE) {
+            return false;
+        }
+        if (resource instanceof StoredFileResource) {
+            Path link = ((StoredFileResource) resource).link();
+            if (link == null) {
+                return false;
+            }
+            setAttributes(request, link.toAbsolutePath().toString(), start, count);
+            return true;
+        }
+        if (resource.isFile()) {
+            setAttributes(request, resource.getFile().getAbsolutePath(), start, count);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the length of the body handed to the connector, -1 when there is none
+     */
+    public static long handedOffLength(HttpServletRequest request) {
+        Object start = request.getAttribute(START_ATTR);
+        Object end = request.getAttribute(END_ATTR);
+        if (request.getAttribute(FILENAME_ATTR) == null || !(start instanceof Long) || !(end instanceof Long)) {
+            return -1;
+        }
+        return (Long) end - (Long) start;
+    }
+
+    private static void setAttributes(HttpServletRequest request, String filename, long start, long length) {
+        request.setAttribute(FILENAME_ATTR, filename);
+        request.setAttribute(START_ATTR, start);
+        request.setAttribute(END_ATTR, start + length);
+    }
+}
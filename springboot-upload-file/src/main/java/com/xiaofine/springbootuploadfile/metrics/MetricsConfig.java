@@ -0,0 +1,23 @@
+package com.xiaofine.springbootuploadfile.metrics;
+
+import com.xiaofine.springbootuploadfile.storage.StorageMetrics;
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import com.xiaofine.springbootuploadfile.storage.StorageService;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public FilterRegistrationBean<TransferMetricsFilter> transferMetricsFilter(StorageService storageService,
+                                                                             StorageMetrics metrics,
+                                                                             StorageProperties properties) {
+        FilterRegistrationBean<TransferMetricsFilter> registration = new FilterRegistrationBean<>(
+                new TransferMetricsFilter(storageService, metrics));
+        registration.addUrlPatterns("/files/*", properties.getAsync().getPath() + "/*");
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+}
@@ -0,0 +1,117 @@
+package com.xiaofine.springbootuploadfile.metrics;
+
+import com.xiaofine.springbootuploadfile.storage.StorageMetrics;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code /actuator/storage}: space per volume, transfers in progress and the latency and throughput
+ * of the storage meters on one page, with the percentiles configured under
+ * {@code management.metrics.distribution.percentiles.storage}
+ */
+@Component
+@Endpoint(id = "storage")
+public class StorageEndpoint {
+
+    private final StorageMetrics metrics;
+
+    @Autowired
+    public StorageEndpoint(StorageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @ReadOperation
+    public Map<String, Object> storage() {
+        MeterRegistry registry = metrics.getRegistry();
+        Map<String, Object> volumes = new LinkedHashMap<>();
+        for (Map.Entry<String, Path> volume : metrics.getVolumes().entrySet()) {
+            long usable = volume.getValue().toFile().getUsableSpace();
+            long total = volume.getValue().toFile().getTotalSpace();
+            Map<String, Object> space = new LinkedHashMap<>();
+            space.put("path", volume.getValue().toString());
+            space.put("usableBytes", usable);
+            space.put("totalBytes", total);
+            space.put("usedRatio", total == 0 ? 0 : 1 - (double) usable / total);
+            volumes.put(volume.getKey(), space);
+        }
+        Map<String, Object> active = new LinkedHashMap<>();
+        for (Gauge gauge : registry.find("storage.transfers.active").gauges()) {
+            active.put(gauge.getId().getTag("operation"), (long) gauge.value());
+        }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("volumes", volumes);
+        body.put("activeTransfers", active);
+        body.put("operations", timers(registry, "storage.operation"));
+        body.put("transfers", timers(registry, "storage.transfer"));
+        body.put("throughput", summaries(registry, "storage.transfer.throughput"));
+        body.put("firstByte", timers(registry, "storage.transfer.first.byte"));
+        body.put("fsync", timers(registry, "storage.fsync"));
+        return body;
+    }
+
+    private static List<Map<String, Object>> timers(MeterRegistry registry, String name) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Timer timer : registry.find(name).timers()) {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            Map<String, Object> stats = tags(timer);
+            stats.put("count", snapshot.count());
+            stats.put("meanMs", snapshot.mean(TimeUnit.MILLISECONDS));
+            stats.put("maxMs", snapshot.max(TimeUnit.MILLISECONDS));
+            for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                stats.put("p" + percentileName(percentile) + "Ms", percentile.value(TimeUnit.MILLISECONDS));
+            }
+            result.add(stats);
+        }
+        return result;
+    }
+
+    private static List<Map<String, Object>> summaries(MeterRegistry registry, String name) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (DistributionSummary summary : registry.find(name).summaries()) {
+            HistogramSnapshot snapshot = summary.takeSnapshot();
+            Map<String, Object> stats = tags(summary);
+            stats.put("count", snapshot.count());
+            stats.put("mean", snapshot.mean());
+            stats.put("max", snapshot.max());
+            for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                stats.put("p" + percentileName(percentile), percentile.value());
+            }
+            result.add(stats);
+        }
+        return result;
+    }
+
+    private static Map<String, Object> tags(Meter meter) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Tag tag : meter.getId().getTagsAsIterable()) {
+            stats.put(tag.getKey(), tag.getValue());
+        }
+        return stats;
+    }
+
+    /**
+     * 0.99 becomes 99, 0.999 becomes 99.9
+     */
+    private static String percentileName(ValueAtPercentile percentile) {
+        return BigDecimal.valueOf(percentile.percentile()).movePointRight(2).stripTrailingZeros().toPlainString();
+    }
+}
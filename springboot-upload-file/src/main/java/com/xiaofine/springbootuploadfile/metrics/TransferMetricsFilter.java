@@ -0,0 +1,235 @@
+package com.xiaofine.springbootuploadfile.metrics;
+
+import com.xiaofine.springbootuploadfile.download.TomcatSendfile;
+import com.xiaofine.springbootuploadfile.storage.StorageMetrics;
+import com.xiaofine.springbootuploadfile.storage.StorageService;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/**
+ * Measures downloads (GET) and uploads (PUT) of single files: bytes are counted as they pass through
+ * the request and response streams, and the transfer ends when the response does, also for asynchronous
+ * requests. A body handed to sendfile is counted by its length, the connector sends it after the
+ * request returned, so it has no throughput.
+ */
+public class TransferMetricsFilter extends OncePerRequestFilter {
+
+    private final StorageService storageService;
+
+    private final StorageMetrics metrics;
+
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    public TransferMetricsFilter(StorageService storageService, StorageMetrics metrics) {
+        this.storageService = storageService;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String operation = "GET".equals(request.getMethod()) ? StorageMetrics.DOWNLOAD
+                : "PUT".equals(request.getMethod()) ? StorageMetrics.UPLOAD : null;
+        if (operation == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        StorageMetrics.Transfer transfer = metrics.startTransfer(operation, volume(request));
+        CountingRequest countingRequest = new CountingRequest(request);
+        CountingResponse countingResponse = new CountingResponse(response, transfer);
+        try {
+            chain.doFilter(countingRequest, countingResponse);
+        } catch (IOException | ServletException | RuntimeException e) {
+            transfer.close();
+            throw e;
+        }
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    finish(request, countingRequest, countingResponse, transfer);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    transfer.close();
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    transfer.close();
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            finish(request, countingRequest, countingResponse, transfer);
+        }
+    }
+
+    private void finish(HttpServletRequest request, CountingRequest countingRequest, CountingResponse countingResponse,
+                        StorageMetrics.Transfer transfer) {
+        int status = countingResponse.getStatus();
+        if (status < 200 || status >= 300) {
+            transfer.close();
+            return;
+        }
+        if (StorageMetrics.UPLOAD.equals(transfer.getOperation())) {
+            transfer.complete(countingRequest.bytes);
+            return;
+        }
+        long handedOff = TomcatSendfile.handedOffLength(request);
+        if (handedOff >= 0) {
+            // the headers go out now, the body follows from the poller
+            transfer.firstByte();
+            transfer.handOff(handedOff);
+        } else if (countingResponse.bytes > 0) {
+            transfer.complete(countingResponse.bytes);
+        } else {
+            transfer.close();
+        }
+    }
+
+    /**
+     * The file name is the last path segment, in /files/{filename} as in the async servlet's path
+     */
+    private String volume(HttpServletRequest request) {
+        String path = urlPathHelper.getPathWithinApplication(request);
+        try {
+            return metrics.volumeOf(storageService.load(path.substring(path.lastIndexOf('/') + 1)));
+        } catch (RuntimeException e) {
+            return StorageMetrics.OTHER_VOLUME;
+        }
+    }
+
+    private static final class CountingRequest extends HttpServletRequestWrapper {
+
+        private ServletInputStream inputStream;
+
+        private volatile long bytes;
+
+        CountingRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                ServletInputStream delegate = super.getInputStream();
+                inputStream = new ServletInputStream() {
+                    @Override
+                    public boolean isFinished() {
+                        return delegate.isFinished();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return delegate.isReady();
+                    }
+
+                    @Override
+                    public void setReadListener(ReadListener readListener) {
+                        delegate.setReadListener(readListener);
+                    }
+
+                    @Override
+                    public int read() throws IOException {
+                        int b = delegate.read();
+                        if (b != -1) {
+                            bytes++;
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int read = delegate.read(b, off, len);
+                        if (read > 0) {
+                            bytes += read;
+                        }
+                        return read;
+                    }
+                };
+            }
+            return inputStream;
+        }
+    }
+
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+
+        private final StorageMetrics.Transfer transfer;
+
+        private ServletOutputStream outputStream;
+
+        private volatile long bytes;
+
+        CountingResponse(HttpServletResponse response, StorageMetrics.Transfer transfer) {
+            super(response);
+            this.transfer = transfer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                ServletOutputStream delegate = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return delegate.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        delegate.setWriteListener(writeListener);
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        delegate.write(b);
+                        written(1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        delegate.write(b, off, len);
+                        written(len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        delegate.close();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        private void written(int len) {
+            if (bytes == 0 && len > 0 && StorageMetrics.DOWNLOAD.equals(transfer.getOperation())) {
+                transfer.firstByte();
+            }
+            bytes += len;
+        }
+    }
+}
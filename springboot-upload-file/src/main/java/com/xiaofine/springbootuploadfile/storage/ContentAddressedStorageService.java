@@ -0,0 +1,632 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import com.xiaofine.springbootuploadfile.storage.cache.HotFileCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores every distinct content once under its SHA-256 digest in a sharded
+ * {@code objects/ab/cd/<digest>} layout, spread over the configured volumes. File names are mapped to digests by an
+ * append-only index, so uploading content that is already stored only appends one index line. Once superseded
+ * lines make up most of the index it is rewritten with one line per name.
+ * <p>
+ * Names are counted per object. An object whose last name was mapped elsewhere is deleted by the maintenance job
+ * once the index line that released it is on disk, and the first run after a start also deletes objects a
+ * crash left without any index line.
+ */
+@Service
+@ConditionalOnProperty(prefix = "storage", name = "backend", havingValue = "content-addressed")
+public class ContentAddressedStorageService implements StorageService {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final String OBJECTS = "objects";
+
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final int LOCK_STRIPES = 256;
+
+    /**
+     * Index lines below which the index is never compacted, rewriting a small log gains nothing
+     */
+    private static final long COMPACT_MIN_LINES = 10_000;
+
+    private final Path rootLocation;
+
+    private final StorageLayout layout;
+
+    private final Path tmpLocation;
+
+    private final Path indexFile;
+
+    private final NavigableMap<String, String> index = new ConcurrentSkipListMap<>();
+
+    /**
+     * Serializes the existence check and the rename of one object
+     */
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+
+    /**
+     * Directory syncs of objects renamed into place and not yet durable, by digest. A store of the same
+     * content must not acknowledge its name before the object it points at is
+     */
+    private final ConcurrentMap<String, CompletableFuture<Void>> pendingObjects = new ConcurrentHashMap<>();
+
+    /**
+     * Shared from appending an index line until it is synced, a compaction takes it exclusively so that
+     * nobody is left forcing the channel it replaces
+     */
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    private final Duration maintenanceInterval;
+
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
+    private final FileSync fileSync;
+
+    private final HotFileCache cache;
+
+    private final StorageReclaimer reclaimer;
+
+    private final StorageMetrics metrics;
+
+    /**
+     * Volume tag of the root location, uploads land there before they are moved to their object's volume
+     */
+    private final String rootVolume;
+
+    private FileChannel indexChannel;
+
+    private Writer indexWriter;
+
+    /**
+     * Lines in the index file, superseded ones included
+     */
+    private long indexLines;
+
+    /**
+     * Names mapped to each object, by digest
+     */
+    private final Map<String, Integer> references = new HashMap<>();
+
+    /**
+     * Objects whose last name was mapped elsewhere, by digest, with the index line count after the line that
+     * did it. They may be deleted once the index is forced past that line
+     */
+    private final Map<String, Long> released = new HashMap<>();
+
+    /**
+     * Whether the next collection walks all objects, for those a crash left without an index line
+     */
+    private volatile boolean collectAll = true;
+
+    public ContentAddressedStorageService(StorageProperties properties) {
+        this(properties, new HotFileCache(properties), new StorageReclaimer(properties), new StorageMetrics(properties));
+    }
+
+    @Autowired
+    public ContentAddressedStorageService(StorageProperties properties, HotFileCache cache, StorageReclaimer reclaimer,
+                                          StorageMetrics metrics) {
+        this.cache = cache;
+        this.reclaimer = reclaimer;
+        this.metrics = metrics;
+        this.rootLocation = Paths.get(properties.getLocation());
+        this.rootVolume = metrics.volumeOf(rootLocation);
+        this.layout = new StorageLayout(properties);
+        this.tmpLocation = rootLocation.resolve("tmp");
+        this.indexFile = rootLocation.resolve("index.log");
+        this.maintenanceInterval = properties.getReclaim().getInterval();
+        this.fileSync = new FileSync(properties.getFsync(), properties.getGroupCommitInterval(), metrics);
+    }
+
+    @Override
+    public void store(MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new StorageException("Failed to store empty file " + file.getOriginalFilename());
+        }
+        try (InputStream inputStream = file.getInputStream()) {
+            store(file.getOriginalFilename(), inputStream);
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file " + file.getOriginalFilename(), e);
+        }
+    }
+
+    /**
+     * Storing a name again maps it to the new content, the last index line of a name wins
+     */
+    @Override
+    public long store(String filename, InputStream inputStream) {
+        String name = StorageFiles.cleanFilename(filename);
+        Path tmp = tmpLocation.resolve(UUID.randomUUID() + ".tmp");
+        long started = System.nanoTime();
+        try (StorageMetrics.Transfer transfer = metrics.startTransfer(StorageMetrics.UPLOAD, rootVolume)) {
+            MessageDigest digest = newDigest();
+            long size;
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                size = StorageFiles.transfer(new DigestInputStream(inputStream, digest), channel);
+                fileSync.sync(channel);
+            }
+            commit(name, tmp, digest.digest(), size, started);
+            transfer.complete(size);
+            return size;
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file " + filename, e);
+        } finally {
+            StorageFiles.deleteQuietly(tmp);
+        }
+    }
+
+    @Override
+    public long store(String filename, Path source) {
+        String name = StorageFiles.cleanFilename(filename);
+        long started = System.nanoTime();
+        try {
+            MessageDigest digest = newDigest();
+            long size = 0;
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    size += buffer.remaining();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+                fileSync.sync(channel);
+            }
+            return commit(name, source, digest.digest(), size, started);
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file " + filename, e);
+        }
+    }
+
+    private long commit(String name, Path file, byte[] digest, long size, long started) throws IOException {
+        if (size == 0) {
+            throw new StorageException("Failed to store empty file " + name);
+        }
+        String hex = toHex(digest);
+        Path object = objectPath(hex);
+        CompletableFuture<Void> renamed;
+        // objects never change once written, so the index line is the only ordering that matters
+        Lock appending = indexLock.readLock();
+        appending.lock();
+        try {
+            FileChannel log;
+            Lock lock = locks.get(hex);
+            lock.lock();
+            try {
+                renamed = pendingObjects.get(hex);
+                if (renamed != null || Files.exists(object)) {
+                    // same content already stored, only the name mapping is new
+                    Files.delete(file);
+                } else {
+                    Files.createDirectories(object.getParent());
+                    CompletableFuture<Void> moved = StorageFiles.move(file, object, fileSync);
+                    renamed = pending(hex, CompletableFuture.allOf(moved, fileSync.syncDirectory(object.getParent())));
+                }
+                // counted before the object's lock is released, the collector checks under the same lock
+                log = appendIndex(name, hex);
+            } finally {
+                lock.unlock();
+            }
+            cache.invalidate(name);
+            fileSync.sync(log);
+        } finally {
+            appending.unlock();
+        }
+        if (renamed != null) {
+            fileSync.await(renamed);
+        }
+        metrics.recordOperation("store", layout.rootOf(hex).toString(), started);
+        return size;
+    }
+
+    /**
+     * Registered until the sync is done, whoever waits on it
+     */
+    private CompletableFuture<Void> pending(String hex, CompletableFuture<Void> renamed) {
+        if (!renamed.isDone()) {
+            pendingObjects.put(hex, renamed);
+            renamed.whenComplete((ignored, e) -> pendingObjects.remove(hex, renamed));
+        }
+        return renamed;
+    }
+
+    /**
+     * Objects whose directory sync is still pending, for tests
+     */
+    int pendingObjects() {
+        return pendingObjects.size();
+    }
+
+    @Override
+    public Stream<Path> loadAll() {
+        return index.keySet().stream().map(Paths::get);
+    }
+
+    @Override
+    public List<String> list(String after, int limit) {
+        long started = System.nanoTime();
+        NavigableMap<String, String> tail = after == null ? index : index.tailMap(after, false);
+        List<String> page = tail.keySet().stream().limit(limit).collect(Collectors.toList());
+        metrics.recordOperation("list", StorageMetrics.ALL_VOLUMES, started);
+        return page;
+    }
+
+    /**
+     * The object the name maps to. Only indexed names have a path, anything else, a name like {@code ../x}
+     * included, is not found rather than resolved against the root
+     */
+    @Override
+    public Path load(String filename) {
+        String hex = index.get(filename);
+        if (hex == null) {
+            throw new StorageFileNotFoundException("Could not read file: " + filename);
+        }
+        return objectPath(hex);
+    }
+
+    @Override
+    public Resource loadAsResource(String filename) {
+        long started = System.nanoTime();
+        String hex = null;
+        try {
+            Resource cached = cache.get(filename);
+            if (cached != null) {
+                return cached;
+            }
+            hex = index.get(filename);
+            if (hex == null) {
+                throw new StorageFileNotFoundException("Could not read file: " + filename);
+            }
+            Resource resource = new FileSystemResource(objectPath(hex));
+            if (resource.exists() || resource.isReadable()) {
+                return cache.admit(filename, resource);
+            }
+            else {
+                throw new StorageFileNotFoundException("Could not read file: " + filename);
+            }
+        } finally {
+            String object = hex != null ? hex : index.get(filename);
+            metrics.recordOperation("load", object != null ? layout.rootOf(object).toString() : rootVolume, started);
+        }
+    }
+
+    /**
+     * Returns as soon as the directories are renamed away, their content is deleted in the background
+     */
+    @Override
+    public synchronized void deleteAll() {
+        long started = System.nanoTime();
+        closeIndex();
+        index.clear();
+        indexLines = 0;
+        references.clear();
+        released.clear();
+        reclaimer.discard(rootLocation);
+        for (Path root : layout.getRoots()) {
+            reclaimer.discard(root.resolve(OBJECTS));
+        }
+        cache.clear();
+        metrics.recordOperation("delete-all", StorageMetrics.ALL_VOLUMES, started);
+    }
+
+    @Override
+    public synchronized void init() {
+        try {
+            reclaimer.recover(rootLocation);
+            for (Path root : layout.getRoots()) {
+                reclaimer.recover(root.resolve(OBJECTS));
+                Files.createDirectories(root.resolve(OBJECTS));
+            }
+            // nothing is being written yet, whatever is still in tmp was left by a crash
+            reclaimer.recover(tmpLocation);
+            reclaimer.discard(tmpLocation);
+            Files.createDirectories(tmpLocation);
+            // a compaction that did not get to replace the index, the index is still complete
+            Files.deleteIfExists(compactedIndexFile());
+            index.clear();
+            indexLines = 0;
+            references.clear();
+            released.clear();
+            collectAll = true;
+            if (Files.exists(indexFile)) {
+                long started = System.nanoTime();
+                replayIndex();
+                metrics.recordOperation("replay", rootVolume, started);
+            }
+            openIndex();
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize storage", e);
+        }
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            reclaimer.schedule(this::maintain, maintenanceInterval);
+        }
+    }
+
+    void maintain() {
+        try {
+            if (needsCompaction()) {
+                compactIndex();
+            }
+            collectGarbage();
+        } catch (IOException e) {
+            throw new StorageException("Could not maintain the index", e);
+        }
+    }
+
+    /**
+     * Deletes the objects no name maps to, each under its lock after checking its count again: a store maps
+     * its name under the same lock, so an object is never deleted under a name being stored
+     *
+     * @return the number of objects deleted
+     */
+    int collectGarbage() throws IOException {
+        long started = System.nanoTime();
+        Set<String> candidates;
+        synchronized (this) {
+            if (indexWriter == null) {
+                return 0;
+            }
+            candidates = new HashSet<>(released.keySet());
+        }
+        boolean walked = collectAll;
+        if (walked) {
+            for (Path root : layout.getRoots()) {
+                try (Stream<Path> objects = Files.walk(root.resolve(OBJECTS), 3)) {
+                    objects.map(path -> path.getFileName().toString())
+                            .filter(hex -> hex.length() == 64 && !isReferenced(hex))
+                            .forEach(candidates::add);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            if (walked) {
+                collectAll = false;
+            }
+            return 0;
+        }
+        // a line that released an object must be on disk first, or a crash would replay it onto nothing
+        long forcedLines = forceIndex();
+        int deleted = 0;
+        for (String hex : candidates) {
+            Lock lock = locks.get(hex);
+            lock.lock();
+            try {
+                if (isCollectable(hex, forcedLines) && reclaimer.delete(objectPath(hex))) {
+                    deleted++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (walked) {
+            collectAll = false;
+        }
+        metrics.recordOperation("collect", StorageMetrics.ALL_VOLUMES, started);
+        return deleted;
+    }
+
+    private synchronized boolean isReferenced(String hex) {
+        return references.containsKey(hex);
+    }
+
+    private synchronized boolean isCollectable(String hex, long forcedLines) {
+        if (references.containsKey(hex) || released.getOrDefault(hex, 0L) > forcedLines) {
+            return false;
+        }
+        released.remove(hex);
+        return true;
+    }
+
+    /**
+     * @return the number of index lines now on disk
+     */
+    private long forceIndex() throws IOException {
+        Lock appending = indexLock.readLock();
+        appending.lock();
+        try {
+            FileChannel channel;
+            long lines;
+            synchronized (this) {
+                if (indexChannel == null) {
+                    return 0;
+                }
+                channel = indexChannel;
+                lines = indexLines;
+            }
+            channel.force(true);
+            return lines;
+        } finally {
+            appending.unlock();
+        }
+    }
+
+    private synchronized boolean needsCompaction() {
+        return indexWriter != null && indexLines > COMPACT_MIN_LINES && indexLines > 2L * index.size();
+    }
+
+    /**
+     * Rewrites the index with the current line of every name and swaps it in with a rename, a crash leaves
+     * either the old index or the new one. The new file is forced whatever the fsync policy, after the
+     * rename it is the only copy of the index
+     */
+    void compactIndex() throws IOException {
+        // taken before the monitor, as appending writers take the read lock
+        Lock compacting = indexLock.writeLock();
+        compacting.lock();
+        try {
+            synchronized (this) {
+                rewriteIndex();
+            }
+        } finally {
+            compacting.unlock();
+        }
+    }
+
+    private void rewriteIndex() throws IOException {
+        if (indexWriter == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        Path compacted = compactedIndexFile();
+        try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1);
+            for (Map.Entry<String, String> entry : index.entrySet()) {
+                writer.write(entry.getValue() + ' ' + entry.getKey() + '\n');
+            }
+            writer.flush();
+            channel.force(true);
+        }
+        closeIndex();
+        Files.move(compacted, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        fileSync.await(fileSync.syncDirectory(rootLocation));
+        indexLines = index.size();
+        // the forced rewrite holds every line that released an object, and it restarts the line count
+        released.clear();
+        openIndex();
+        metrics.recordOperation("compact", rootVolume, started);
+    }
+
+    private void openIndex() throws IOException {
+        indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        indexWriter = Channels.newWriter(indexChannel, StandardCharsets.UTF_8.newEncoder(), -1);
+    }
+
+    private Path compactedIndexFile() {
+        return indexFile.resolveSibling(indexFile.getFileName() + ".compact");
+    }
+
+    private void replayIndex() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                indexLines++;
+                int separator = line.indexOf(' ');
+                // a torn last line from a crash is simply skipped
+                if (separator == 64 && line.length() > separator + 1) {
+                    index.put(line.substring(separator + 1), line.substring(0, separator));
+                }
+            }
+        }
+        for (String hex : index.values()) {
+            references.merge(hex, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @return the channel to force, outside the lock so that writers can share a group commit
+     */
+    private synchronized FileChannel appendIndex(String name, String hex) throws IOException {
+        if (indexWriter == null) {
+            throw new StorageException("Storage is not initialized");
+        }
+        indexWriter.write(hex + ' ' + name + '\n');
+        indexWriter.flush();
+        indexLines++;
+        String replaced = index.put(name, hex);
+        if (!hex.equals(replaced)) {
+            references.merge(hex, 1, Integer::sum);
+            released.remove(hex);
+            if (replaced != null) {
+                release(replaced);
+            }
+        }
+        return indexChannel;
+    }
+
+    private void release(String hex) {
+        int count = references.get(hex) - 1;
+        if (count > 0) {
+            references.put(hex, count);
+        } else {
+            references.remove(hex);
+            released.put(hex, indexLines);
+        }
+    }
+
+    private void closeIndex() {
+        if (indexWriter != null) {
+            try {
+                indexWriter.close();
+            } catch (IOException ignored) {
+                // the index is rebuilt from scratch anyway
+            }
+            indexWriter = null;
+            indexChannel = null;
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        closeIndex();
+        fileSync.close();
+    }
+
+    /**
+     * The digest picks the volume, its first four hex digits the two shard directories
+     */
+    private Path objectPath(String hex) {
+        return layout.rootOf(hex).resolve(OBJECTS)
+                .resolve(hex.substring(0, 2)).resolve(hex.substring(2, 4)).resolve(hex);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,48 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sorted in-memory view of the stored file names, each with whether it is stored compressed.
+ * It is filled by one directory scan on init and then kept up to date by the store and delete
+ * paths, so listing never has to walk the upload directory again.
+ */
+class FileIndex {
+
+    private final NavigableMap<String, Boolean> names = new ConcurrentSkipListMap<>();
+
+    void add(String name, boolean compressed) {
+        names.put(name, compressed);
+    }
+
+    void remove(String name) {
+        names.remove(name);
+    }
+
+    void clear() {
+        names.clear();
+    }
+
+    /**
+     * False for names that are not indexed
+     */
+    boolean isCompressed(String name) {
+        return Boolean.TRUE.equals(names.get(name));
+    }
+
+    Stream<String> stream() {
+        return names.keySet().stream();
+    }
+
+    /**
+     * @param after cursor, the last name of the previous page or null for the first page
+     */
+    List<String> page(String after, int limit) {
+        NavigableMap<String, Boolean> tail = after == null ? names : names.tailMap(after, false);
+        return tail.keySet().stream().limit(limit).collect(Collectors.toList());
+    }
+}
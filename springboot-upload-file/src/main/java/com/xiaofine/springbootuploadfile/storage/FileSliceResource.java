@@ -0,0 +1,126 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The bytes {@code [start, start + length)} of one version of a file, reading fails once the file was replaced
+ */
+public class FileSliceResource extends AbstractResource {
+
+    private final Path path;
+
+    private final long start;
+
+    private final long length;
+
+    private final FileVersion version;
+
+    public FileSliceResource(Path path, long start, long length, FileVersion version) {
+        this.path = path;
+        this.start = start;
+        this.length = length;
+        this.version = version;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public long lastModified() {
+        return version.getLastModified();
+    }
+
+    @Override
+    public String getFilename() {
+        return path.getFileName().toString();
+    }
+
+    @Override
+    public String getDescription() {
+        return "bytes " + start + "-" + (start + length - 1) + " of file [" + path + "]";
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new SliceInputStream(version.open(path), start, start + length);
+    }
+
+    /**
+     * Positional reads on a file channel, bounded to a slice
+     */
+    static class SliceInputStream extends InputStream {
+
+        private final FileChannel channel;
+
+        private final long end;
+
+        private long position;
+
+        SliceInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int count = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, count), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
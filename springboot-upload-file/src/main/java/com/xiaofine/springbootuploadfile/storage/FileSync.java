@@ -0,0 +1,165 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the configured {@link FsyncPolicy} to files before they are renamed into place and to
+ * the directories they are renamed into.
+ */
+final class FileSync {
+
+    private static final Logger log = LoggerFactory.getLogger(FileSync.class);
+
+    private static final CompletableFuture<Void> COMMITTED = CompletableFuture.completedFuture(null);
+
+    private final FsyncPolicy policy;
+
+    private final StorageMetrics metrics;
+
+    private final ScheduledExecutorService flusher;
+
+    private Map<FileChannel, CompletableFuture<Void>> pendingFiles = new IdentityHashMap<>();
+
+    private Map<Path, CompletableFuture<Void>> pendingDirectories = new LinkedHashMap<>();
+
+    FileSync(FsyncPolicy policy, Duration groupCommitInterval, StorageMetrics metrics) {
+        this.policy = policy;
+        this.metrics = metrics;
+        if (policy == FsyncPolicy.GROUP_COMMIT) {
+            long interval = Math.max(1, groupCommitInterval.toMillis());
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("storage-fsync-");
+            threadFactory.setDaemon(true);
+            this.flusher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.flusher.scheduleWithFixedDelay(this::commit, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    /**
+     * Force the content written through the channel, blocks until it is durable under the policy
+     */
+    void sync(FileChannel channel) throws IOException {
+        if (policy == FsyncPolicy.NONE) {
+            return;
+        }
+        if (policy == FsyncPolicy.PER_FILE) {
+            forceFile(channel);
+            return;
+        }
+        CompletableFuture<Void> committed;
+        synchronized (this) {
+            if (flusher.isShutdown()) {
+                forceFile(channel);
+                return;
+            }
+            // a channel shared by several writers, like an append-only log, is forced once per batch
+            committed = pendingFiles.computeIfAbsent(channel, c -> new CompletableFuture<>());
+        }
+        await(committed);
+    }
+
+    /**
+     * Make a rename into the directory durable. Under group commit the directory is synced with the next
+     * batch, pass the result to {@link #await} before the rename is acknowledged, outside any lock held
+     * for the rename
+     */
+    CompletableFuture<Void> syncDirectory(Path directory) {
+        if (policy == FsyncPolicy.PER_FILE) {
+            forceDirectory(directory);
+        } else if (policy == FsyncPolicy.GROUP_COMMIT) {
+            synchronized (this) {
+                if (!flusher.isShutdown()) {
+                    return pendingDirectories.computeIfAbsent(directory, d -> new CompletableFuture<>());
+                }
+            }
+            forceDirectory(directory);
+        }
+        return COMMITTED;
+    }
+
+    /**
+     * Blocks until the batch behind the future is on disk
+     */
+    void await(CompletableFuture<Void> committed) throws IOException {
+        try {
+            committed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for group commit");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            commit();
+        }
+    }
+
+    private void commit() {
+        Map<FileChannel, CompletableFuture<Void>> files;
+        Map<Path, CompletableFuture<Void>> directories;
+        synchronized (this) {
+            if (pendingFiles.isEmpty() && pendingDirectories.isEmpty()) {
+                return;
+            }
+            files = pendingFiles;
+            directories = pendingDirectories;
+            pendingFiles = new IdentityHashMap<>();
+            pendingDirectories = new LinkedHashMap<>();
+        }
+        List<CompletableFuture<Void>> done = new ArrayList<>(files.size());
+        for (Map.Entry<FileChannel, CompletableFuture<Void>> entry : files.entrySet()) {
+            try {
+                forceFile(entry.getKey());
+                done.add(entry.getValue());
+            } catch (IOException e) {
+                entry.getValue().completeExceptionally(e);
+            }
+        }
+        for (Map.Entry<Path, CompletableFuture<Void>> entry : directories.entrySet()) {
+            forceDirectory(entry.getKey());
+            done.add(entry.getValue());
+        }
+        done.forEach(future -> future.complete(null));
+    }
+
+    private void forceFile(FileChannel channel) throws IOException {
+        long started = System.nanoTime();
+        channel.force(true);
+        metrics.recordFsync(policy, "file", started);
+    }
+
+    private void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            long started = System.nanoTime();
+            channel.force(true);
+            metrics.recordFsync(policy, "directory", started);
+        } catch (IOException e) {
+            // not every platform can open a directory, Windows for one
+            log.debug("Could not sync directory {}", directory, e);
+        }
+    }
+}
@@ -1,86 +1,335 @@
 package com.xiaofine.springbootuploadfile.storage;
 
+import com.xiaofine.springbootuploadfile.storage.cache.HotFileCache;
+import com.xiaofine.springbootuploadfile.storage.compression.CompressionCodec;
+import com.xiaofine.springbootuploadfile.storage.compression.CompressionSupport;
+import com.xiaofine.springbootuploadfile.storage.compression.GzipCodec;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
-import org.springframework.util.FileSystemUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Stream;
 
 @Service
+@ConditionalOnProperty(prefix = "storage", name = "backend", havingValue = "filesystem", matchIfMissing = true)
 public class FileSystemStorageService implements StorageService {
 
-    private final Path rootLocation;
+    private static final int LOCK_STRIPES = 256;
+
+    /**
+     * How long downloads of one version share a sendfile link
+     */
+    private static final long LINK_REUSE_MILLIS = 30_000;
+
+    private final StorageLayout layout;
+
+    private final FileIndex fileIndex = new FileIndex();
+
+    private final VersionLinks links;
+
+    private final CompressionSupport compression;
+
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+
+    private final FileSync fileSync;
+
+    private final HotFileCache cache;
+
+    private final StorageReclaimer reclaimer;
+
+    private final StorageProperties.Reclaim reclaim;
+
+    private final StorageMetrics metrics;
+
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
 
-    @Autowired
     public FileSystemStorageService(StorageProperties properties) {
-        this.rootLocation = Paths.get(properties.getLocation());
+        this(properties, Collections.singletonList(new GzipCodec(properties)), new HotFileCache(properties),
+                new StorageReclaimer(properties), new StorageMetrics(properties));
+    }
+
+    @Autowired
+    public FileSystemStorageService(StorageProperties properties, List<CompressionCodec> codecs, HotFileCache cache,
+                                    StorageReclaimer reclaimer, StorageMetrics metrics) {
+        this.layout = new StorageLayout(properties);
+        this.links = new VersionLinks(layout, LINK_REUSE_MILLIS);
+        this.cache = cache;
+        this.reclaimer = reclaimer;
+        this.metrics = metrics;
+        this.reclaim = properties.getReclaim();
+        this.compression = new CompressionSupport(properties.getCompression(), codecs);
+        this.fileSync = new FileSync(properties.getFsync(), properties.getGroupCommitInterval(), metrics);
     }
 
     @Override
     public void store(MultipartFile file) {
-        try {
-            if (file.isEmpty()) {
-                throw new StorageException("Failed to store empty file " + file.getOriginalFilename());
-            }
-            Files.copy(file.getInputStream(), this.rootLocation.resolve(file.getOriginalFilename()));
+        if (file.isEmpty()) {
+            throw new StorageException("Failed to store empty file " + file.getOriginalFilename());
+        }
+        try (InputStream inputStream = file.getInputStream()) {
+            store(file.getOriginalFilename(), inputStream);
         } catch (IOException e) {
             throw new StorageException("Failed to store file " + file.getOriginalFilename(), e);
         }
     }
 
+    /**
+     * Writes to a temporary file next to the target and renames it into place, replacing any file of the
+     * same name. Readers never see a partly written file, and of two concurrent uploads of one name the
+     * last to finish wins
+     */
     @Override
-    public Stream<Path> loadAll() {
+    public long store(String filename, InputStream inputStream) {
+        String name = StorageFiles.cleanFilename(filename);
+        String volume = layout.rootOf(name).toString();
+        boolean compressed = compression.shouldCompress(name);
+        Path target = layout.resolve(name);
+        Path tmp = StorageFiles.tempSibling(target);
+        long started = System.nanoTime();
+        try (StorageMetrics.Transfer transfer = metrics.startTransfer(StorageMetrics.UPLOAD, volume)) {
+            Files.createDirectories(target.getParent());
+            long size;
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                size = compressed
+                        ? compression.write(inputStream, channel)
+                        : StorageFiles.transfer(inputStream, channel);
+                if (size == 0) {
+                    throw new StorageException("Failed to store empty file " + filename);
+                }
+                fileSync.sync(channel);
+            }
+            publish(name, tmp, target, compressed);
+            transfer.complete(size);
+            metrics.recordOperation("store", volume, started);
+            return size;
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file " + filename, e);
+        } finally {
+            StorageFiles.deleteQuietly(tmp);
+        }
+    }
+
+    @Override
+    public long store(String filename, Path source) {
+        if (compression.shouldCompress(filename)) {
+            // compressing is a rewrite anyway, there is nothing to rename
+            try (InputStream inputStream = Files.newInputStream(source)) {
+                long size = store(filename, inputStream);
+                Files.delete(source);
+                return size;
+            } catch (IOException e) {
+                throw new StorageException("Failed to store file " + filename, e);
+            }
+        }
+        String name = StorageFiles.cleanFilename(filename);
+        Path target = layout.resolve(name);
+        long started = System.nanoTime();
         try {
-            return Files.walk(this.rootLocation, 1)
-                    .filter(path -> !path.equals(this.rootLocation))
-                    .map(path -> this.rootLocation.relativize(path));
+            long size;
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                size = channel.size();
+                fileSync.sync(channel);
+            }
+            Files.createDirectories(target.getParent());
+            publish(name, source, target, false);
+            metrics.recordOperation("store", layout.rootOf(name).toString(), started);
+            return size;
         } catch (IOException e) {
-            throw new StorageException("Failed to read stored files", e);
+            throw new StorageException("Failed to store file " + filename, e);
         }
+    }
 
+    /**
+     * The rename and the index update happen under the name's lock, so they are seen in the same order.
+     * Returns once the rename is durable, the wait for a group commit happens after the lock is released
+     */
+    private void publish(String name, Path source, Path target, boolean compressed) throws IOException {
+        Path stored = compressed ? StorageFiles.compressedSibling(target) : target;
+        Path replaced = compressed ? target : StorageFiles.compressedSibling(target);
+        CompletableFuture<Void> moved;
+        CompletableFuture<Void> renamed;
+        Lock lock = locks.get(name);
+        lock.lock();
+        try {
+            moved = StorageFiles.move(source, stored, fileSync);
+            // the same name stored before compression was switched on or off
+            Files.deleteIfExists(replaced);
+            renamed = fileSync.syncDirectory(target.getParent());
+            fileIndex.add(name, compressed);
+            cache.invalidate(name);
+        } finally {
+            lock.unlock();
+        }
+        fileSync.await(moved);
+        fileSync.await(renamed);
     }
 
+    @Override
+    public Stream<Path> loadAll() {
+        return fileIndex.stream().map(Paths::get);
+    }
+
+    @Override
+    public List<String> list(String after, int limit) {
+        long started = System.nanoTime();
+        List<String> page = fileIndex.page(after, limit);
+        metrics.recordOperation("list", StorageMetrics.ALL_VOLUMES, started);
+        return page;
+    }
+
+    /**
+     * Where the stored bytes are, for a compressed file that is the compressed form
+     */
     @Override
     public Path load(String filename) {
-        return rootLocation.resolve(filename);
+        Path file = layout.resolve(filename);
+        return fileIndex.isCompressed(filename) ? StorageFiles.compressedSibling(file) : file;
     }
 
     @Override
     public Resource loadAsResource(String filename) {
+        long started = System.nanoTime();
         try {
-            Path file = load(filename);
-            Resource resource = new UrlResource(file.toUri());
-            if(resource.exists() || resource.isReadable()) {
-                return resource;
+            Resource cached = cache.get(filename);
+            if (cached != null) {
+                return cached;
             }
-            else {
-                throw new StorageFileNotFoundException("Could not read file: " + filename);
-
+            if (fileIndex.isCompressed(filename)) {
+                return compression.open(load(filename));
             }
-        } catch (MalformedURLException e) {
-            throw new StorageFileNotFoundException("Could not read file: " + filename, e);
+            Path file = layout.resolve(filename);
+            try {
+                // length and last modified are taken once, a replace while serving fails the read instead
+                return cache.admit(filename, new StoredFileResource(file, FileVersion.of(file), links));
+            } catch (IOException e) {
+                throw new StorageFileNotFoundException("Could not read file: " + filename, e);
+            }
+        } finally {
+            metrics.recordOperation("load", layout.rootOf(filename).toString(), started);
         }
     }
 
+    /**
+     * Returns as soon as the volumes are renamed away, their content is deleted in the background
+     */
     @Override
     public void deleteAll() {
-        FileSystemUtils.deleteRecursively(rootLocation.toFile());
+        long started = System.nanoTime();
+        fileIndex.clear();
+        for (Path root : layout.getRoots()) {
+            reclaimer.discard(root);
+        }
+        cache.clear();
+        metrics.recordOperation("delete-all", StorageMetrics.ALL_VOLUMES, started);
+    }
+
+    /**
+     * One sweep over the index in batches, deleting files not written for longer than the ttl.
+     * The modification time is checked under the name's lock, so a file stored again meanwhile is kept
+     *
+     * @return the number of files deleted
+     */
+    int expire() {
+        if (reclaim.getTtl() == null) {
+            return 0;
+        }
+        long started = System.nanoTime();
+        long cutoff = System.currentTimeMillis() - reclaim.getTtl().toMillis();
+        int expired = 0;
+        List<String> batch = fileIndex.page(null, reclaim.getBatchSize());
+        while (!batch.isEmpty()) {
+            for (String name : batch) {
+                if (expire(name, cutoff)) {
+                    expired++;
+                }
+            }
+            batch = batch.size() < reclaim.getBatchSize()
+                    ? Collections.emptyList() : fileIndex.page(batch.get(batch.size() - 1), reclaim.getBatchSize());
+        }
+        metrics.recordOperation("expire", StorageMetrics.ALL_VOLUMES, started);
+        return expired;
+    }
+
+    private boolean expire(String name, long cutoff) {
+        Path expired;
+        Lock lock = locks.get(name);
+        lock.lock();
+        try {
+            Path file = load(name);
+            if (Files.getLastModifiedTime(file).toMillis() >= cutoff) {
+                return false;
+            }
+            // renamed away under the lock, so a store of the name right after keeps its file
+            expired = StorageFiles.tempSibling(file);
+            Files.move(file, expired, StandardCopyOption.ATOMIC_MOVE);
+            fileIndex.remove(name);
+            cache.invalidate(name);
+        } catch (NoSuchFileException e) {
+            fileIndex.remove(name);
+            return false;
+        } catch (IOException e) {
+            throw new StorageException("Failed to expire file " + name, e);
+        } finally {
+            lock.unlock();
+        }
+        // the rate limited delete may wait, it must not hold up stores to the names of the stripe
+        try {
+            reclaimer.delete(expired);
+        } catch (IOException e) {
+            throw new StorageException("Failed to delete expired file " + name, e);
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void close() {
+        fileSync.close();
     }
 
     @Override
     public void init() {
         try {
-            Files.createDirectory(rootLocation);
+            for (Path root : layout.getRoots()) {
+                reclaimer.recover(root);
+            }
+            layout.createRoots();
+            for (Path root : layout.getRoots()) {
+                links.clear(root);
+            }
+            // the only directory scan, afterwards the index is maintained by store and delete
+            for (Path root : layout.getRoots()) {
+                long started = System.nanoTime();
+                for (String name : layout.scan(root)) {
+                    fileIndex.add(StorageFiles.storedName(name), StorageFiles.isCompressed(name));
+                }
+                metrics.recordOperation("scan", root.toString(), started);
+            }
         } catch (IOException e) {
             throw new StorageException("Could not initialize storage", e);
         }
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            reclaimer.schedule(links::sweep, Duration.ofMillis(LINK_REUSE_MILLIS));
+            if (reclaim.getTtl() != null) {
+                reclaimer.schedule(this::expire, reclaim.getInterval());
+            }
+        }
     }
 }
@@ -0,0 +1,83 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * One version of a stored file, taken when a download starts. A store of the same name renames a new file
+ * over the old one and expiry deletes it, so opening the path again later may find other bytes than the
+ * ones the ETag and Content-Length were computed from. {@link #open(Path)} fails in that case instead.
+ */
+public final class FileVersion {
+
+    private final Object fileKey;
+
+    private final long size;
+
+    private final long lastModified;
+
+    private FileVersion(Object fileKey, long size, long lastModified) {
+        this.fileKey = fileKey;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public static FileVersion of(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileVersion(attributes.fileKey(), attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * The file system's identity of the file, e.g. device and inode, null where there is none
+     */
+    public Object getFileKey() {
+        return fileKey;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Open the path for reading, provided it still is this version. The path is checked after opening:
+     * if it was this version then, it was so when opened, a replaced file never comes back
+     */
+    public FileChannel open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (!equals(of(path))) {
+                throw new IOException("File was replaced while being served: " + path);
+            }
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FileVersion)) {
+            return false;
+        }
+        FileVersion version = (FileVersion) other;
+        return size == version.size && lastModified == version.lastModified && Objects.equals(fileKey, version.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fileKey, size, lastModified);
+    }
+}
@@ -0,0 +1,23 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+/**
+ * When stored files are forced to disk before they become visible
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Leave it to the OS, a crash can lose files stored in the last few seconds
+     */
+    NONE,
+
+    /**
+     * fsync every file before its rename and its directory after, store() returns once both are on disk
+     */
+    PER_FILE,
+
+    /**
+     * Like PER_FILE, but a background thread forces everything stored during one interval together and
+     * syncs each touched directory only once. Writers wait for their batch, trading latency for throughput
+     */
+    GROUP_COMMIT
+}
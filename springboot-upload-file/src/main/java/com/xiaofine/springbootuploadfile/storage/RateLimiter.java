@@ -0,0 +1,39 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces operations evenly at a fixed rate across all threads that share it
+ */
+final class RateLimiter {
+
+    private final long intervalNanos;
+
+    private long next;
+
+    /**
+     * @param permitsPerSecond 0 or less for no limit
+     */
+    RateLimiter(int permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+    }
+
+    void acquire() throws InterruptedException {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (next - now < 0) {
+                // idle time is not saved up, a long pause does not allow a burst afterwards
+                next = now;
+            }
+            wait = next - now;
+            next += intervalNanos;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * File helpers shared by the storage implementations
+ */
+public final class StorageFiles {
+
+    /**
+     * Upper bound for a single transferFrom call, the JDK copies through a small
+     * temporary direct buffer so the heap footprint stays fixed whatever the file size
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private static final String TEMP_PREFIX = ".";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String COMPRESSED_SUFFIX = ".zblk";
+
+    private StorageFiles() {
+    }
+
+    /**
+     * The name a file is stored under, rejecting names that cannot be stored
+     */
+    public static String cleanFilename(String filename) {
+        String name = StringUtils.cleanPath(filename == null ? "" : filename);
+        if (name.isEmpty() || name.contains("..") || name.contains("/")) {
+            throw new StorageException("Cannot store file with relative path outside current directory " + filename);
+        }
+        if (isTemp(name)) {
+            throw new StorageException("Cannot store file with a temporary file name " + filename);
+        }
+        if (isCompressed(name)) {
+            throw new StorageException("Cannot store file with a reserved file name " + filename);
+        }
+        if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+            throw new StorageException("Cannot store file with line breaks in its name " + filename);
+        }
+        return name;
+    }
+
+    /**
+     * Move everything from the stream into the channel, the stream is not closed
+     */
+    static long transfer(InputStream inputStream, FileChannel channel) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(inputStream);
+        long position = 0;
+        long transferred;
+        while ((transferred = channel.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+            position += transferred;
+        }
+        return position;
+    }
+
+    /**
+     * A fresh temporary name in the target's directory, so it can be renamed over the target atomically
+     */
+    static Path tempSibling(Path target) {
+        return target.resolveSibling(TEMP_PREFIX + UUID.randomUUID() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Whether the name is one of ours from {@link #tempSibling(Path)}, e.g. left behind by a crash
+     */
+    static boolean isTemp(String name) {
+        return name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * Where the file is kept when it is stored compressed. Only the name tells a compressed file from a raw one,
+     * the content is never sniffed, since a raw upload can contain anything
+     */
+    static Path compressedSibling(Path target) {
+        return target.resolveSibling(target.getFileName() + COMPRESSED_SUFFIX);
+    }
+
+    static boolean isCompressed(String name) {
+        return name.endsWith(COMPRESSED_SUFFIX);
+    }
+
+    /**
+     * The stored name of a file found on disk, without the suffix of {@link #compressedSibling(Path)}
+     */
+    static String storedName(String name) {
+        return isCompressed(name) ? name.substring(0, name.length() - COMPRESSED_SUFFIX.length()) : name;
+    }
+
+    /**
+     * Rename the file into place, replacing any file of the same name. Readers see either the old or the
+     * new file, never a mix. When the target is on another volume the content is first copied next to the
+     * target, so the file still appears there in one atomic rename
+     *
+     * @return the sync of the source's directory after a copy, pass it to {@link FileSync#await} with the
+     * target directory's sync
+     */
+    static CompletableFuture<Void> move(Path source, Path target, FileSync fileSync) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return CompletableFuture.completedFuture(null);
+        } catch (AtomicMoveNotSupportedException e) {
+            return moveByCopy(source, target, fileSync);
+        }
+    }
+
+    /**
+     * The copy is a new file, it is forced before it replaces the target as the source was before the move.
+     * Until the source's directory is synced a crash can bring the deleted source back next to the target
+     */
+    static CompletableFuture<Void> moveByCopy(Path source, Path target, FileSync fileSync) throws IOException {
+        Path tmp = tempSibling(target);
+        try {
+            Files.copy(source, tmp);
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                fileSync.sync(channel);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteQuietly(tmp);
+        }
+        Files.delete(source);
+        return fileSync.syncDirectory(source.getParent());
+    }
+
+    static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // the original failure is the one worth reporting
+        }
+    }
+}
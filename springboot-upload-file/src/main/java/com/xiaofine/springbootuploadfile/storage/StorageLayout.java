@@ -0,0 +1,167 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Maps a key (a file name or a digest) to a volume and a fan-out directory on it.
+ * <p>
+ * The volume is picked by weighted rendezvous hashing, so any instance can compute it
+ * without an index, names spread over the volumes in proportion to their weights and adding
+ * a volume only moves the share of files that now belongs to it. Below the volume root,
+ * {@code shardDepth} levels of two hex digit directories keep each directory small,
+ * e.g. {@code /disk2/3f/a0/report.csv} for a depth of 2.
+ */
+public class StorageLayout {
+
+    private static final String[] HEX_BUCKETS = new String[256];
+
+    static {
+        for (int i = 0; i < HEX_BUCKETS.length; i++) {
+            HEX_BUCKETS[i] = String.format("%02x", i);
+        }
+    }
+
+    private final List<Path> roots;
+
+    private final double[] weights;
+
+    private final int shardDepth;
+
+    public StorageLayout(StorageProperties properties) {
+        List<StorageProperties.Volume> volumes = properties.getVolumes();
+        if (volumes.isEmpty()) {
+            volumes = Collections.singletonList(new StorageProperties.Volume(properties.getLocation(), 1));
+        }
+        List<Path> paths = new ArrayList<>();
+        this.weights = new double[volumes.size()];
+        for (int i = 0; i < volumes.size(); i++) {
+            StorageProperties.Volume volume = volumes.get(i);
+            if (volume.getWeight() <= 0) {
+                throw new IllegalArgumentException("Volume weight must be positive: " + volume.getLocation());
+            }
+            paths.add(Paths.get(volume.getLocation()));
+            this.weights[i] = volume.getWeight();
+        }
+        if (properties.getShardDepth() < 0 || properties.getShardDepth() > 4) {
+            throw new IllegalArgumentException("Shard depth must be between 0 and 4");
+        }
+        this.roots = Collections.unmodifiableList(paths);
+        this.shardDepth = properties.getShardDepth();
+    }
+
+    public List<Path> getRoots() {
+        return roots;
+    }
+
+    public int getShardDepth() {
+        return shardDepth;
+    }
+
+    /**
+     * Volume root the key is placed on
+     */
+    public Path rootOf(String key) {
+        if (roots.size() == 1) {
+            return roots.get(0);
+        }
+        long hash = hash(key);
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < roots.size(); i++) {
+            // uniform in (0, 1), -weight / ln(u) is the weighted rendezvous score
+            double u = ((mix(hash + i * 0x9E3779B97F4A7C15L) >>> 11) + 0.5) / (1L << 53);
+            double score = -weights[i] / Math.log(u);
+            if (score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return roots.get(best);
+    }
+
+    /**
+     * Full path of the key: volume root, shard directories, then the key itself
+     */
+    public Path resolve(String key) {
+        return shardDirectory(rootOf(key), key).resolve(key);
+    }
+
+    /**
+     * Shard directories for the key below the given base directory
+     */
+    public Path shardDirectory(Path base, String key) {
+        if (shardDepth == 0) {
+            return base;
+        }
+        long hash = mix(hash(key));
+        Path dir = base;
+        for (int level = 0; level < shardDepth; level++) {
+            int bucket = (int) (hash >>> (level * 8)) & 0xff;
+            dir = dir.resolve(HEX_BUCKETS[bucket]);
+        }
+        return dir;
+    }
+
+    public void createRoots() throws IOException {
+        for (Path root : roots) {
+            Files.createDirectories(root);
+        }
+    }
+
+    /**
+     * Names of all files on all volumes, walks exactly the shard levels. Temporary files of
+     * unfinished writes are skipped
+     */
+    public List<String> scan() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Path root : roots) {
+            names.addAll(scan(root));
+        }
+        return names;
+    }
+
+    /**
+     * Names of all files on one volume
+     */
+    public List<String> scan(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root, shardDepth + 1)) {
+            return files
+                    .filter(path -> root.relativize(path).getNameCount() == shardDepth + 1)
+                    .filter(path -> !VersionLinks.DIRECTORY.equals(root.relativize(path).getName(0).toString()))
+                    .filter(Files::isRegularFile)
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> !StorageFiles.isTemp(name))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a over the UTF-8 bytes
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads FNV's weak low bits
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,225 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer meters of the storage layer, all under {@code storage.*} and tagged with the operation
+ * and the volume root it ran against:
+ * <ul>
+ * <li>{@code storage.operation}: latency of store, load, list, scan, replay, delete-all and expire</li>
+ * <li>{@code storage.transfer}, {@code storage.transfer.bytes}, {@code storage.transfer.throughput}:
+ * duration, size and bytes per second of each upload and download</li>
+ * <li>{@code storage.transfer.first.byte}: time until the first byte of a download was written</li>
+ * <li>{@code storage.transfers.active}: uploads and downloads in progress</li>
+ * <li>{@code storage.fsync}: latency of each file and directory force</li>
+ * <li>{@code storage.volume.usable} and {@code storage.volume.total}: space on each volume</li>
+ * </ul>
+ * A volume whose throughput drops while its fsync latency and active transfers climb is saturated.
+ */
+@Component
+public class StorageMetrics {
+
+    public static final String UPLOAD = "upload";
+
+    public static final String DOWNLOAD = "download";
+
+    /**
+     * Volume tag of work that spans all volumes
+     */
+    public static final String ALL_VOLUMES = "all";
+
+    /**
+     * Volume tag of paths outside the configured volumes, e.g. the staging directory
+     */
+    public static final String OTHER_VOLUME = "other";
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Path> volumes = new LinkedHashMap<>();
+
+    private final AtomicInteger activeUploads = new AtomicInteger();
+
+    private final AtomicInteger activeDownloads = new AtomicInteger();
+
+    public StorageMetrics(StorageProperties properties) {
+        this(properties, new SimpleMeterRegistry());
+    }
+
+    @Autowired
+    public StorageMetrics(StorageProperties properties, MeterRegistry registry) {
+        this.registry = registry;
+        for (Path root : new StorageLayout(properties).getRoots()) {
+            Path volume = root.toAbsolutePath().normalize();
+            volumes.put(root.toString(), volume);
+            Gauge.builder("storage.volume.usable", volume, path -> path.toFile().getUsableSpace())
+                    .tag("volume", root.toString())
+                    .description("Space left for new files")
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder("storage.volume.total", volume, path -> path.toFile().getTotalSpace())
+                    .tag("volume", root.toString())
+                    .baseUnit("bytes")
+                    .register(registry);
+        }
+        Gauge.builder("storage.transfers.active", activeUploads, AtomicInteger::get)
+                .tag("operation", UPLOAD)
+                .register(registry);
+        Gauge.builder("storage.transfers.active", activeDownloads, AtomicInteger::get)
+                .tag("operation", DOWNLOAD)
+                .register(registry);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Volume tags and the absolute roots they stand for
+     */
+    public Map<String, Path> getVolumes() {
+        return Collections.unmodifiableMap(volumes);
+    }
+
+    /**
+     * Volume tag of a file or directory, the volume root it lies under
+     */
+    public String volumeOf(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        for (Map.Entry<String, Path> volume : volumes.entrySet()) {
+            if (absolute.startsWith(volume.getValue())) {
+                return volume.getKey();
+            }
+        }
+        return OTHER_VOLUME;
+    }
+
+    /**
+     * @param started {@link System#nanoTime()} when the operation began
+     */
+    public void recordOperation(String operation, String volume, long started) {
+        Timer.builder("storage.operation")
+                .tags(Tags.of("operation", operation, "volume", volume))
+                .register(registry)
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param target what was forced: file or directory
+     */
+    void recordFsync(FsyncPolicy policy, String target, long started) {
+        Timer.builder("storage.fsync")
+                .tags(Tags.of("policy", policy.name().toLowerCase(), "target", target))
+                .register(registry)
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts the transfer as active until it is completed or closed
+     *
+     * @param operation {@link #UPLOAD} or {@link #DOWNLOAD}
+     */
+    public Transfer startTransfer(String operation, String volume) {
+        AtomicInteger active = UPLOAD.equals(operation) ? activeUploads : activeDownloads;
+        active.incrementAndGet();
+        return new Transfer(operation, volume, active);
+    }
+
+    /**
+     * One upload or download. Closing it without completing it only ends it, as for an aborted transfer
+     */
+    public final class Transfer implements AutoCloseable {
+
+        private final String operation;
+
+        private final Tags tags;
+
+        private final AtomicInteger active;
+
+        private final long started = System.nanoTime();
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private volatile boolean firstByteWritten;
+
+        private Transfer(String operation, String volume, AtomicInteger active) {
+            this.operation = operation;
+            this.tags = Tags.of("operation", operation, "volume", volume);
+            this.active = active;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public void firstByte() {
+            if (!firstByteWritten) {
+                firstByteWritten = true;
+                Timer.builder("storage.transfer.first.byte")
+                        .tags(tags)
+                        .register(registry)
+                        .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Records duration, size and throughput of the finished transfer
+         */
+        public void complete(long bytes) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            long elapsed = System.nanoTime() - started;
+            active.decrementAndGet();
+            Timer.builder("storage.transfer").tags(tags).register(registry).record(elapsed, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder("storage.transfer.bytes")
+                    .tags(tags)
+                    .baseUnit("bytes")
+                    .register(registry)
+                    .record(bytes);
+            if (bytes > 0 && elapsed > 0) {
+                DistributionSummary.builder("storage.transfer.throughput")
+                        .tags(tags)
+                        .description("Bytes per second of each transfer")
+                        .baseUnit("bytes.per.second")
+                        .register(registry)
+                        .record(bytes * 1e9 / elapsed);
+            }
+        }
+
+        /**
+         * Records only the size, for a body the connector sends later by itself
+         */
+        public void handOff(long bytes) {
+            if (closed.compareAndSet(false, true)) {
+                active.decrementAndGet();
+                DistributionSummary.builder("storage.transfer.bytes")
+                        .tags(tags)
+                        .baseUnit("bytes")
+                        .register(registry)
+                        .record(bytes);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                active.decrementAndGet();
+            }
+        }
+    }
+}
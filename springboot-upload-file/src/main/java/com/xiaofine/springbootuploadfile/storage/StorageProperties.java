@@ -2,6 +2,12 @@ package com.xiaofine.springbootuploadfile.storage;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 @Configuration
 @ConfigurationProperties("storage")
@@ -12,6 +18,78 @@ public class StorageProperties {
      */
     private String location = "upload-dir";
 
+    /**
+     * Optional list of volumes to spread files over, each with a relative weight.
+     * When empty, everything goes to {@code location}
+     */
+    private List<Volume> volumes = new ArrayList<>();
+
+    /**
+     * Levels of two hex digit directories below each volume, 0 keeps the directory flat.
+     * Two levels give 65536 directories, enough to keep millions of files fast to look up
+     */
+    private int shardDepth = 0;
+
+    /**
+     * Storage implementation, "filesystem" keeps files under their own names,
+     * "content-addressed" stores each distinct content once and maps names to digests
+     */
+    private String backend = "filesystem";
+
+    /**
+     * Folder for chunked uploads in progress, keep it on the same volume as the location
+     * so completed uploads can be renamed into place
+     */
+    private String stagingLocation = "upload-staging";
+
+    /**
+     * Default part size of a chunked upload
+     */
+    private DataSize partSize = DataSize.ofMegabytes(8);
+
+    /**
+     * Smallest part size a client may ask for, only the last part may be shorter
+     */
+    private DataSize minPartSize = DataSize.ofKilobytes(64);
+
+    /**
+     * Largest file a chunked upload may announce, its staging file is preallocated to that size
+     */
+    private DataSize maxUploadSize = DataSize.ofTerabytes(5);
+
+    /**
+     * Most parts a single chunked upload may have
+     */
+    private int maxParts = 10000;
+
+    /**
+     * Most chunked uploads that may be in progress at once, each keeps its staging file open
+     */
+    private int maxOpenUploads = 1000;
+
+    /**
+     * Chunked uploads with no part written for this long are aborted and their staging file deleted
+     */
+    private Duration uploadExpiry = Duration.ofHours(24);
+
+    /**
+     * When stored files are forced to disk, see {@link FsyncPolicy}
+     */
+    private FsyncPolicy fsync = FsyncPolicy.NONE;
+
+    /**
+     * How long the GROUP_COMMIT policy collects files before forcing them together
+     */
+    private Duration groupCommitInterval = Duration.ofMillis(10);
+
+    private final Compression compression = new Compression();
+
+    private final Async async = new Async();
+
+    private final Cache cache = new Cache();
+
+    private final Reclaim reclaim = new Reclaim();
+
     public String getLocation() {
         return location;
     }
@@ -20,4 +98,397 @@ public class StorageProperties {
         this.location = location;
     }
 
+    public List<Volume> getVolumes() {
+        return volumes;
+    }
+
+    public void setVolumes(List<Volume> volumes) {
+        this.volumes = volumes;
+    }
+
+    public int getShardDepth() {
+        return shardDepth;
+    }
+
+    public void setShardDepth(int shardDepth) {
+        this.shardDepth = shardDepth;
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    public String getStagingLocation() {
+        return stagingLocation;
+    }
+
+    public void setStagingLocation(String stagingLocation) {
+        this.stagingLocation = stagingLocation;
+    }
+
+    public DataSize getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(DataSize partSize) {
+        this.partSize = partSize;
+    }
+
+    public DataSize getMinPartSize() {
+        return minPartSize;
+    }
+
+    public void setMinPartSize(DataSize minPartSize) {
+        this.minPartSize = minPartSize;
+    }
+
+    public DataSize getMaxUploadSize() {
+        return maxUploadSize;
+    }
+
+    public void setMaxUploadSize(DataSize maxUploadSize) {
+        this.maxUploadSize = maxUploadSize;
+    }
+
+    public int getMaxParts() {
+        return maxParts;
+    }
+
+    public void setMaxParts(int maxParts) {
+        this.maxParts = maxParts;
+    }
+
+    public int getMaxOpenUploads() {
+        return maxOpenUploads;
+    }
+
+    public void setMaxOpenUploads(int maxOpenUploads) {
+        this.maxOpenUploads = maxOpenUploads;
+    }
+
+    public Duration getUploadExpiry() {
+        return uploadExpiry;
+    }
+
+    public void setUploadExpiry(Duration uploadExpiry) {
+        this.uploadExpiry = uploadExpiry;
+    }
+
+    public FsyncPolicy getFsync() {
+        return fsync;
+    }
+
+    public void setFsync(FsyncPolicy fsync) {
+        this.fsync = fsync;
+    }
+
+    public Duration getGroupCommitInterval() {
+        return groupCommitInterval;
+    }
+
+    public void setGroupCommitInterval(Duration groupCommitInterval) {
+        this.groupCommitInterval = groupCommitInterval;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public Async getAsync() {
+        return async;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public Reclaim getReclaim() {
+        return reclaim;
+    }
+
+    public static class Volume {
+
+        /**
+         * Folder on the volume, e.g. /mnt/disk1/upload-dir
+         */
+        private String location;
+
+        /**
+         * Relative share of new files, e.g. 2 for a volume twice as large as one with 1
+         */
+        private double weight = 1;
+
+        public Volume() {
+        }
+
+        public Volume(String location, double weight) {
+            this.location = location;
+            this.weight = weight;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public void setLocation(String location) {
+            this.location = location;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public void setWeight(double weight) {
+            this.weight = weight;
+        }
+    }
+
+    public static class Compression {
+
+        /**
+         * Compress files with one of the listed extensions when they are stored
+         */
+        private boolean enabled = false;
+
+        /**
+         * Name of the CompressionCodec to write with, files are always read with the codec they were written with
+         */
+        private String codec = "gzip";
+
+        /**
+         * Uncompressed bytes per block, a range request decompresses at most one block it does not need
+         */
+        private DataSize blockSize = DataSize.ofKilobytes(256);
+
+        /**
+         * Codec specific level, for gzip 1 (fastest) to 9 (smallest)
+         */
+        private int level = 6;
+
+        private List<String> extensions = new ArrayList<>(Arrays.asList("log", "csv", "json", "txt", "xml"));
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getCodec() {
+            return codec;
+        }
+
+        public void setCodec(String codec) {
+            this.codec = codec;
+        }
+
+        public DataSize getBlockSize() {
+            return blockSize;
+        }
+
+        public void setBlockSize(DataSize blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public void setLevel(int level) {
+            this.level = level;
+        }
+
+        public List<String> getExtensions() {
+            return extensions;
+        }
+
+        public void setExtensions(List<String> extensions) {
+            this.extensions = extensions;
+        }
+    }
+
+    public static class Async {
+
+        /**
+         * Serve uploads and downloads with non-blocking servlet I/O, so a slow client does not hold a worker thread
+         */
+        private boolean enabled = false;
+
+        /**
+         * Path the non-blocking endpoints are mapped under, next to the regular /files
+         */
+        private String path = "/async/files";
+
+        /**
+         * Longest a single upload or download may take
+         */
+        private Duration timeout = Duration.ofMinutes(10);
+
+        /**
+         * Size of the buffer each connection reads and writes through
+         */
+        private DataSize bufferSize = DataSize.ofKilobytes(64);
+
+        /**
+         * Threads that complete file reads and writes, and publish finished uploads
+         */
+        private int ioThreads = 4;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public DataSize getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(DataSize bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        public int getIoThreads() {
+            return ioThreads;
+        }
+
+        public void setIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+        }
+    }
+
+    public static class Cache {
+
+        /**
+         * Keep small, popular files in memory, see HotFileCache
+         */
+        private boolean enabled = false;
+
+        /**
+         * Off-heap memory the cache may use, also counts against -XX:MaxDirectMemorySize
+         */
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+
+        /**
+         * Larger files are never cached, they are better served with sendfile
+         */
+        private DataSize maxFileSize = DataSize.ofKilobytes(256);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public DataSize getMaxFileSize() {
+            return maxFileSize;
+        }
+
+        public void setMaxFileSize(DataSize maxFileSize) {
+            this.maxFileSize = maxFileSize;
+        }
+    }
+
+    public static class Reclaim {
+
+        /**
+         * Threads deleting discarded directories and running the expiry sweep
+         */
+        private int threads = 2;
+
+        /**
+         * Upper bound on file deletions per second over all threads, 0 for no limit
+         */
+        private int maxDeletesPerSecond = 10000;
+
+        /**
+         * Stored files not written for longer than this are deleted, unset to keep files forever
+         */
+        private Duration ttl;
+
+        /**
+         * Pause between two expiry sweeps, and between two index compaction checks of the content-addressed
+         * backend
+         */
+        private Duration interval = Duration.ofMinutes(1);
+
+        /**
+         * Names the expiry sweep takes from the index at a time
+         */
+        private int batchSize = 1000;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getMaxDeletesPerSecond() {
+            return maxDeletesPerSecond;
+        }
+
+        public void setMaxDeletesPerSecond(int maxDeletesPerSecond) {
+            this.maxDeletesPerSecond = maxDeletesPerSecond;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
 }
@@ -0,0 +1,188 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes directories in the background. A directory is first renamed out of the way, which is
+ * instant whatever its size, and then taken apart by a few threads in parallel, one subdirectory
+ * per task, with all file deletions sharing one rate limit so the disk stays available for uploads.
+ * Directories left half deleted by a crash are picked up again by {@link #recover(Path)}.
+ */
+@Component
+public class StorageReclaimer {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageReclaimer.class);
+
+    private static final String TRASH_MARKER = ".trash-";
+
+    private final ScheduledExecutorService executor;
+
+    private final RateLimiter rateLimiter;
+
+    /**
+     * Trash directories being deleted right now, so recover() does not start on them a second time
+     */
+    private final Set<Path> inProgress = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public StorageReclaimer(StorageProperties properties) {
+        StorageProperties.Reclaim reclaim = properties.getReclaim();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("storage-reclaim-");
+        threadFactory.setDaemon(true);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(reclaim.getThreads(), threadFactory);
+        executor.setRemoveOnCancelPolicy(true);
+        this.executor = executor;
+        this.rateLimiter = new RateLimiter(reclaim.getMaxDeletesPerSecond());
+    }
+
+    /**
+     * Make the directory disappear right away and delete its content in the background
+     *
+     * @return completes once everything is deleted
+     */
+    public CompletableFuture<Void> discard(Path directory) {
+        if (!Files.exists(directory)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Path trash = trashFor(directory);
+        try {
+            Files.move(directory, trash, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // e.g. a mount point, which cannot be renamed, fall back to the slow way
+            log.warn("Could not move {} away, deleting it in place", directory, e);
+            FileSystemUtils.deleteRecursively(directory.toFile());
+            return CompletableFuture.completedFuture(null);
+        }
+        return reclaim(trash);
+    }
+
+    /**
+     * Resume deleting whatever earlier discards of the directory left behind
+     */
+    public void recover(Path directory) {
+        Path parent = directory.toAbsolutePath().getParent();
+        if (parent == null || !Files.isDirectory(parent)) {
+            return;
+        }
+        String prefix = trashPrefix(directory);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(parent,
+                path -> path.getFileName().toString().startsWith(prefix))) {
+            for (Path leftover : leftovers) {
+                if (!inProgress.contains(leftover)) {
+                    reclaim(leftover);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not look for leftovers of {}", directory, e);
+        }
+    }
+
+    /**
+     * Delete one file, waiting for the shared rate limit
+     */
+    public boolean delete(Path file) throws IOException {
+        try {
+            rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to delete " + file);
+        }
+        return Files.deleteIfExists(file);
+    }
+
+    /**
+     * Run a job on the reclaimer threads every interval, e.g. an expiry sweep
+     */
+    public void schedule(Runnable job, Duration interval) {
+        long millis = interval.toMillis();
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                job.run();
+            } catch (RuntimeException e) {
+                // keep the schedule alive, the next run may well succeed
+                log.warn("Storage maintenance job failed", e);
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        // unfinished deletions are resumed by recover() on the next start
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<Void> reclaim(Path trash) {
+        inProgress.add(trash);
+        return CompletableFuture.supplyAsync(() -> reclaimTree(trash), executor)
+                .thenCompose(done -> done)
+                .whenComplete((ignored, failure) -> {
+                    inProgress.remove(trash);
+                    if (failure != null) {
+                        log.warn("Could not delete {}", trash, failure);
+                    }
+                });
+    }
+
+    /**
+     * Deletes the files of one directory, fans out one task per subdirectory and removes the
+     * directory itself once they are all done. Nothing ever blocks waiting for another task.
+     */
+    private CompletableFuture<Void> reclaimTree(Path directory) {
+        List<CompletableFuture<Void>> subdirectories = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    subdirectories.add(CompletableFuture.supplyAsync(() -> reclaimTree(entry), executor)
+                            .thenCompose(done -> done));
+                } else {
+                    delete(entry);
+                }
+            }
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return CompletableFuture.allOf(subdirectories.toArray(new CompletableFuture<?>[0]))
+                .thenRunAsync(() -> {
+                    try {
+                        Files.deleteIfExists(directory);
+                    } catch (IOException e) {
+                        throw new StorageException("Could not delete " + directory, e);
+                    }
+                }, executor);
+    }
+
+    private static Path trashFor(Path directory) {
+        Path absolute = directory.toAbsolutePath();
+        return absolute.resolveSibling(trashPrefix(absolute) + UUID.randomUUID().toString().replace("-", ""));
+    }
+
+    private static String trashPrefix(Path directory) {
+        return "." + directory.toAbsolutePath().getFileName() + TRASH_MARKER;
+    }
+}
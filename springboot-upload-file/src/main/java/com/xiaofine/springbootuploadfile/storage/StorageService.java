@@ -3,7 +3,9 @@ package com.xiaofine.springbootuploadfile.storage;
 import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.stream.Stream;
 
 public interface StorageService {
@@ -12,8 +14,26 @@ public interface StorageService {
 
     void store(MultipartFile file);
 
+    /**
+     * Stream the content straight into storage without buffering it in memory
+     * or in a multipart temp file, returning the number of bytes written
+     */
+    long store(String filename, InputStream inputStream);
+
+    /**
+     * Take over a fully written file, it becomes visible under the given name in a single rename
+     */
+    long store(String filename, Path source);
+
     Stream<Path> loadAll();
 
+    /**
+     * One page of stored file names in name order
+     *
+     * @param after the last name of the previous page, null for the first page
+     */
+    List<String> list(String after, int limit);
+
     Path load(String filename);
 
     Resource loadAsResource(String filename);
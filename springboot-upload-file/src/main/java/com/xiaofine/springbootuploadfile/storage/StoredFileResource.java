@@ -0,0 +1,67 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * A stored file that can be replaced while it is served. Length and last modified are those of the
+ * version found when the resource was created, and reading fails if the path no longer is that version.
+ * It does not report itself as a file, since anything handed the path would open whatever is there by
+ * then. The connector's sendfile gets a {@link #link() link} to the version instead.
+ */
+public class StoredFileResource extends FileSystemResource {
+
+    private final Path path;
+
+    private final FileVersion version;
+
+    private final VersionLinks links;
+
+    public StoredFileResource(Path path, FileVersion version) {
+        this(path, version, null);
+    }
+
+    public StoredFileResource(Path path, FileVersion version, VersionLinks links) {
+        super(path);
+        this.path = path;
+        this.version = version;
+        this.links = links;
+    }
+
+    /**
+     * A path that is this version for a while whatever happens to the stored name, null if there is none
+     */
+    public Path link() throws IOException {
+        return links != null ? links.link(path, version) : null;
+    }
+
+    @Override
+    public boolean isFile() {
+        return false;
+    }
+
+    @Override
+    public long contentLength() {
+        return version.getSize();
+    }
+
+    @Override
+    public long lastModified() {
+        return version.getLastModified();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Channels.newInputStream(version.open(path));
+    }
+
+    @Override
+    public ReadableByteChannel readableChannel() throws IOException {
+        return version.open(path);
+    }
+}
@@ -0,0 +1,31 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks picked by the hash of a key. Writes of the same name are serialized, different
+ * names only contend when they happen to share a stripe, and no per-name state is ever allocated.
+ */
+final class StripedLocks {
+
+    private final Lock[] stripes;
+
+    /**
+     * @param stripes rounded up to a power of two
+     */
+    StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    Lock get(String key) {
+        int hash = key.hashCode();
+        // spread the high bits, String.hashCode of similar names differs mostly in the low ones
+        hash ^= hash >>> 16;
+        return stripes[hash & (stripes.length - 1)];
+    }
+}
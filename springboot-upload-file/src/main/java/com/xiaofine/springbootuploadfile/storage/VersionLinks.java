@@ -0,0 +1,130 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hard links that give one version of a stored file a path nothing else renames over or deletes, for the
+ * connector's sendfile, which opens the file by name after the headers are sent. A store or expiry of the
+ * name replaces the name's directory entry, the link keeps pointing at the bytes the headers describe.
+ * <p>
+ * Links live in {@value #DIRECTORY} on the file's volume. A link is handed out for {@code reuse} after it
+ * was made, so concurrent downloads of a popular file share one, and deleted once it is twice that old,
+ * long after the connector opened it.
+ */
+public class VersionLinks {
+
+    private static final Logger log = LoggerFactory.getLogger(VersionLinks.class);
+
+    static final String DIRECTORY = ".sendfile";
+
+    private final StorageLayout layout;
+
+    private final long reuseMillis;
+
+    /**
+     * The link handed out for a version, by version id
+     */
+    private final ConcurrentMap<String, Link> current = new ConcurrentHashMap<>();
+
+    /**
+     * Every link made, the oldest first
+     */
+    private final Queue<Link> links = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean supported = true;
+
+    VersionLinks(StorageLayout layout, long reuseMillis) {
+        this.layout = layout;
+        this.reuseMillis = reuseMillis;
+    }
+
+    /**
+     * A path that stays this version of the file until the link is swept, null when the file is no longer
+     * that version or the file system cannot link
+     */
+    public Path link(Path file, FileVersion version) throws IOException {
+        if (!supported || version.getFileKey() == null) {
+            return null;
+        }
+        String id = id(version);
+        long now = System.currentTimeMillis();
+        Link link = current.get(id);
+        if (link != null && now - link.created < reuseMillis) {
+            return link.path;
+        }
+        Path directory = layout.rootOf(file.getFileName().toString()).resolve(DIRECTORY);
+        Path path = directory.resolve(id + "-" + UUID.randomUUID());
+        try {
+            Files.createDirectories(directory);
+            Files.createLink(path, file);
+        } catch (UnsupportedOperationException e) {
+            log.info("File system of {} has no hard links, downloads are copied", file);
+            supported = false;
+            return null;
+        } catch (IOException e) {
+            // e.g. the file was deleted meanwhile, the download is copied from the version it has open
+            log.debug("Could not link {}", file, e);
+            return null;
+        }
+        link = new Link(id, path, now);
+        links.add(link);
+        // the file may have been replaced since the version was taken, then the link has other bytes
+        if (!version.equals(FileVersion.of(path))) {
+            return null;
+        }
+        current.put(id, link);
+        return path;
+    }
+
+    /**
+     * Delete the links older than twice the reuse time
+     */
+    void sweep() {
+        long cutoff = System.currentTimeMillis() - 2 * reuseMillis;
+        for (Link link = links.peek(); link != null && link.created <= cutoff; link = links.peek()) {
+            if (links.remove(link)) {
+                current.remove(link.id, link);
+                StorageFiles.deleteQuietly(link.path);
+            }
+        }
+    }
+
+    /**
+     * Drop the links a previous run left behind, nothing has them open anymore
+     */
+    void clear(Path root) throws IOException {
+        FileSystemUtils.deleteRecursively(root.resolve(DIRECTORY));
+    }
+
+    private static String id(FileVersion version) {
+        String key = version.getFileKey() + ":" + version.getSize() + ":" + version.getLastModified();
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static final class Link {
+
+        final String id;
+
+        final Path path;
+
+        final long created;
+
+        Link(String id, Path path, long created) {
+            this.id = id;
+            this.path = path;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.xiaofine.springbootuploadfile.storage.cache;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A file's content held in an off-heap buffer. Length and last modified are remembered too,
+ * so serving it does not touch the file system at all.
+ */
+public class CachedResource extends AbstractResource {
+
+    private final String filename;
+
+    private final ByteBuffer content;
+
+    private final long lastModified;
+
+    CachedResource(String filename, ByteBuffer content, long lastModified) {
+        this.filename = filename;
+        this.content = content.asReadOnlyBuffer();
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return content.remaining();
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Cached file [" + filename + "]";
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new BufferInputStream(content.duplicate());
+    }
+
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
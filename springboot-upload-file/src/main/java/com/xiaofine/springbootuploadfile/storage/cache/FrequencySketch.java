@@ -0,0 +1,86 @@
+package com.xiaofine.springbootuploadfile.storage.cache;
+
+/**
+ * Count-Min sketch of 4 bit counters, the popularity estimate behind TinyLFU admission. Each key maps to
+ * four counters in one 64 bit word per hash, its frequency is the smallest of them. Once the number of
+ * increments reaches ten times the table size all counters are halved, so old popularity fades.
+ * Not thread safe, the cache calls it under its lock.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private static final int MAX_COUNT = 15;
+
+    /**
+     * 8 KB, below that collisions make small caches admit almost anything
+     */
+    private static final int MIN_TABLE_SIZE = 1024;
+
+    private final long[] table;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        int size = Integer.highestOneBit(Math.max(MIN_TABLE_SIZE, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+        this.table = new long[size];
+        this.sampleSize = 10 * size;
+    }
+
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            int shift = (start + i) << 2;
+            frequency = Math.min(frequency, (int) (table[indexOf(hash, i)] >>> shift) & MAX_COUNT);
+        }
+        return frequency;
+    }
+
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int shift = (start + i) << 2;
+            if (((table[index] >>> shift) & MAX_COUNT) != MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        // every counter lost half its value, the odd ones half a count more
+        additions = (additions >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & (table.length - 1);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
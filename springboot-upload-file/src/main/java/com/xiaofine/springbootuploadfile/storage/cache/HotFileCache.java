@@ -0,0 +1,288 @@
+package com.xiaofine.springbootuploadfile.storage.cache;
+
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size bounded cache of small, popular files in off-heap buffers, in front of loadAsResource.
+ * <p>
+ * Admission follows W-TinyLFU: a file is only loaded once it has been asked for at least twice, new
+ * entries go to a small LRU window, and an entry leaving the window only enters the main LRU region
+ * if it is more popular than every entry it would push out. One-off downloads of large batches so
+ * never flush the avatars everybody keeps asking for. Storage invalidates a name whenever it is stored
+ * again and clears everything in deleteAll.
+ */
+@Component
+public class HotFileCache {
+
+    /**
+     * Requests a file needs before it is worth loading, keeps one-hit wonders out entirely
+     */
+    private static final int MIN_FREQUENCY = 2;
+
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * Sizes the popularity sketch, one counter slot per 4 KB of cache is plenty for avatars and thumbnails
+     */
+    private static final long AVERAGE_ENTRY_SIZE = 4 * 1024;
+
+    private final boolean enabled;
+
+    private final long maxSize;
+
+    private final long maxFileSize;
+
+    private final long windowMaxSize;
+
+    private final long mainMaxSize;
+
+    private final FrequencySketch sketch;
+
+    private final LinkedHashMap<String, CachedResource> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, CachedResource> main = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long windowSize;
+
+    private long mainSize;
+
+    /**
+     * Names being loaded, only a load no invalidation of its name came in during is put in the cache
+     */
+    private final Map<String, Loading> loading = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder puts = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public HotFileCache(StorageProperties properties) {
+        StorageProperties.Cache cache = properties.getCache();
+        this.enabled = cache.isEnabled();
+        this.maxSize = cache.getMaxSize().toBytes();
+        this.maxFileSize = Math.min(cache.getMaxFileSize().toBytes(), Math.min(maxSize, Integer.MAX_VALUE));
+        this.windowMaxSize = Math.max(maxSize * WINDOW_PERCENT / 100, maxFileSize);
+        this.mainMaxSize = Math.max(0, maxSize - windowMaxSize);
+        this.sketch = new FrequencySketch(enabled ? (int) Math.min(maxSize / AVERAGE_ENTRY_SIZE, Integer.MAX_VALUE) : 0);
+    }
+
+    /**
+     * @return the cached file, or null if it has to be read from storage
+     */
+    public Resource get(String name) {
+        if (!enabled) {
+            return null;
+        }
+        CachedResource cached;
+        synchronized (this) {
+            sketch.increment(name);
+            cached = window.get(name);
+            if (cached == null) {
+                cached = main.get(name);
+            }
+        }
+        (cached != null ? hits : misses).increment();
+        return cached;
+    }
+
+    /**
+     * Offer a file just read from storage after a miss
+     *
+     * @return the cached copy if the file was taken in, the resource itself otherwise
+     */
+    public Resource admit(String name, Resource resource) {
+        if (!enabled || !(resource instanceof FileSystemResource)) {
+            return resource;
+        }
+        Loading load;
+        long version;
+        synchronized (this) {
+            if (sketch.frequency(name) < MIN_FREQUENCY) {
+                return resource;
+            }
+            load = loading.computeIfAbsent(name, key -> new Loading());
+            load.loads++;
+            version = load.version;
+        }
+        CachedResource cached = null;
+        try {
+            cached = load(name, resource);
+        } finally {
+            synchronized (this) {
+                if (cached != null && version == load.version) {
+                    insert(name, cached);
+                }
+                if (--load.loads == 0) {
+                    loading.remove(name);
+                }
+            }
+        }
+        return cached != null ? cached : resource;
+    }
+
+    public synchronized void invalidate(String name) {
+        Loading load = loading.get(name);
+        if (load != null) {
+            load.version++;
+        }
+        remove(name);
+    }
+
+    public synchronized void clear() {
+        for (Loading load : loading.values()) {
+            load.version++;
+        }
+        window.clear();
+        main.clear();
+        windowSize = 0;
+        mainSize = 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized long size() {
+        return window.size() + main.size();
+    }
+
+    /**
+     * Bytes held off-heap
+     */
+    public synchronized long bytes() {
+        return windowSize + mainSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long putCount() {
+        return puts.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Read through the resource, so a StoredFileResource only yields the version its length and last
+     * modified belong to
+     */
+    private CachedResource load(String name, Resource resource) {
+        try {
+            long size = resource.contentLength();
+            if (size == 0 || size > maxFileSize) {
+                return null;
+            }
+            long lastModified = resource.lastModified();
+            ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+            try (ReadableByteChannel channel = resource.readableChannel()) {
+                while (content.hasRemaining() && channel.read(content) != -1) {
+                    // keep reading until the buffer is full
+                }
+            }
+            if (content.hasRemaining()) {
+                return null;
+            }
+            content.flip();
+            return new CachedResource(name, content, lastModified);
+        } catch (IOException e) {
+            // served from storage as usual, which reports the problem
+            return null;
+        }
+    }
+
+    private void insert(String name, CachedResource cached) {
+        remove(name);
+        window.put(name, cached);
+        windowSize += cached.contentLength();
+        puts.increment();
+        Iterator<Map.Entry<String, CachedResource>> eldest = window.entrySet().iterator();
+        while (windowSize > windowMaxSize) {
+            Map.Entry<String, CachedResource> entry = eldest.next();
+            eldest.remove();
+            windowSize -= entry.getValue().contentLength();
+            offerToMain(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * The TinyLFU filter: the candidate only gets in if it is more popular than each victim it displaces
+     */
+    private void offerToMain(String name, CachedResource candidate) {
+        long size = candidate.contentLength();
+        if (size > mainMaxSize) {
+            evictions.increment();
+            return;
+        }
+        int frequency = sketch.frequency(name);
+        List<Map.Entry<String, CachedResource>> victims = new ArrayList<>();
+        long freed = 0;
+        Iterator<Map.Entry<String, CachedResource>> eldest = main.entrySet().iterator();
+        while (mainSize - freed + size > mainMaxSize) {
+            Map.Entry<String, CachedResource> victim = eldest.next();
+            if (sketch.frequency(victim.getKey()) >= frequency) {
+                evictions.increment();
+                return;
+            }
+            victims.add(victim);
+            freed += victim.getValue().contentLength();
+        }
+        for (Map.Entry<String, CachedResource> victim : victims) {
+            main.remove(victim.getKey());
+            evictions.increment();
+        }
+        mainSize -= freed;
+        main.put(name, candidate);
+        mainSize += size;
+    }
+
+    private void remove(String name) {
+        CachedResource cached = window.remove(name);
+        if (cached != null) {
+            windowSize -= cached.contentLength();
+        }
+        cached = main.remove(name);
+        if (cached != null) {
+            mainSize -= cached.contentLength();
+        }
+    }
+
+    /**
+     * The loads of one name in flight, and how often the name was invalidated since the first began
+     */
+    private static final class Loading {
+
+        int loads;
+
+        long version;
+    }
+}
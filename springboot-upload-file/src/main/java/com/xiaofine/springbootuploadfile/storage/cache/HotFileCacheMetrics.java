@@ -0,0 +1,72 @@
+package com.xiaofine.springbootuploadfile.storage.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the standard cache.* meters for the hot file cache under cache=hot-files,
+ * plus its off-heap usage and hit ratio
+ */
+@Component
+public class HotFileCacheMetrics extends CacheMeterBinder {
+
+    private final HotFileCache cache;
+
+    @Autowired
+    public HotFileCacheMetrics(HotFileCache cache) {
+        super(cache, "hot-files", Tags.empty());
+        this.cache = cache;
+    }
+
+    @Override
+    protected Long size() {
+        return cache.size();
+    }
+
+    @Override
+    protected long hitCount() {
+        return cache.hitCount();
+    }
+
+    @Override
+    protected Long missCount() {
+        return cache.missCount();
+    }
+
+    @Override
+    protected Long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    @Override
+    protected long putCount() {
+        return cache.putCount();
+    }
+
+    @Override
+    protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+        Gauge.builder("cache.bytes", cache, HotFileCache::bytes)
+                .tags(getTagsWithCacheName())
+                .description("Off-heap bytes held by the cache")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("cache.max.bytes", cache, HotFileCache::getMaxSize)
+                .tags(getTagsWithCacheName())
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("cache.hit.ratio", cache, HotFileCacheMetrics::hitRatio)
+                .tags(getTagsWithCacheName())
+                .description("Hits over all lookups since startup")
+                .register(registry);
+    }
+
+    private static double hitRatio(HotFileCache cache) {
+        long hits = cache.hitCount();
+        long lookups = hits + cache.missCount();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,227 @@
+package com.xiaofine.springbootuploadfile.storage.compression;
+
+import com.xiaofine.springbootuploadfile.storage.FileVersion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * On-disk format of a compressed file:
+ * <pre>
+ * [encoded stream]                                  dataLength bytes, n blocks of blockSize uncompressed bytes
+ * [offset of block 0]...[offset of block n-1]       block index, 8 bytes each
+ * [codec][length][dataLength][blockSize][n][magic]  40 byte trailer
+ * </pre>
+ * The encoded stream alone is a valid stream of the codec, the index lets a reader start
+ * decoding at the block holding any given offset.
+ */
+public final class BlockCompressedFile {
+
+    private static final long MAGIC = 0x5A424C4B31303030L; // "ZBLK1000"
+
+    private static final int TRAILER_SIZE = 40;
+
+    private static final int CODEC_NAME_SIZE = 8;
+
+    private final Path path;
+
+    private final FileVersion version;
+
+    private final String codecName;
+
+    private final long length;
+
+    private final long dataLength;
+
+    private final int blockSize;
+
+    private final long[] offsets;
+
+    private BlockCompressedFile(Path path, FileVersion version, String codecName, long length, long dataLength,
+                                int blockSize, long[] offsets) {
+        this.path = path;
+        this.version = version;
+        this.codecName = codecName;
+        this.length = length;
+        this.dataLength = dataLength;
+        this.blockSize = blockSize;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Compress the stream block by block into the channel, only one block is held in memory at a time
+     *
+     * @return the uncompressed length
+     */
+    public static long write(InputStream inputStream, FileChannel channel, CompressionCodec codec, int blockSize)
+            throws IOException {
+
+        PositionedOutputStream out = new PositionedOutputStream(channel);
+        CompressionCodec.BlockEncoder encoder = codec.encoder(out);
+        byte[] block = new byte[blockSize];
+        long[] offsets = new long[16];
+        int blockCount = 0;
+        long length = 0;
+        int read;
+        while ((read = readBlock(inputStream, block)) > 0) {
+            if (blockCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, blockCount * 2);
+            }
+            offsets[blockCount++] = out.position;
+            encoder.block(block, read);
+            length += read;
+            if (read < blockSize) {
+                break;
+            }
+        }
+        encoder.finish();
+
+        long dataLength = out.position;
+        ByteBuffer tail = ByteBuffer.allocate(blockCount * 8 + TRAILER_SIZE);
+        for (int i = 0; i < blockCount; i++) {
+            tail.putLong(offsets[i]);
+        }
+        tail.put(Arrays.copyOf(codec.getName().getBytes(StandardCharsets.US_ASCII), CODEC_NAME_SIZE));
+        tail.putLong(length).putLong(dataLength).putInt(blockSize).putInt(blockCount).putLong(MAGIC);
+        tail.flip();
+        writeFully(channel, tail, dataLength);
+        return length;
+    }
+
+    /**
+     * @return the index of the file, or null if it is not a block compressed file
+     */
+    public static BlockCompressedFile open(Path path) throws IOException {
+        FileVersion version = FileVersion.of(path);
+        try (FileChannel channel = version.open(path)) {
+            long size = channel.size();
+            if (size < TRAILER_SIZE) {
+                return null;
+            }
+            ByteBuffer trailer = readFully(channel, TRAILER_SIZE, size - TRAILER_SIZE);
+            byte[] name = new byte[CODEC_NAME_SIZE];
+            trailer.get(name);
+            long length = trailer.getLong();
+            long dataLength = trailer.getLong();
+            int blockSize = trailer.getInt();
+            int blockCount = trailer.getInt();
+            // the block count sizes the index allocation, so it has to agree with the file size and the length
+            if (trailer.getLong() != MAGIC || length < 0 || dataLength < 0 || blockSize <= 0
+                    || blockCount < 0 || blockCount > (size - TRAILER_SIZE) / 8
+                    || blockCount != blockCount(length, blockSize)
+                    || dataLength + blockCount * 8L + TRAILER_SIZE != size) {
+                return null;
+            }
+            ByteBuffer index = readFully(channel, blockCount * 8, dataLength);
+            long[] offsets = new long[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = index.getLong();
+            }
+            String codecName = new String(name, StandardCharsets.US_ASCII).trim();
+            return new BlockCompressedFile(path, version, codecName, length, dataLength, blockSize, offsets);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * The version of the file the index was read from, the content is only ever read from that version
+     */
+    public FileVersion getVersion() {
+        return version;
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    /**
+     * Uncompressed length
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Length of the encoded stream, i.e. of the compressed content without index and trailer
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    int blockOf(long position) {
+        return (int) (position / blockSize);
+    }
+
+    long blockOffset(int block) {
+        return offsets[block];
+    }
+
+    private static long blockCount(long length, int blockSize) {
+        return length == 0 ? 0 : (length - 1) / blockSize + 1;
+    }
+
+    private static int readBlock(InputStream inputStream, byte[] block) throws IOException {
+        int total = 0;
+        int read;
+        while (total < block.length && (read = inputStream.read(block, total, block.length - total)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int size, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of compressed file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Positional writes to the channel that keep track of how much was written
+     */
+    private static class PositionedOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+
+        private long position;
+
+        PositionedOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            position += writeFully(channel, ByteBuffer.wrap(b, off, len), position);
+        }
+    }
+}
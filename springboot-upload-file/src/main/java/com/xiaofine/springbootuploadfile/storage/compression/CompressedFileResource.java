@@ -0,0 +1,145 @@
+package com.xiaofine.springbootuploadfile.storage.compression;
+
+import com.xiaofine.springbootuploadfile.storage.FileSliceResource;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A block compressed file seen as its uncompressed content. Reading decompresses on the fly
+ * and skipping jumps straight to the block holding the target offset, so byte ranges are
+ * served without decompressing what comes before them.
+ */
+public class CompressedFileResource extends AbstractResource {
+
+    private final BlockCompressedFile file;
+
+    private final CompressionCodec codec;
+
+    public CompressedFileResource(BlockCompressedFile file, CompressionCodec codec) {
+        this.file = file;
+        this.codec = codec;
+    }
+
+    /**
+     * Content-Encoding the stored bytes can be sent with, null if they cannot
+     */
+    public String getContentEncoding() {
+        return codec.getContentEncoding();
+    }
+
+    /**
+     * The stored encoded stream, to be sent as is to clients that accept {@link #getContentEncoding()}
+     */
+    public Resource getCompressedContent() {
+        return new FileSliceResource(file.getPath(), 0, file.getDataLength(), file.getVersion());
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.exists(file.getPath());
+    }
+
+    @Override
+    public long contentLength() {
+        return file.getLength();
+    }
+
+    @Override
+    public long lastModified() {
+        return file.getVersion().getLastModified();
+    }
+
+    @Override
+    public String getFilename() {
+        return file.getPath().getFileName().toString();
+    }
+
+    @Override
+    public String getDescription() {
+        return codec.getName() + " compressed file [" + file.getPath() + "]";
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new DecompressingInputStream();
+    }
+
+    private class DecompressingInputStream extends InputStream {
+
+        private static final int SKIP_BUFFER_SIZE = 8 * 1024;
+
+        private InputStream current;
+
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= file.getLength()) {
+                return -1;
+            }
+            if (current == null) {
+                seek(position);
+            }
+            int read = current.read(b, off, len);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long target = Math.min(file.getLength(), position + Math.max(0, n));
+            long skipped = target - position;
+            if (current != null && file.blockOf(target) == file.blockOf(position)) {
+                discard(target - position);
+            } else {
+                close();
+                position = target;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+
+        private void seek(long target) throws IOException {
+            int block = file.blockOf(target);
+            long blockStart = file.blockOffset(block);
+            InputStream blocks = new FileSliceResource(file.getPath(), blockStart, file.getDataLength() - blockStart,
+                    file.getVersion()).getInputStream();
+            current = codec.decoder(new BufferedInputStream(blocks));
+            position = (long) block * file.getBlockSize();
+            discard(target - position);
+        }
+
+        private void discard(long count) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(SKIP_BUFFER_SIZE, Math.max(1, count))];
+            while (count > 0) {
+                int read = current.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (read < 0) {
+                    throw new IOException("Compressed file ended early: " + file.getPath());
+                }
+                count -= read;
+                position += read;
+            }
+        }
+    }
+}
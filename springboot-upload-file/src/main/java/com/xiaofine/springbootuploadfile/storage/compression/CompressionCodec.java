@@ -0,0 +1,47 @@
+package com.xiaofine.springbootuploadfile.storage.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression format that can be decoded starting at any block boundary. Register an
+ * implementation as a bean (e.g. LZ4 or zstd, whose frames can simply be concatenated) and
+ * select it with {@code storage.compression.codec}.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Short name stored in every compressed file, at most 8 ASCII characters
+     */
+    String getName();
+
+    /**
+     * HTTP Content-Encoding that the complete encoded stream is valid for, or null if clients
+     * can never be sent the compressed bytes directly
+     */
+    String getContentEncoding();
+
+    /**
+     * Start encoding into {@code out}, any stream header is written right away
+     */
+    BlockEncoder encoder(OutputStream out) throws IOException;
+
+    /**
+     * Decode from a block boundary up to the end of the last block
+     */
+    InputStream decoder(InputStream blocks) throws IOException;
+
+    interface BlockEncoder {
+
+        /**
+         * Encode one block, it must be decodable without any of the blocks before it
+         */
+        void block(byte[] data, int length) throws IOException;
+
+        /**
+         * Write any stream trailer and release the encoder
+         */
+        void finish() throws IOException;
+    }
+}
@@ -0,0 +1,82 @@
+package com.xiaofine.springbootuploadfile.storage.compression;
+
+import com.xiaofine.springbootuploadfile.storage.StorageException;
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which files are stored compressed and opens compressed files with the codec they were written with
+ */
+public class CompressionSupport {
+
+    private final boolean enabled;
+
+    private final Set<String> extensions = new HashSet<>();
+
+    private final int blockSize;
+
+    private final Map<String, CompressionCodec> codecs = new HashMap<>();
+
+    private final CompressionCodec writeCodec;
+
+    public CompressionSupport(StorageProperties.Compression properties, List<CompressionCodec> codecs) {
+        for (CompressionCodec codec : codecs) {
+            this.codecs.put(codec.getName(), codec);
+        }
+        for (String extension : properties.getExtensions()) {
+            this.extensions.add(extension.toLowerCase(Locale.ROOT));
+        }
+        this.enabled = properties.isEnabled();
+        this.blockSize = (int) properties.getBlockSize().toBytes();
+        this.writeCodec = this.codecs.get(properties.getCodec());
+        if (enabled && writeCodec == null) {
+            throw new IllegalArgumentException("Unknown compression codec " + properties.getCodec()
+                    + ", available: " + this.codecs.keySet());
+        }
+    }
+
+    public boolean shouldCompress(String filename) {
+        String extension = StringUtils.getFilenameExtension(filename);
+        return enabled && extension != null && extensions.contains(extension.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return the uncompressed length
+     */
+    public long write(InputStream inputStream, FileChannel channel) throws IOException {
+        return BlockCompressedFile.write(inputStream, channel, writeCodec, blockSize);
+    }
+
+    /**
+     * Only called for files the storage wrote compressed, whether a file is compressed is never
+     * decided from its content
+     *
+     * @return the decompressing view of the file
+     */
+    public CompressedFileResource open(Path path) {
+        try {
+            BlockCompressedFile file = BlockCompressedFile.open(path);
+            if (file == null) {
+                throw new StorageException("Not a block compressed file: " + path);
+            }
+            CompressionCodec codec = codecs.get(file.getCodecName());
+            if (codec == null) {
+                throw new StorageException("No codec " + file.getCodecName() + " to read " + path);
+            }
+            return new CompressedFileResource(file, codec);
+        } catch (IOException e) {
+            throw new StorageException("Could not read file: " + path, e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.xiaofine.springbootuploadfile.storage.compression;
+
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * JDK Deflater based codec, always available. The whole file is one ordinary gzip stream, so the
+ * stored bytes can be sent as is with {@code Content-Encoding: gzip}. Every block ends with a
+ * deflate full flush, which resets the dictionary, so inflating can start at any block.
+ */
+@Component
+public class GzipCodec implements CompressionCodec {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final int level;
+
+    @Autowired
+    public GzipCodec(StorageProperties properties) {
+        this.level = properties.getCompression().getLevel();
+    }
+
+    @Override
+    public String getName() {
+        return "gzip";
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return "gzip";
+    }
+
+    @Override
+    public BlockEncoder encoder(OutputStream out) throws IOException {
+        out.write(HEADER);
+        return new GzipBlockEncoder(out, new Deflater(level, true));
+    }
+
+    @Override
+    public InputStream decoder(InputStream blocks) {
+        return new InflaterInputStream(blocks, new Inflater(true), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    private static class GzipBlockEncoder implements BlockEncoder {
+
+        private final OutputStream out;
+
+        private final Deflater deflater;
+
+        private final CRC32 crc = new CRC32();
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private long length;
+
+        GzipBlockEncoder(OutputStream out, Deflater deflater) {
+            this.out = out;
+            this.deflater = deflater;
+        }
+
+        @Override
+        public void block(byte[] data, int length) throws IOException {
+            crc.update(data, 0, length);
+            this.length += length;
+            deflater.setInput(data, 0, length);
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH);
+                out.write(buffer, 0, count);
+            } while (count == buffer.length);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                writeIntLe((int) crc.getValue());
+                writeIntLe((int) length);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private void writeIntLe(int value) throws IOException {
+            out.write(value & 0xff);
+            out.write((value >>> 8) & 0xff);
+            out.write((value >>> 16) & 0xff);
+            out.write((value >>> 24) & 0xff);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.xiaofine.springbootuploadfile.upload;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * State of one chunked upload. Parts are numbered from 1 and part n covers the bytes
+ * {@code [(n - 1) * partSize, min(n * partSize, size))} of the preallocated staging file.
+ */
+public class ChunkedUpload {
+
+    private static final int PART_LOCK_STRIPES = 64;
+
+    private final String uploadId;
+
+    private final String filename;
+
+    private final long size;
+
+    private final long partSize;
+
+    private final int partCount;
+
+    private final Path stagingFile;
+
+    private final FileChannel channel;
+
+    private final BitSet completedParts;
+
+    /**
+     * Part writes share the read lock so they run in parallel, completing or aborting takes the write lock
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Writes of the same part number are serialized, consecutive parts never share a stripe
+     */
+    private final Lock[] partLocks;
+
+    private volatile boolean closed;
+
+    private volatile long lastActive = System.currentTimeMillis();
+
+    ChunkedUpload(String uploadId, String filename, long size, long partSize, Path stagingFile, FileChannel channel) {
+        this.uploadId = uploadId;
+        this.filename = filename;
+        this.size = size;
+        this.partSize = partSize;
+        this.partCount = (int) partCount(size, partSize);
+        this.stagingFile = stagingFile;
+        this.channel = channel;
+        this.completedParts = new BitSet(partCount + 1);
+        this.partLocks = new Lock[Math.min(partCount, PART_LOCK_STRIPES)];
+        for (int i = 0; i < partLocks.length; i++) {
+            partLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Parts needed for the size, rounded up without the overflow of {@code (size + partSize - 1) / partSize}
+     */
+    static long partCount(long size, long partSize) {
+        return size / partSize + (size % partSize == 0 ? 0 : 1);
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    public synchronized int[] getCompletedParts() {
+        return completedParts.stream().toArray();
+    }
+
+    long offsetOf(int partNumber) {
+        return (partNumber - 1) * partSize;
+    }
+
+    long lengthOf(int partNumber) {
+        return Math.min(partSize, size - offsetOf(partNumber));
+    }
+
+    Path getStagingFile() {
+        return stagingFile;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    ReadWriteLock getLock() {
+        return lock;
+    }
+
+    Lock partLock(int partNumber) {
+        return partLocks[(partNumber - 1) % partLocks.length];
+    }
+
+    long getLastActive() {
+        return lastActive;
+    }
+
+    void touch() {
+        lastActive = System.currentTimeMillis();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Must be called while holding the write lock
+     */
+    void close() {
+        closed = true;
+    }
+
+    synchronized void markCompleted(int partNumber) {
+        completedParts.set(partNumber);
+    }
+
+    /**
+     * Called before a part is written, so a write that fails halfway leaves the part missing
+     */
+    synchronized void markIncomplete(int partNumber) {
+        completedParts.clear(partNumber);
+    }
+
+    synchronized boolean isComplete() {
+        return completedParts.cardinality() == partCount;
+    }
+}
@@ -0,0 +1,324 @@
+package com.xiaofine.springbootuploadfile.upload;
+
+import com.xiaofine.springbootuploadfile.storage.StorageException;
+import com.xiaofine.springbootuploadfile.storage.StorageFileNotFoundException;
+import com.xiaofine.springbootuploadfile.storage.StorageFiles;
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import com.xiaofine.springbootuploadfile.storage.StorageReclaimer;
+import com.xiaofine.springbootuploadfile.storage.StorageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * S3 style chunked uploads: initiate, upload numbered parts in any order and in parallel, then complete.
+ * Parts are written at their offsets into a preallocated staging file, completing hands that file
+ * to the {@link StorageService} which renames it into place. Uploads with no part written for
+ * {@code storage.upload-expiry} are aborted by a sweep on the reclaimer threads.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private final StorageService storageService;
+
+    private final StorageReclaimer reclaimer;
+
+    private final Path stagingLocation;
+
+    private final long defaultPartSize;
+
+    private final long minPartSize;
+
+    private final long maxUploadSize;
+
+    private final int maxParts;
+
+    private final int maxOpenUploads;
+
+    /**
+     * One permit per upload that may still be opened, taken before the staging file is created so
+     * concurrent initiates cannot overshoot the cap between a size check and the put
+     */
+    private final Semaphore openSlots;
+
+    private final Duration expiry;
+
+    private final Duration sweepInterval;
+
+    private final AtomicBoolean expiryScheduled = new AtomicBoolean();
+
+    private final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+
+    public ChunkedUploadService(StorageService storageService, StorageProperties properties) {
+        this(storageService, properties, new StorageReclaimer(properties));
+    }
+
+    @Autowired
+    public ChunkedUploadService(StorageService storageService, StorageProperties properties, StorageReclaimer reclaimer) {
+        this.storageService = storageService;
+        this.reclaimer = reclaimer;
+        this.stagingLocation = Paths.get(properties.getStagingLocation());
+        this.defaultPartSize = properties.getPartSize().toBytes();
+        this.minPartSize = properties.getMinPartSize().toBytes();
+        this.maxUploadSize = properties.getMaxUploadSize().toBytes();
+        this.maxParts = properties.getMaxParts();
+        this.maxOpenUploads = properties.getMaxOpenUploads();
+        this.openSlots = new Semaphore(maxOpenUploads);
+        this.expiry = properties.getUploadExpiry();
+        this.sweepInterval = properties.getReclaim().getInterval();
+    }
+
+    public ChunkedUpload initiate(String filename, long size, Long partSize) {
+        String name;
+        try {
+            name = StorageFiles.cleanFilename(filename);
+        } catch (StorageException e) {
+            // rejected before anything is staged, rather than at complete() after every part was sent
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        long effectivePartSize = partSize != null ? partSize : defaultPartSize;
+        if (size <= 0 || size > maxUploadSize) {
+            throw new IllegalArgumentException("Upload size must be between 1 and " + maxUploadSize + " bytes");
+        }
+        if (effectivePartSize <= 0) {
+            // min-part-size may be 0, a part size of 0 would still divide by zero
+            throw new IllegalArgumentException("Part size must be positive");
+        }
+        if (effectivePartSize < minPartSize && effectivePartSize < size) {
+            throw new IllegalArgumentException("Part size must be at least " + minPartSize + " bytes");
+        }
+        if (ChunkedUpload.partCount(size, effectivePartSize) > maxParts) {
+            throw new IllegalArgumentException("Upload would need more than " + maxParts + " parts");
+        }
+        if (!openSlots.tryAcquire()) {
+            throw new IllegalStateException("Too many uploads in progress, at most " + maxOpenUploads);
+        }
+
+        String uploadId = UUID.randomUUID().toString().replace("-", "");
+        Path stagingFile = stagingLocation.resolve(uploadId + ".part");
+        FileChannel channel = null;
+        boolean initiated = false;
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(stagingFile.toFile(), "rw")) {
+                file.setLength(size);
+            }
+            channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE);
+            ChunkedUpload upload = new ChunkedUpload(uploadId, name, size, effectivePartSize, stagingFile, channel);
+            uploads.put(uploadId, upload);
+            initiated = true;
+            return upload;
+        } catch (IOException e) {
+            throw new StorageException("Could not initiate upload of " + filename, e);
+        } finally {
+            // runtime exceptions too, nothing else would ever delete the preallocated file
+            if (!initiated) {
+                openSlots.release();
+                closeQuietly(channel);
+                deleteQuietly(stagingFile);
+            }
+        }
+    }
+
+    public ChunkedUpload get(String uploadId) {
+        ChunkedUpload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw new StorageFileNotFoundException("No such upload: " + uploadId);
+        }
+        return upload;
+    }
+
+    /**
+     * Write one part, a part may be sent again to replace a previous attempt. The part counts as missing
+     * until the new attempt has been written in full, and attempts of the same part run one at a time
+     */
+    public long uploadPart(String uploadId, int partNumber, InputStream inputStream) {
+        ChunkedUpload upload = get(uploadId);
+        if (partNumber < 1 || partNumber > upload.getPartCount()) {
+            throw new IllegalArgumentException("Part number must be between 1 and " + upload.getPartCount());
+        }
+        long offset = upload.offsetOf(partNumber);
+        long length = upload.lengthOf(partNumber);
+
+        Lock lock = upload.getLock().readLock();
+        lock.lock();
+        try {
+            if (upload.isClosed()) {
+                throw new StorageFileNotFoundException("No such upload: " + uploadId);
+            }
+            Lock partLock = upload.partLock(partNumber);
+            partLock.lock();
+            try {
+                upload.touch();
+                upload.markIncomplete(partNumber);
+                long written = transfer(inputStream, upload.getChannel(), offset, length);
+                if (written != length || inputStream.read() != -1) {
+                    throw new IllegalArgumentException("Part " + partNumber + " must be exactly " + length + " bytes");
+                }
+                upload.markCompleted(partNumber);
+                upload.touch();
+                return written;
+            } finally {
+                partLock.unlock();
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to write part " + partNumber + " of upload " + uploadId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for parts still being written, then publishes the file atomically. If publishing fails before
+     * the staging file was moved, the upload stays open with its parts and complete may be called again
+     */
+    public ChunkedUpload complete(String uploadId) {
+        ChunkedUpload upload = get(uploadId);
+        Lock lock = upload.getLock().writeLock();
+        lock.lock();
+        try {
+            if (upload.isClosed()) {
+                throw new StorageFileNotFoundException("No such upload: " + uploadId);
+            }
+            if (!upload.isComplete()) {
+                throw new IllegalStateException("Upload " + uploadId + " is missing parts");
+            }
+            try {
+                storageService.store(upload.getFilename(), upload.getStagingFile());
+            } catch (RuntimeException e) {
+                if (Files.exists(upload.getStagingFile())) {
+                    // e.g. the volume was full, the parts are still staged for a retry
+                    upload.touch();
+                } else {
+                    // moved into place, what failed came after
+                    close(upload);
+                }
+                throw e;
+            }
+            close(upload);
+            return upload;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void abort(String uploadId) {
+        ChunkedUpload upload = get(uploadId);
+        Lock lock = upload.getLock().writeLock();
+        lock.lock();
+        try {
+            if (!upload.isClosed()) {
+                close(upload);
+                deleteQuietly(upload.getStagingFile());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Abort uploads no part was written to for longer than the expiry. Uploads with a part
+     * being written are skipped, they are still active
+     *
+     * @return the number of uploads aborted
+     */
+    int expire() {
+        long cutoff = System.currentTimeMillis() - expiry.toMillis();
+        int expired = 0;
+        for (ChunkedUpload upload : uploads.values()) {
+            if (upload.getLastActive() > cutoff) {
+                continue;
+            }
+            Lock lock = upload.getLock().writeLock();
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (!upload.isClosed() && upload.getLastActive() <= cutoff) {
+                    close(upload);
+                    deleteQuietly(upload.getStagingFile());
+                    expired++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return expired;
+    }
+
+    public void deleteAll() {
+        uploads.keySet().forEach(this::abort);
+        reclaimer.discard(stagingLocation);
+    }
+
+    public void init() {
+        try {
+            reclaimer.recover(stagingLocation);
+            Files.createDirectories(stagingLocation);
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize upload staging", e);
+        }
+        if (expiryScheduled.compareAndSet(false, true)) {
+            reclaimer.schedule(this::expire, sweepInterval);
+        }
+    }
+
+    private void close(ChunkedUpload upload) {
+        upload.close();
+        if (uploads.remove(upload.getUploadId()) != null) {
+            openSlots.release();
+        }
+        try {
+            upload.getChannel().close();
+        } catch (IOException e) {
+            throw new StorageException("Failed to close upload " + upload.getUploadId(), e);
+        }
+    }
+
+    private static long transfer(InputStream inputStream, FileChannel channel, long offset, long length) throws IOException {
+        // positional transfers, so parts of the same upload can be written concurrently
+        ReadableByteChannel source = Channels.newChannel(inputStream);
+        long written = 0;
+        long transferred;
+        while (written < length
+                && (transferred = channel.transferFrom(source, offset + written, length - written)) > 0) {
+            written += transferred;
+        }
+        return written;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // the file is deleted next
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // nothing left to do for a staging file
+        }
+    }
+}
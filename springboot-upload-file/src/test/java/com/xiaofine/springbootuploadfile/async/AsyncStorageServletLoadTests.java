@@ -0,0 +1,130 @@
+package com.xiaofine.springbootuploadfile.async;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Ten thousand slow clients, by default, all in the middle of their upload at once against two worker
+ * threads. It reports how long a request arriving meanwhile waits, and the JVM's thread count, which must
+ * not grow with the clients. Client and server run in this JVM, so every client costs about three file
+ * descriptors (two socket ends and a staging file): raise {@code ulimit -n} or lower
+ * {@code -Dbenchmark.clients}. Run with {@code mvn test -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "storage.async.enabled=true",
+        "storage.async.timeout=5m",
+        "storage.location=target/async-load-test/files",
+        "storage.staging-location=target/async-load-test/staging",
+        "server.tomcat.max-threads=2",
+        "server.tomcat.max-connections=50000",
+        "server.tomcat.accept-count=1000"})
+class AsyncStorageServletLoadTests {
+
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 10_000);
+
+    private static final int HALF = 1000;
+
+    private static final Path STAGING = Paths.get("target/async-load-test/staging");
+
+    @LocalServerPort
+    int port;
+
+    @Test
+    void tenThousandSlowUploads() throws Exception {
+        long needed = 3L * CLIENTS + 1000;
+        assumeTrue(maxFileDescriptors() >= needed,
+                () -> "needs ulimit -n of at least " + needed + " for " + CLIENTS + " clients");
+        int threadsBefore = Thread.activeCount();
+        List<Socket> sockets = new ArrayList<>(CLIENTS);
+        try {
+            long started = System.nanoTime();
+            for (int i = 0; i < CLIENTS; i++) {
+                Socket socket = new Socket("localhost", port);
+                socket.setSoTimeout(60000);
+                OutputStream out = socket.getOutputStream();
+                out.write(("PUT /async/files/slow-" + i + ".bin HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Content-Length: " + 2 * HALF + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(new byte[HALF]);
+                out.flush();
+                sockets.add(socket);
+            }
+            System.out.printf("%d clients connected after %.1fs%n", CLIENTS, (System.nanoTime() - started) / 1e9);
+            // two workers take their turns setting the uploads up, each has a staging file once it is waiting
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+            while (stagingFiles() < CLIENTS && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            assertThat(stagingFiles()).isEqualTo(CLIENTS);
+            System.out.printf("%d uploads waiting for the rest of their body after %.1fs%n", CLIENTS,
+                    (System.nanoTime() - started) / 1e9);
+
+            // every upload is waiting for the rest of its body, a blocking servlet would have no worker left
+            long probe = System.nanoTime();
+            try (Socket socket = get("/async/files/missing.bin")) {
+                assertThat(statusLine(socket)).contains(" 404");
+            }
+            System.out.printf("request among them answered in %.1fms, %d threads (%d before the clients)%n",
+                    (System.nanoTime() - probe) / 1e6, Thread.activeCount(), threadsBefore);
+            assertThat(Thread.activeCount()).isLessThan(threadsBefore + 100);
+
+            started = System.nanoTime();
+            for (Socket socket : sockets) {
+                socket.getOutputStream().write(new byte[HALF]);
+            }
+            for (Socket socket : sockets) {
+                assertThat(statusLine(socket)).contains(" 200");
+            }
+            System.out.printf("%d uploads completed %.1fs after their second halves were sent%n", CLIENTS,
+                    (System.nanoTime() - started) / 1e9);
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private Socket get(String path) throws Exception {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(10000);
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    private static String statusLine(Socket socket) throws Exception {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+    }
+
+    private static long stagingFiles() throws IOException {
+        try (Stream<Path> files = Files.list(STAGING)) {
+            return files.count();
+        }
+    }
+
+    private static long maxFileDescriptors() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        return os instanceof com.sun.management.UnixOperatingSystemMXBean
+                ? ((com.sun.management.UnixOperatingSystemMXBean) os).getMaxFileDescriptorCount() : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,93 @@
+package com.xiaofine.springbootuploadfile.async;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Many more slow clients than worker threads, all in the middle of sending their body at the same time
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "storage.async.enabled=true",
+        "storage.location=target/async-test/files",
+        "storage.staging-location=target/async-test/staging",
+        "server.tomcat.max-threads=2"})
+class AsyncStorageServletTests {
+
+    private static final int CLIENTS = 50;
+
+    private static final int HALF = 1000;
+
+    @LocalServerPort
+    int port;
+
+    @Test
+    void slowUploadsDoNotHoldWorkerThreads() throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < CLIENTS; i++) {
+                Socket socket = new Socket("localhost", port);
+                socket.setSoTimeout(10000);
+                OutputStream out = socket.getOutputStream();
+                out.write(("PUT /async/files/slow-" + i + ".bin HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Content-Length: " + 2 * HALF + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(new byte[HALF]);
+                out.flush();
+                sockets.add(socket);
+            }
+
+            // every upload is half way through its body, with blocking I/O both workers would be stuck
+            assertThat(statusLine(get("/async/files/missing.bin"))).contains(" 404");
+
+            ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+            try {
+                List<Future<String>> responses = new ArrayList<>();
+                for (Socket socket : sockets) {
+                    responses.add(executor.submit(() -> {
+                        socket.getOutputStream().write(new byte[HALF]);
+                        return statusLine(socket);
+                    }));
+                }
+                for (Future<String> response : responses) {
+                    assertThat(response.get(10, TimeUnit.SECONDS)).contains(" 200");
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+
+        Socket download = get("/async/files/slow-0.bin");
+        assertThat(statusLine(download)).contains(" 200");
+        download.close();
+    }
+
+    private Socket get(String path) throws Exception {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(2000);
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    private static String statusLine(Socket socket) throws Exception {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+    }
+}
@@ -0,0 +1,179 @@
+package com.xiaofine.springbootuploadfile.controller;
+
+import com.xiaofine.springbootuploadfile.storage.StorageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Downloads one large file over a real connector, through the UrlResource path the controller had before
+ * (a buffered copy by ResourceHttpMessageConverter) and through /files/, which hands the file to sendfile.
+ * Reports throughput and the server process's CPU time per GB. Size and concurrency are
+ * {@code -Dbenchmark.mb} and {@code -Dbenchmark.clients}. Run with {@code mvn test -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "storage.location=target/download-benchmark/files",
+        "storage.staging-location=target/download-benchmark/staging",
+        "storage.cache.enabled=false"})
+class DownloadBenchmarkTests {
+
+    private static final int MB = Integer.getInteger("benchmark.mb", 512);
+
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 4);
+
+    private static final int ROUNDS = 3;
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    StorageService storageService;
+
+    @Test
+    void urlResourceAgainstSendfile() throws Exception {
+        byte[] block = new byte[1024 * 1024];
+        new Random(1).nextBytes(block);
+        storageService.store("big.bin", new RepeatingInputStream(block, MB));
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                run(clients, "url-resource", "/baseline/big.bin");
+                run(clients, "sendfile", "/files/big.bin");
+            }
+        } finally {
+            clients.shutdownNow();
+            storageService.deleteAll();
+        }
+    }
+
+    private void run(ExecutorService clients, String path, String uri) throws Exception {
+        long cpuBefore = processCpuNanos();
+        long started = System.nanoTime();
+        List<Future<Long>> downloads = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            downloads.add(clients.submit(() -> download(uri)));
+        }
+        long bytes = 0;
+        for (Future<Long> download : downloads) {
+            bytes += download.get();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        double cpuSeconds = (processCpuNanos() - cpuBefore) / 1e9;
+        assertThat(bytes).isEqualTo((long) CLIENTS * MB * 1024 * 1024);
+        double gb = bytes / 1e9;
+        System.out.printf("%-12s %d x %dMB in %.2fs, %.0f MB/s, %.2f cpu s/GB (client included)%n",
+                path, CLIENTS, MB, seconds, bytes / 1e6 / seconds, cpuSeconds / gb);
+    }
+
+    private long download(String uri) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + uri).openConnection();
+        byte[] buffer = new byte[256 * 1024];
+        long total = 0;
+        try (InputStream in = connection.getInputStream()) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                total += n;
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return total;
+    }
+
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        return os instanceof com.sun.management.OperatingSystemMXBean
+                ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : 0;
+    }
+
+    /**
+     * The download path before sendfile: the stored file as a UrlResource, copied by the message converter
+     */
+    @TestConfiguration
+    static class Baseline {
+
+        @Bean
+        BaselineController baselineController(StorageService storageService) {
+            return new BaselineController(storageService);
+        }
+    }
+
+    @RestController
+    static class BaselineController {
+
+        private final StorageService storageService;
+
+        BaselineController(StorageService storageService) {
+            this.storageService = storageService;
+        }
+
+        @GetMapping("/baseline/{filename:.+}")
+        ResponseEntity<Resource> serve(@PathVariable String filename) throws MalformedURLException {
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment")
+                    .body(new UrlResource(storageService.load(filename).toUri()));
+        }
+    }
+
+    /**
+     * The block over and over, so a large file is written without holding it in memory
+     */
+    static final class RepeatingInputStream extends InputStream {
+
+        private final byte[] block;
+
+        private long remaining;
+
+        private int position;
+
+        RepeatingInputStream(byte[] block, int repeats) {
+            this.block = block;
+            this.remaining = (long) block.length * repeats;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = (int) Math.min(Math.min(len, block.length - position), remaining);
+            System.arraycopy(block, position, b, off, n);
+            position = (position + n) % block.length;
+            remaining -= n;
+            return n;
+        }
+    }
+}
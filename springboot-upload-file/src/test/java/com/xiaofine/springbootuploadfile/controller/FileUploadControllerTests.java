@@ -0,0 +1,133 @@
+package com.xiaofine.springbootuploadfile.controller;
+
+import com.xiaofine.springbootuploadfile.storage.StorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "storage.location=target/controller-test/files",
+        "storage.staging-location=target/controller-test/staging"})
+@AutoConfigureMockMvc
+class FileUploadControllerTests {
+
+    private static final int SIZE = 100 * 1024;
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private StorageService storageService;
+
+    private final byte[] content = new byte[SIZE];
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < SIZE; i++) {
+            content[i] = (byte) i;
+        }
+        storageService.store("data.bin", new ByteArrayInputStream(content));
+    }
+
+    @Test
+    void listingPagesKeepTheirSize() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            storageService.store("list-" + i + ".txt", new ByteArrayInputStream(new byte[]{1}));
+        }
+
+        mvc.perform(get("/").param("after", "list-0").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("files", contains(endsWith("/files/list-1.txt"), endsWith("/files/list-2.txt"))))
+                .andExpect(model().attribute("next", "list-2.txt"))
+                .andExpect(content().string(containsString("href=\"/?after=list-2.txt&amp;limit=2\"")));
+
+        mvc.perform(get("/").param("after", "list-2.txt").param("limit", "2"))
+                .andExpect(model().attribute("files", contains(endsWith("/files/list-3.txt"))))
+                .andExpect(model().attributeDoesNotExist("next"));
+    }
+
+    @Test
+    void quoteInTheNameDoesNotBreakContentDisposition() throws Exception {
+        storageService.store("a\"b.txt", new ByteArrayInputStream(new byte[]{1}));
+
+        mvc.perform(get("/files/{filename}", "a\"b.txt"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''a%22b.txt"));
+    }
+
+    @Test
+    void singleRangeIsPartialContent() throws Exception {
+        mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=10-19"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/" + SIZE))
+                .andExpect(content().bytes(Arrays.copyOfRange(content, 10, 20)));
+    }
+
+    @Test
+    void severalRangesAreMultipartByteranges() throws Exception {
+        mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=0-1,5-6"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("multipart/byteranges; boundary=")));
+    }
+
+    @Test
+    void rangePastTheEndIsNotSatisfiable() throws Exception {
+        mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=" + SIZE + "-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable());
+    }
+
+    @Test
+    void matchingEtagIsNotModified() throws Exception {
+        MvcResult first = mvc.perform(get("/files/data.bin"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(content))
+                .andReturn();
+        String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotNull();
+
+        mvc.perform(get("/files/data.bin").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void storedFileIsHandedToSendfileThroughALinkToItsVersion() throws Exception {
+        MvcResult result = mvc.perform(get("/files/data.bin")
+                        .requestAttr("org.apache.tomcat.sendfile.support", true)
+                        .header(HttpHeaders.RANGE, "bytes=1000-60999"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 1000-60999/" + SIZE))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 60000))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.start", 1000L))
+                .andReturn();
+        Path link = Paths.get((String) result.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"));
+
+        storageService.store("data.bin", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+
+        // the connector opens it later, by then the name has other bytes but the link still has these
+        assertThat(link.getFileName().toString()).isNotEqualTo("data.bin");
+        assertThat(Files.readAllBytes(link)).isEqualTo(content);
+    }
+}
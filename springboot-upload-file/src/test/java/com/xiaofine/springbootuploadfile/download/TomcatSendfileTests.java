@@ -0,0 +1,47 @@
+package com.xiaofine.springbootuploadfile.download;
+
+import com.xiaofine.springbootuploadfile.storage.FileVersion;
+import com.xiaofine.springbootuploadfile.storage.StoredFileResource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TomcatSendfileTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void singleRangeOfAFileIsHandedOff() throws Exception {
+        Path file = Files.write(tempDir.resolve("a.bin"), new byte[100 * 1024]);
+        MockHttpServletRequest request = sendfileRequest();
+
+        assertThat(TomcatSendfile.handOff(request, new FileSystemResource(file), 1000, 60000)).isTrue();
+
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(1000L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(61000L);
+        assertThat(TomcatSendfile.handedOffLength(request)).isEqualTo(60000);
+    }
+
+    @Test
+    void storedFileWithoutAVersionLinkIsNotHandedOff() throws Exception {
+        Path file = Files.write(tempDir.resolve("a.bin"), new byte[100 * 1024]);
+        MockHttpServletRequest request = sendfileRequest();
+
+        assertThat(TomcatSendfile.handOff(request, new StoredFileResource(file, FileVersion.of(file)), 100 * 1024))
+                .isFalse();
+        assertThat(TomcatSendfile.handedOffLength(request)).isEqualTo(-1);
+    }
+
+    private static MockHttpServletRequest sendfileRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/files/a.bin");
+        request.setAttribute("org.apache.tomcat.sendfile.support", true);
+        return request;
+    }
+}
@@ -0,0 +1,220 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContentAddressedStorageServiceTests {
+
+    @TempDir
+    Path tempDir;
+
+    private StorageProperties properties;
+
+    private ContentAddressedStorageService service;
+
+    @BeforeEach
+    void setUp() {
+        properties = new StorageProperties();
+        properties.setLocation(tempDir.resolve("cas").toString());
+        service = new ContentAddressedStorageService(properties);
+        service.init();
+    }
+
+    /**
+     * init() discards the old tmp directory in the background, it must be gone before the temp directory is cleaned up
+     */
+    @AfterEach
+    void awaitReclaim() throws Exception {
+        for (int i = 0; i < 100 && trashCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    void duplicateContentIsStoredOnce() throws IOException {
+        service.store("a.txt", content("hello"));
+        service.store("b.txt", content("hello"));
+
+        assertThat(service.load("a.txt")).isEqualTo(service.load("b.txt"));
+        assertThat(countObjects()).isEqualTo(1);
+        assertThat(service.loadAll().map(Path::toString)).containsExactly("a.txt", "b.txt");
+    }
+
+    @Test
+    void indexSurvivesRestart() throws IOException {
+        service.store("a.txt", content("hello"));
+
+        ContentAddressedStorageService restarted = new ContentAddressedStorageService(properties);
+        restarted.init();
+
+        assertThat(new String(Files.readAllBytes(restarted.load("a.txt")), StandardCharsets.UTF_8)).isEqualTo("hello");
+    }
+
+    @Test
+    void sameNameIsReplacedAlsoAfterRestart() throws IOException {
+        service.store("a.txt", content("hello"));
+        service.store("a.txt", content("other"));
+
+        ContentAddressedStorageService restarted = new ContentAddressedStorageService(properties);
+        restarted.init();
+
+        assertThat(new String(Files.readAllBytes(restarted.load("a.txt")), StandardCharsets.UTF_8)).isEqualTo("other");
+        assertThat(restarted.loadAll().map(Path::toString)).containsExactly("a.txt");
+    }
+
+    @Test
+    void relativePathIsRejected() {
+        assertThatThrownBy(() -> service.store("../a.txt", content("hello"))).isInstanceOf(StorageException.class);
+    }
+
+    @Test
+    void concurrentStoresOfTheSameContentWaitForItsRename() throws Exception {
+        properties.setFsync(FsyncPolicy.GROUP_COMMIT);
+        properties.setGroupCommitInterval(Duration.ofMillis(5));
+        ContentAddressedStorageService grouped = new ContentAddressedStorageService(properties);
+        grouped.init();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> stores = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                String name = "f" + i + ".txt";
+                stores.add(executor.submit(() -> grouped.store(name, content("same"))));
+            }
+            for (Future<Long> store : stores) {
+                assertThat(store.get()).isEqualTo(4);
+            }
+        } finally {
+            executor.shutdown();
+            grouped.close();
+        }
+
+        assertThat(countObjects()).isEqualTo(1);
+        assertThat(grouped.pendingObjects()).isZero();
+    }
+
+    @Test
+    void compactionKeepsOneLinePerNameAcrossRestarts() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            service.store("a.txt", content("a" + i));
+            service.store("b.txt", content("b" + i));
+        }
+        Path indexFile = tempDir.resolve("cas").resolve("index.log");
+        assertThat(Files.readAllLines(indexFile)).hasSize(10);
+
+        service.compactIndex();
+        service.store("c.txt", content("c"));
+
+        assertThat(Files.readAllLines(indexFile)).hasSize(3);
+        ContentAddressedStorageService restarted = new ContentAddressedStorageService(properties);
+        restarted.init();
+        assertThat(restarted.loadAll().map(Path::toString)).containsExactly("a.txt", "b.txt", "c.txt");
+        assertThat(new String(Files.readAllBytes(restarted.load("a.txt")), StandardCharsets.UTF_8)).isEqualTo("a4");
+        assertThat(new String(Files.readAllBytes(restarted.load("c.txt")), StandardCharsets.UTF_8)).isEqualTo("c");
+    }
+
+    @Test
+    void compactionLeftOverFromACrashIsIgnored() throws IOException {
+        service.store("a.txt", content("hello"));
+        service.close();
+        Files.write(tempDir.resolve("cas").resolve("index.log.compact"), "torn".getBytes(StandardCharsets.UTF_8));
+
+        ContentAddressedStorageService restarted = new ContentAddressedStorageService(properties);
+        restarted.init();
+
+        assertThat(restarted.loadAll().map(Path::toString)).containsExactly("a.txt");
+        assertThat(tempDir.resolve("cas").resolve("index.log.compact")).doesNotExist();
+    }
+
+    @Test
+    void replacedContentIsCollected() throws IOException {
+        service.store("a.txt", content("one"));
+        Path one = service.load("a.txt");
+        service.store("a.txt", content("two"));
+
+        assertThat(service.collectGarbage()).isEqualTo(1);
+
+        assertThat(one).doesNotExist();
+        assertThat(countObjects()).isEqualTo(1);
+        assertThat(new String(Files.readAllBytes(service.load("a.txt")), StandardCharsets.UTF_8)).isEqualTo("two");
+    }
+
+    @Test
+    void objectIsKeptWhileAnyNameMapsToIt() throws IOException {
+        service.store("a.txt", content("same"));
+        service.store("b.txt", content("same"));
+        service.store("a.txt", content("other"));
+
+        assertThat(service.collectGarbage()).isZero();
+
+        assertThat(countObjects()).isEqualTo(2);
+        assertThat(new String(Files.readAllBytes(service.load("b.txt")), StandardCharsets.UTF_8)).isEqualTo("same");
+    }
+
+    @Test
+    void contentStoredAgainBeforeCollectionIsKept() throws IOException {
+        service.store("a.txt", content("one"));
+        service.store("a.txt", content("two"));
+        service.store("b.txt", content("one"));
+
+        assertThat(service.collectGarbage()).isZero();
+        assertThat(countObjects()).isEqualTo(2);
+    }
+
+    @Test
+    void objectLeftWithoutAnIndexLineIsCollectedAfterRestart() throws IOException {
+        service.store("a.txt", content("hello"));
+        service.close();
+        Path orphan = tempDir.resolve("cas").resolve("objects").resolve("ff").resolve("ff")
+                .resolve(String.join("", Collections.nCopies(64, "f")));
+        Files.createDirectories(orphan.getParent());
+        Files.write(orphan, new byte[]{1});
+
+        ContentAddressedStorageService restarted = new ContentAddressedStorageService(properties);
+        restarted.init();
+
+        assertThat(restarted.collectGarbage()).isEqualTo(1);
+        assertThat(orphan).doesNotExist();
+        assertThat(countObjects()).isEqualTo(1);
+    }
+
+    @Test
+    void unknownNameIsNotFound() {
+        assertThatThrownBy(() -> service.load("missing.txt")).isInstanceOf(StorageFileNotFoundException.class);
+        assertThatThrownBy(() -> service.load("../index.log")).isInstanceOf(StorageFileNotFoundException.class);
+    }
+
+    private long trashCount() throws IOException {
+        try (Stream<Path> entries = Files.list(tempDir.resolve("cas"))) {
+            return entries.filter(path -> path.getFileName().toString().contains(".trash-")).count();
+        }
+    }
+
+    private long countObjects() throws IOException {
+        try (Stream<Path> files = Files.walk(tempDir.resolve("cas").resolve("objects"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static ByteArrayInputStream content(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,227 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import com.xiaofine.springbootuploadfile.storage.cache.HotFileCache;
+import com.xiaofine.springbootuploadfile.storage.compression.BlockCompressedFile;
+import com.xiaofine.springbootuploadfile.storage.compression.CompressedFileResource;
+import com.xiaofine.springbootuploadfile.storage.compression.GzipCodec;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileSystemStorageServiceTests {
+
+    @TempDir
+    Path tempDir;
+
+    private FileSystemStorageService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    @Test
+    void sameNameIsReplaced() throws IOException {
+        service = newService(FsyncPolicy.PER_FILE);
+        service.store("a.txt", content("hello"));
+        service.store("a.txt", content("other"));
+
+        assertThat(read("a.txt")).isEqualTo("other");
+        assertThat(service.loadAll().map(Path::toString)).containsExactly("a.txt");
+        assertThat(files()).containsExactly("a.txt");
+    }
+
+    @Test
+    void compressedFilesAreKeptUnderTheirOwnSuffix() throws IOException {
+        StorageProperties properties = properties(FsyncPolicy.NONE);
+        properties.getCompression().setEnabled(true);
+        service = new FileSystemStorageService(properties);
+        service.init();
+        service.store("a.txt", content("hello"));
+
+        assertThat(files()).containsExactly("a.txt.zblk");
+        assertThat(service.loadAsResource("a.txt")).isInstanceOf(CompressedFileResource.class);
+        assertThat(StreamUtils.copyToString(service.loadAsResource("a.txt").getInputStream(), StandardCharsets.UTF_8))
+                .isEqualTo("hello");
+
+        service.close();
+        service = new FileSystemStorageService(properties);
+        service.init();
+        assertThat(service.loadAll().map(Path::toString)).containsExactly("a.txt");
+        assertThat(service.loadAsResource("a.txt")).isInstanceOf(CompressedFileResource.class);
+    }
+
+    @Test
+    void rawUploadInTheCompressedFormatIsServedAsIs() throws IOException {
+        Path crafted = tempDir.resolve("crafted");
+        try (FileChannel channel = FileChannel.open(crafted, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            BlockCompressedFile.write(content("hello"), channel, new GzipCodec(new StorageProperties()), 1024);
+        }
+        byte[] raw = Files.readAllBytes(crafted);
+        service = newService(FsyncPolicy.NONE);
+        service.store("a.bin", new ByteArrayInputStream(raw));
+
+        Resource resource = service.loadAsResource("a.bin");
+
+        assertThat(resource).isNotInstanceOf(CompressedFileResource.class);
+        assertThat(StreamUtils.copyToByteArray(resource.getInputStream())).isEqualTo(raw);
+    }
+
+    @Test
+    void readingAReplacedVersionFails() throws IOException {
+        service = newService(FsyncPolicy.NONE);
+        service.store("a.txt", content("hello"));
+        Resource resource = service.loadAsResource("a.txt");
+
+        service.store("a.txt", content("other!"));
+
+        assertThat(resource.contentLength()).isEqualTo(5);
+        assertThatThrownBy(resource::getInputStream).isInstanceOf(IOException.class);
+        assertThat(StreamUtils.copyToString(service.loadAsResource("a.txt").getInputStream(), StandardCharsets.UTF_8))
+                .isEqualTo("other!");
+    }
+
+    @Test
+    void concurrentWritersOfOneNameLeaveOneCompleteFile() throws Exception {
+        service = newService(FsyncPolicy.GROUP_COMMIT);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                String text = repeat((char) ('a' + i % 26), 10000);
+                results.add(executor.submit(() -> service.store("a.txt", content(text))));
+            }
+            for (Future<Long> result : results) {
+                assertThat(result.get()).isEqualTo(10000);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        String stored = read("a.txt");
+        assertThat(stored).hasSize(10000);
+        assertThat(stored.chars().distinct().count()).isEqualTo(1);
+        assertThat(files()).containsExactly("a.txt");
+    }
+
+    @Test
+    void groupCommitForcesTheDirectoryBeforeStoreReturns() {
+        StorageProperties properties = properties(FsyncPolicy.GROUP_COMMIT);
+        // long enough that a store returning before its batch would see no directory sync
+        properties.setGroupCommitInterval(Duration.ofMillis(300));
+        StorageMetrics metrics = new StorageMetrics(properties);
+        service = new FileSystemStorageService(properties, Collections.singletonList(new GzipCodec(properties)),
+                new HotFileCache(properties), new StorageReclaimer(properties), metrics);
+        service.init();
+
+        service.store("a.txt", content("hello"));
+
+        Timer directorySyncs = metrics.getRegistry().find("storage.fsync").tag("target", "directory").timer();
+        assertThat(directorySyncs).isNotNull();
+        assertThat(directorySyncs.count()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    void filesOlderThanTheTtlExpire() throws IOException {
+        StorageProperties properties = properties(FsyncPolicy.NONE);
+        properties.getReclaim().setTtl(Duration.ofHours(1));
+        properties.getReclaim().setBatchSize(2);
+        service = new FileSystemStorageService(properties);
+        service.init();
+        for (String name : new String[]{"a.txt", "b.txt", "c.txt", "d.txt", "e.txt"}) {
+            service.store(name, content(name));
+        }
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2).toMillis());
+        Files.setLastModifiedTime(service.load("a.txt"), old);
+        Files.setLastModifiedTime(service.load("d.txt"), old);
+
+        assertThat(service.expire()).isEqualTo(2);
+
+        assertThat(service.loadAll().map(Path::toString)).containsExactly("b.txt", "c.txt", "e.txt");
+        assertThat(files()).containsExactlyInAnyOrder("b.txt", "c.txt", "e.txt");
+    }
+
+    @Test
+    void deleteAllLeavesAnEmptyStorageAtOnce() throws Exception {
+        service = newService(FsyncPolicy.NONE);
+        service.store("a.txt", content("hello"));
+
+        service.deleteAll();
+        service.init();
+
+        assertThat(service.loadAll()).isEmpty();
+        assertThat(files()).isEmpty();
+        // let the background delete finish before the temp directory is cleaned up
+        for (int i = 0; i < 100 && entries(tempDir) > 1; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(entries(tempDir)).isEqualTo(1);
+    }
+
+    private FileSystemStorageService newService(FsyncPolicy fsync) {
+        FileSystemStorageService service = new FileSystemStorageService(properties(fsync));
+        service.init();
+        return service;
+    }
+
+    private StorageProperties properties(FsyncPolicy fsync) {
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(tempDir.resolve("files").toString());
+        properties.setFsync(fsync);
+        properties.setGroupCommitInterval(Duration.ofMillis(2));
+        return properties;
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(service.load(name)), StandardCharsets.UTF_8);
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir.resolve("files"))) {
+            return files.map(path -> path.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    private static long entries(Path directory) throws IOException {
+        try (Stream<Path> entries = Files.list(directory)) {
+            return entries.count();
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static ByteArrayInputStream content(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
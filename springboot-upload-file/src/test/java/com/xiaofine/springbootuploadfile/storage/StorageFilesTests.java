@@ -0,0 +1,41 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageFilesTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void moveAcrossVolumesForcesTheCopyAndTheSourceDirectory() throws Exception {
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(tempDir.toString());
+        MeterRegistry registry = new SimpleMeterRegistry();
+        FileSync fileSync = new FileSync(FsyncPolicy.PER_FILE, Duration.ZERO, new StorageMetrics(properties, registry));
+        Path source = Files.write(Files.createDirectories(tempDir.resolve("staging")).resolve("a.part"),
+                "hello".getBytes(StandardCharsets.UTF_8));
+        Path target = Files.createDirectories(tempDir.resolve("files")).resolve("a.txt");
+
+        fileSync.await(StorageFiles.moveByCopy(source, target, fileSync));
+
+        assertThat(source).doesNotExist();
+        assertThat(new String(Files.readAllBytes(target), StandardCharsets.UTF_8)).isEqualTo("hello");
+        try (Stream<Path> files = Files.list(target.getParent())) {
+            assertThat(files).containsExactly(target);
+        }
+        assertThat(registry.get("storage.fsync").tags("target", "file").timer().count()).isEqualTo(1);
+        assertThat(registry.get("storage.fsync").tags("target", "directory").timer().count()).isEqualTo(1);
+    }
+}
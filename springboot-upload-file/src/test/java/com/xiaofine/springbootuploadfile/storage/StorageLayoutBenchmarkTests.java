@@ -0,0 +1,81 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Creates a million empty files in the flat layout and in the fan-out layout, then opens a random sample of
+ * them and reports the per-file open latency. The file count, the fan-out depth and the directory (put it on
+ * the file system the volumes will use) are {@code -Dbenchmark.files}, {@code -Dbenchmark.shard-depth}
+ * and {@code -Dbenchmark.dir}. Run with {@code mvn test -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class StorageLayoutBenchmarkTests {
+
+    private static final int FILES = Integer.getInteger("benchmark.files", 1_000_000);
+
+    private static final int SHARD_DEPTH = Integer.getInteger("benchmark.shard-depth", 2);
+
+    private static final int SAMPLE = 100_000;
+
+    private static final Path DIRECTORY = Paths.get(System.getProperty("benchmark.dir", "target/layout-benchmark"));
+
+    @Test
+    void flatAgainstFanOut() throws IOException {
+        try {
+            for (int depth : new int[]{0, SHARD_DEPTH}) {
+                StorageProperties properties = new StorageProperties();
+                properties.setLocation(DIRECTORY.resolve("depth-" + depth).toString());
+                properties.setShardDepth(depth);
+                StorageLayout layout = new StorageLayout(properties);
+                layout.createRoots();
+
+                long started = System.nanoTime();
+                for (int i = 0; i < FILES; i++) {
+                    Path file = layout.resolve(name(i));
+                    if (depth > 0) {
+                        Files.createDirectories(file.getParent());
+                    }
+                    Files.createFile(file);
+                }
+                System.out.printf("depth %d: created %d files in %.1fs%n", depth, FILES,
+                        (System.nanoTime() - started) / 1e9);
+
+                long[] nanos = new long[SAMPLE];
+                Random random = new Random(42);
+                for (int i = 0; i < SAMPLE; i++) {
+                    Path file = layout.resolve(name(random.nextInt(FILES)));
+                    long opened = System.nanoTime();
+                    try (FileChannel ignored = FileChannel.open(file, StandardOpenOption.READ)) {
+                        nanos[i] = System.nanoTime() - opened;
+                    }
+                }
+                Arrays.sort(nanos);
+                System.out.printf("depth %d: open p50 %.1fus p99 %.1fus p99.9 %.1fus max %.1fus%n", depth,
+                        nanos[SAMPLE / 2] / 1e3, nanos[SAMPLE * 99 / 100] / 1e3, nanos[SAMPLE * 999 / 1000] / 1e3,
+                        nanos[SAMPLE - 1] / 1e3);
+
+                started = System.nanoTime();
+                int scanned = layout.scan().size();
+                System.out.printf("depth %d: scanned %d files in %.1fs%n", depth, scanned,
+                        (System.nanoTime() - started) / 1e9);
+            }
+        } finally {
+            FileSystemUtils.deleteRecursively(DIRECTORY);
+        }
+    }
+
+    private static String name(int i) {
+        return "file-" + i + ".bin";
+    }
+}
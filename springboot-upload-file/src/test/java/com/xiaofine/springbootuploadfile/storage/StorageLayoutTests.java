@@ -0,0 +1,51 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class StorageLayoutTests {
+
+    @Test
+    void flatSingleVolumeKeepsTheOldLayout() {
+        StorageLayout layout = new StorageLayout(new StorageProperties());
+
+        assertThat(layout.resolve("a.png")).isEqualTo(Paths.get("upload-dir", "a.png"));
+    }
+
+    @Test
+    void shardDirectoriesAreTwoHexDigitsPerLevel() {
+        StorageProperties properties = new StorageProperties();
+        properties.setShardDepth(2);
+        Path path = new StorageLayout(properties).resolve("a.png");
+
+        assertThat(path.getNameCount()).isEqualTo(4);
+        assertThat(path.getName(1).toString()).matches("[0-9a-f]{2}");
+        assertThat(path.getName(2).toString()).matches("[0-9a-f]{2}");
+        assertThat(path.getFileName().toString()).isEqualTo("a.png");
+    }
+
+    @Test
+    void volumesAreFilledInProportionToTheirWeight() {
+        StorageProperties properties = new StorageProperties();
+        properties.setVolumes(Arrays.asList(
+                new StorageProperties.Volume("disk1", 1),
+                new StorageProperties.Volume("disk2", 3)));
+        StorageLayout layout = new StorageLayout(properties);
+
+        Map<Path, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 40000; i++) {
+            counts.merge(layout.rootOf("file-" + i), 1, Integer::sum);
+        }
+
+        assertThat(counts.get(Paths.get("disk2")) / 40000.0).isCloseTo(0.75, within(0.02));
+        assertThat(layout.rootOf("file-1")).isEqualTo(layout.rootOf("file-1"));
+    }
+}
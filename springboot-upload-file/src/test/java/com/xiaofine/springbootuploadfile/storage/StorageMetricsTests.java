@@ -0,0 +1,67 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import com.xiaofine.springbootuploadfile.storage.cache.HotFileCache;
+import com.xiaofine.springbootuploadfile.storage.compression.GzipCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageMetricsTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void storeAndLoadAreTimedPerVolume() {
+        StorageProperties properties = new StorageProperties();
+        properties.setVolumes(Arrays.asList(
+                new StorageProperties.Volume(tempDir.resolve("disk1").toString(), 1),
+                new StorageProperties.Volume(tempDir.resolve("disk2").toString(), 1)));
+        properties.setFsync(FsyncPolicy.PER_FILE);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        StorageMetrics metrics = new StorageMetrics(properties, registry);
+        FileSystemStorageService service = new FileSystemStorageService(properties,
+                Collections.singletonList(new GzipCodec(properties)), new HotFileCache(properties),
+                new StorageReclaimer(properties), metrics);
+        try {
+            service.init();
+            service.store("a.txt", new ByteArrayInputStream(new byte[1000]));
+            service.loadAsResource("a.txt");
+            String volume = metrics.volumeOf(service.load("a.txt"));
+
+            assertThat(volume).isIn(tempDir.resolve("disk1").toString(), tempDir.resolve("disk2").toString());
+            assertThat(registry.find("storage.operation").tags("operation", "scan").timers()).hasSize(2);
+            assertThat(registry.get("storage.operation").tags("operation", "store", "volume", volume).timer().count())
+                    .isEqualTo(1);
+            assertThat(registry.get("storage.operation").tags("operation", "load", "volume", volume).timer().count())
+                    .isEqualTo(1);
+            assertThat(registry.get("storage.transfer.bytes").tags("operation", "upload").summary().totalAmount())
+                    .isEqualTo(1000);
+            assertThat(registry.get("storage.transfers.active").tags("operation", "upload").gauge().value())
+                    .isZero();
+            assertThat(registry.get("storage.fsync").tags("target", "file").timer().count()).isEqualTo(1);
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    void pathsOutsideTheVolumesAreTaggedOther() {
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(tempDir.resolve("files").toString());
+        StorageMetrics metrics = new StorageMetrics(properties);
+
+        assertThat(metrics.volumeOf(tempDir.resolve("files").resolve("3f").resolve("a.txt")))
+                .isEqualTo(tempDir.resolve("files").toString());
+        assertThat(metrics.volumeOf(tempDir.resolve("staging").resolve("a.upload")))
+                .isEqualTo(StorageMetrics.OTHER_VOLUME);
+    }
+}
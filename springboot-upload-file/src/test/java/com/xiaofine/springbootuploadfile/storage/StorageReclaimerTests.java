@@ -0,0 +1,65 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageReclaimerTests {
+
+    @TempDir
+    Path tempDir;
+
+    private final StorageReclaimer reclaimer = new StorageReclaimer(new StorageProperties());
+
+    @AfterEach
+    void tearDown() {
+        reclaimer.close();
+    }
+
+    @Test
+    void discardedDirectoryIsGoneAtOnceAndDeletedInTheBackground() throws Exception {
+        Path directory = tree(tempDir.resolve("upload-dir"));
+
+        reclaimer.discard(directory).get(10, TimeUnit.SECONDS);
+
+        assertThat(directory).doesNotExist();
+        assertThat(contentOf(tempDir)).isZero();
+    }
+
+    @Test
+    void leftoversOfAnInterruptedDiscardAreRecovered() throws Exception {
+        Path leftover = tree(tempDir.resolve(".upload-dir.trash-0123"));
+
+        reclaimer.recover(tempDir.resolve("upload-dir"));
+
+        for (int i = 0; i < 100 && Files.exists(leftover); i++) {
+            Thread.sleep(50);
+        }
+        assertThat(leftover).doesNotExist();
+    }
+
+    private static Path tree(Path root) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            Path shard = Files.createDirectories(root.resolve("0" + i).resolve("a" + i));
+            for (int j = 0; j < 10; j++) {
+                Files.write(shard.resolve("file-" + j), new byte[]{1, 2, 3});
+            }
+        }
+        Files.write(root.resolve("top"), new byte[]{1});
+        return root;
+    }
+
+    private static long contentOf(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.xiaofine.springbootuploadfile.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VersionLinksTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void linkKeepsTheVersionWhenTheNameIsReplaced() throws Exception {
+        VersionLinks links = links(60_000);
+        Path file = write("a.txt", "old");
+        FileVersion version = FileVersion.of(file);
+
+        Path link = links.link(file, version);
+        Files.move(write(".new.tmp", "new"), file, StandardCopyOption.ATOMIC_MOVE);
+
+        assertThat(link.getParent().getFileName().toString()).isEqualTo(VersionLinks.DIRECTORY);
+        assertThat(new String(Files.readAllBytes(link), StandardCharsets.UTF_8)).isEqualTo("old");
+        assertThat(links.link(file, version)).isEqualTo(link);
+    }
+
+    @Test
+    void versionReplacedBeforeLinkingGetsNoLink() throws Exception {
+        VersionLinks links = links(60_000);
+        Path file = write("a.txt", "old");
+        FileVersion version = FileVersion.of(file);
+        Files.delete(file);
+        write("a.txt", "newer");
+
+        assertThat(links.link(file, version)).isNull();
+    }
+
+    @Test
+    void sweepDeletesLinksTwiceTheReuseTimeOld() throws Exception {
+        VersionLinks links = links(1);
+        Path file = write("a.txt", "old");
+        Path link = links.link(file, FileVersion.of(file));
+        Thread.sleep(5);
+
+        links.sweep();
+
+        assertThat(link).doesNotExist();
+        assertThat(file).exists();
+    }
+
+    @Test
+    void scanSkipsTheLinks() throws Exception {
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(tempDir.toString());
+        properties.setShardDepth(1);
+        StorageLayout layout = new StorageLayout(properties);
+        Path file = layout.resolve("a.txt");
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[]{1});
+
+        new VersionLinks(layout, 60_000).link(file, FileVersion.of(file));
+
+        assertThat(layout.scan()).containsExactly("a.txt");
+    }
+
+    private VersionLinks links(long reuseMillis) {
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(tempDir.toString());
+        properties.setShardDepth(0);
+        return new VersionLinks(new StorageLayout(properties), reuseMillis);
+    }
+
+    private Path write(String name, String text) throws Exception {
+        return Files.write(tempDir.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
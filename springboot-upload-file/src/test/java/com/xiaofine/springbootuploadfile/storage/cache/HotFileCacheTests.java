@@ -0,0 +1,126 @@
+package com.xiaofine.springbootuploadfile.storage.cache;
+
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotFileCacheTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void fileIsCachedOnItsSecondRequest() throws IOException {
+        HotFileCache cache = newCache(DataSize.ofKilobytes(64));
+        Resource file = file("a.png", 100);
+
+        assertThat(cache.get("a.png")).isNull();
+        assertThat(cache.admit("a.png", file)).isSameAs(file);
+        assertThat(cache.get("a.png")).isNull();
+        Resource admitted = cache.admit("a.png", file);
+
+        assertThat(admitted).isInstanceOf(CachedResource.class);
+        assertThat(StreamUtils.copyToByteArray(admitted.getInputStream()))
+                .isEqualTo(Files.readAllBytes(file.getFile().toPath()));
+        assertThat(cache.get("a.png")).isSameAs(admitted);
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.bytes()).isEqualTo(100);
+    }
+
+    @Test
+    void invalidatedFileIsReadAgain() throws IOException {
+        HotFileCache cache = newCache(DataSize.ofKilobytes(64));
+        Resource file = file("a.png", 100);
+        request(cache, "a.png", file, 2);
+
+        cache.invalidate("a.png");
+
+        assertThat(cache.get("a.png")).isNull();
+        assertThat(cache.bytes()).isZero();
+    }
+
+    @Test
+    void loadIsKeptWhenAnotherNameIsInvalidatedMeanwhile() throws IOException {
+        HotFileCache cache = newCache(DataSize.ofKilobytes(64));
+        Resource file = invalidatingWhileRead(cache, "b.png", file("a.png", 100));
+        request(cache, "a.png", file, 2);
+
+        assertThat(cache.get("a.png")).isInstanceOf(CachedResource.class);
+    }
+
+    @Test
+    void loadIsDroppedWhenItsNameIsInvalidatedMeanwhile() throws IOException {
+        HotFileCache cache = newCache(DataSize.ofKilobytes(64));
+        Resource file = invalidatingWhileRead(cache, "a.png", file("a.png", 100));
+        request(cache, "a.png", file, 2);
+
+        assertThat(cache.get("a.png")).isNull();
+        assertThat(cache.bytes()).isZero();
+    }
+
+    @Test
+    void popularFilesAreNotPushedOutByColdOnes() throws IOException {
+        // 100 KB: a 1 KB window for newcomers and 99 KB of main region
+        HotFileCache cache = newCache(DataSize.ofKilobytes(100));
+        for (int i = 0; i < 90; i++) {
+            request(cache, "hot-" + i, file("hot-" + i, 1024), 10);
+        }
+        for (int i = 0; i < 200; i++) {
+            request(cache, "cold-" + i, file("cold-" + i, 1024), 2);
+        }
+
+        for (int i = 0; i < 90; i++) {
+            assertThat(cache.get("hot-" + i)).as("hot-" + i).isNotNull();
+        }
+        assertThat(cache.bytes()).isLessThanOrEqualTo(DataSize.ofKilobytes(100).toBytes());
+    }
+
+    private HotFileCache newCache(DataSize maxSize) {
+        StorageProperties properties = new StorageProperties();
+        properties.getCache().setEnabled(true);
+        properties.getCache().setMaxSize(maxSize);
+        properties.getCache().setMaxFileSize(DataSize.ofKilobytes(1));
+        return new HotFileCache(properties);
+    }
+
+    private static void request(HotFileCache cache, String name, Resource file, int times) {
+        for (int i = 0; i < times; i++) {
+            if (cache.get(name) == null) {
+                cache.admit(name, file);
+            }
+        }
+    }
+
+    /**
+     * The file, invalidating the name in the cache once it is opened for loading, as a store would
+     */
+    private static Resource invalidatingWhileRead(HotFileCache cache, String name, Resource file) throws IOException {
+        return new FileSystemResource(file.getFile().toPath()) {
+            @Override
+            public ReadableByteChannel readableChannel() throws IOException {
+                ReadableByteChannel channel = super.readableChannel();
+                cache.invalidate(name);
+                return channel;
+            }
+        };
+    }
+
+    private Resource file(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (name.hashCode() + i);
+        }
+        return new FileSystemResource(Files.write(tempDir.resolve(name), content));
+    }
+}
@@ -0,0 +1,84 @@
+package com.xiaofine.springbootuploadfile.storage.compression;
+
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockCompressedFileTests {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final GzipCodec codec = new GzipCodec(new StorageProperties());
+
+    @Test
+    void storedBytesAreASingleGzipStream() throws Exception {
+        byte[] content = content(10 * BLOCK_SIZE + 17);
+        BlockCompressedFile file = write(content);
+
+        byte[] stored = Arrays.copyOf(Files.readAllBytes(file.getPath()), (int) file.getDataLength());
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(stored))) {
+            assertThat(StreamUtils.copyToByteArray(in)).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void skipStartsDecompressingAtTheTargetBlock() throws Exception {
+        byte[] content = content(10 * BLOCK_SIZE + 17);
+        CompressedFileResource resource = new CompressedFileResource(write(content), codec);
+
+        assertThat(resource.contentLength()).isEqualTo(content.length);
+        try (InputStream in = resource.getInputStream()) {
+            assertThat(in.skip(7 * BLOCK_SIZE + 5)).isEqualTo(7 * BLOCK_SIZE + 5);
+            assertThat(StreamUtils.copyToByteArray(in))
+                    .isEqualTo(Arrays.copyOfRange(content, 7 * BLOCK_SIZE + 5, content.length));
+        }
+    }
+
+    @Test
+    void trailerWithABlockCountTheFileCannotHoldIsRejected() throws Exception {
+        BlockCompressedFile file = write(content(3 * BLOCK_SIZE));
+        Path path = file.getPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            // blockCount sits right before the 8 byte magic
+            ByteBuffer count = ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE);
+            count.flip();
+            channel.write(count, channel.size() - 12);
+        }
+
+        assertThat(BlockCompressedFile.open(path)).isNull();
+    }
+
+    private BlockCompressedFile write(byte[] content) throws Exception {
+        Path path = tempDir.resolve("data.csv");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            BlockCompressedFile.write(new ByteArrayInputStream(content), channel, codec, BLOCK_SIZE);
+        }
+        return BlockCompressedFile.open(path);
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        Random random = new Random(42);
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return content;
+    }
+}
@@ -0,0 +1,286 @@
+package com.xiaofine.springbootuploadfile.upload;
+
+import com.xiaofine.springbootuploadfile.storage.FileSystemStorageService;
+import com.xiaofine.springbootuploadfile.storage.StorageException;
+import com.xiaofine.springbootuploadfile.storage.StorageFileNotFoundException;
+import com.xiaofine.springbootuploadfile.storage.StorageProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChunkedUploadServiceTests {
+
+    @TempDir
+    Path tempDir;
+
+    private FileSystemStorageService storageService;
+
+    private StorageProperties properties;
+
+    private ChunkedUploadService uploadService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new StorageProperties();
+        properties.setLocation(tempDir.resolve("files").toString());
+        properties.setStagingLocation(tempDir.resolve("staging").toString());
+        properties.setMinPartSize(DataSize.ofBytes(1));
+        storageService = new FileSystemStorageService(properties);
+        storageService.init();
+        uploadService = newUploadService();
+    }
+
+    @Test
+    void partsInAnyOrderAreAssembled() throws IOException {
+        ChunkedUpload upload = uploadService.initiate("abc.txt", 10, 4L);
+        assertThat(upload.getPartCount()).isEqualTo(3);
+
+        uploadService.uploadPart(upload.getUploadId(), 3, content("ij"));
+        uploadService.uploadPart(upload.getUploadId(), 1, content("abcd"));
+        uploadService.uploadPart(upload.getUploadId(), 2, content("efgh"));
+        uploadService.complete(upload.getUploadId());
+
+        assertThat(new String(Files.readAllBytes(storageService.load("abc.txt")), StandardCharsets.UTF_8))
+                .isEqualTo("abcdefghij");
+    }
+
+    @Test
+    void failedCompleteCanBeRetried() throws IOException {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        FileSystemStorageService failingOnce = new FileSystemStorageService(properties) {
+            @Override
+            public long store(String filename, Path source) {
+                if (fail.getAndSet(false)) {
+                    throw new StorageException("No space left on device");
+                }
+                return super.store(filename, source);
+            }
+        };
+        uploadService = new ChunkedUploadService(failingOnce, properties);
+        uploadService.init();
+        ChunkedUpload upload = uploadService.initiate("abc.txt", 10, 4L);
+        uploadService.uploadPart(upload.getUploadId(), 1, content("abcd"));
+        uploadService.uploadPart(upload.getUploadId(), 2, content("efgh"));
+        uploadService.uploadPart(upload.getUploadId(), 3, content("ij"));
+
+        assertThatThrownBy(() -> uploadService.complete(upload.getUploadId())).isInstanceOf(StorageException.class);
+        assertThat(upload.getStagingFile()).exists();
+        assertThat(uploadService.get(upload.getUploadId()).getCompletedParts()).containsExactly(1, 2, 3);
+
+        uploadService.complete(upload.getUploadId());
+        assertThat(new String(Files.readAllBytes(storageService.load("abc.txt")), StandardCharsets.UTF_8))
+                .isEqualTo("abcdefghij");
+        assertThatThrownBy(() -> uploadService.get(upload.getUploadId()))
+                .isInstanceOf(StorageFileNotFoundException.class);
+    }
+
+    @Test
+    void completeWithMissingPartsIsRejected() {
+        ChunkedUpload upload = uploadService.initiate("abc.txt", 10, 4L);
+        uploadService.uploadPart(upload.getUploadId(), 1, content("abcd"));
+
+        assertThatThrownBy(() -> uploadService.complete(upload.getUploadId())).isInstanceOf(IllegalStateException.class);
+        assertThat(Arrays.stream(uploadService.get(upload.getUploadId()).getCompletedParts())).containsExactly(1);
+    }
+
+    @Test
+    void partWithWrongLengthIsRejected() {
+        ChunkedUpload upload = uploadService.initiate("abc.txt", 10, 4L);
+
+        assertThatThrownBy(() -> uploadService.uploadPart(upload.getUploadId(), 1, content("abcde")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void retriedPartThatFailsHalfwayIsMissingAgain() {
+        ChunkedUpload upload = uploadService.initiate("abc.txt", 8, 4L);
+        uploadService.uploadPart(upload.getUploadId(), 1, content("abcd"));
+        uploadService.uploadPart(upload.getUploadId(), 2, content("efgh"));
+
+        assertThatThrownBy(() -> uploadService.uploadPart(upload.getUploadId(), 1, failingAfter("xy")))
+                .isInstanceOf(StorageException.class);
+
+        assertThat(Arrays.stream(uploadService.get(upload.getUploadId()).getCompletedParts())).containsExactly(2);
+        assertThatThrownBy(() -> uploadService.complete(upload.getUploadId())).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void concurrentWritesOfOnePartDoNotInterleave() throws Exception {
+        int size = 64 * 1024;
+        ChunkedUpload upload = uploadService.initiate("abc.txt", size, (long) size);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (char c : new char[]{'a', 'b'}) {
+                results.add(executor.submit(() -> uploadService.uploadPart(upload.getUploadId(), 1, trickle(c, size))));
+            }
+            for (Future<Long> result : results) {
+                assertThat(result.get()).isEqualTo(size);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        uploadService.complete(upload.getUploadId());
+
+        String stored = new String(Files.readAllBytes(storageService.load("abc.txt")), StandardCharsets.UTF_8);
+        assertThat(stored.chars().distinct().count()).isEqualTo(1);
+    }
+
+    @Test
+    void invalidNameIsRejectedBeforeAnythingIsStaged() throws IOException {
+        assertThatThrownBy(() -> uploadService.initiate("../abc.txt", 10, 4L))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        try (Stream<Path> staged = Files.list(tempDir.resolve("staging"))) {
+            assertThat(staged).isEmpty();
+        }
+    }
+
+    @Test
+    void partCountDoesNotOverflowNearLongMaxValue() {
+        assertThat(ChunkedUpload.partCount(Long.MAX_VALUE, 1L << 32)).isEqualTo(1L << 31);
+        assertThat(ChunkedUpload.partCount(Long.MAX_VALUE - 1, Long.MAX_VALUE)).isEqualTo(1);
+        assertThat(ChunkedUpload.partCount(10, 5)).isEqualTo(2);
+    }
+
+    @Test
+    void oversizedUploadIsRejectedBeforeAnythingIsStaged() throws IOException {
+        properties.setMaxUploadSize(DataSize.ofBytes(10));
+        uploadService = newUploadService();
+
+        assertThatThrownBy(() -> uploadService.initiate("abc.txt", 11, 4L))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> uploadService.initiate("abc.txt", Long.MAX_VALUE, Long.MAX_VALUE - 1))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        try (Stream<Path> staged = Files.list(tempDir.resolve("staging"))) {
+            assertThat(staged).isEmpty();
+        }
+    }
+
+    @Test
+    void partSizeZeroIsRejectedWithoutAMinimum() {
+        properties.setMinPartSize(DataSize.ofBytes(0));
+        uploadService = newUploadService();
+
+        assertThatThrownBy(() -> uploadService.initiate("abc.txt", 10, 0L))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("positive");
+    }
+
+    @Test
+    void abandonedUploadsExpire() {
+        properties.setUploadExpiry(Duration.ZERO);
+        uploadService = newUploadService();
+        ChunkedUpload upload = uploadService.initiate("abc.txt", 10, 4L);
+
+        assertThat(uploadService.expire()).isEqualTo(1);
+
+        assertThatThrownBy(() -> uploadService.get(upload.getUploadId()))
+                .isInstanceOf(StorageFileNotFoundException.class);
+        assertThat(upload.getStagingFile()).doesNotExist();
+    }
+
+    @Test
+    void openUploadsAreCapped() {
+        properties.setMaxOpenUploads(1);
+        uploadService = newUploadService();
+        uploadService.initiate("a.txt", 10, 4L);
+
+        assertThatThrownBy(() -> uploadService.initiate("b.txt", 10, 4L)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void concurrentInitiatesDoNotOvershootTheCap() throws Exception {
+        properties.setMaxOpenUploads(5);
+        uploadService = newUploadService();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ChunkedUpload>> initiates = new ArrayList<>();
+        try {
+            for (int i = 0; i < 64; i++) {
+                String name = "f" + i + ".txt";
+                initiates.add(executor.submit(() -> {
+                    start.await();
+                    return uploadService.initiate(name, 10, 4L);
+                }));
+            }
+            start.countDown();
+            List<ChunkedUpload> opened = new ArrayList<>();
+            for (Future<ChunkedUpload> initiate : initiates) {
+                try {
+                    opened.add(initiate.get());
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+                }
+            }
+            assertThat(opened).hasSize(5);
+
+            uploadService.abort(opened.get(0).getUploadId());
+            uploadService.initiate("again.txt", 10, 4L);
+            assertThatThrownBy(() -> uploadService.initiate("b.txt", 10, 4L)).isInstanceOf(IllegalStateException.class);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ChunkedUploadService newUploadService() {
+        ChunkedUploadService service = new ChunkedUploadService(storageService, properties);
+        service.init();
+        return service;
+    }
+
+    /**
+     * The text, then a failure as if the connection dropped
+     */
+    private static InputStream failingAfter(String text) {
+        return new SequenceInputStream(content(text), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        });
+    }
+
+    /**
+     * The character repeated, handed out a few bytes per read so that two writers would overlap
+     */
+    private static InputStream trickle(char c, int count) {
+        byte[] bytes = new byte[count];
+        Arrays.fill(bytes, (byte) c);
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                Thread.yield();
+                return super.read(b, off, Math.min(len, 256));
+            }
+        };
+    }
+
+    private static ByteArrayInputStream content(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}